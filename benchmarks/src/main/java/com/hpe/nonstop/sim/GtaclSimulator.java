@@ -0,0 +1,415 @@
+package com.hpe.nonstop.sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.hpe.nonstop.util.GtaclLauncher;
+
+/**
+ * An in memory stand-in for gtacl, TACL STATUS and PATHCOM on a NonStop
+ * system. It keeps the PATHMONs, serverclasses and processes it has been asked
+ * to create and answers the commands the caplet sends the way the real
+ * programs do, after a configurable delay.
+ * <p>
+ * Install it with <code>GtaclLauncher.setLauncher(new GtaclSimulator())</code>
+ * or <code>-Dtsmp.gtacl.launcher=com.hpe.nonstop.sim.GtaclSimulator</code>.
+ * Delays (milliseconds) and error injection are read from system properties:
+ * </p>
+ * <ul>
+ * <li>sim.latency.spawn : starting a gtacl process. Default 150
+ * <li>sim.latency.status : a TACL STATUS. Default 30
+ * <li>sim.latency.command : each PATHCOM command. Default 5
+ * <li>sim.latency.start : START SERVER, per static process. Default 50
+ * <li>sim.latency.pathmon : from starting a PATHMON until it answers OPEN.
+ * Default 0
+ * <li>sim.errorRate : chance of a PATHCOM command failing. Default 0
+ * </ul>
+ */
+public class GtaclSimulator extends GtaclLauncher {
+
+	public long SPAWN_LATENCY = Long.getLong("sim.latency.spawn", 150);
+	public long STATUS_LATENCY = Long.getLong("sim.latency.status", 30);
+	public long COMMAND_LATENCY = Long.getLong("sim.latency.command", 5);
+	public long START_LATENCY = Long.getLong("sim.latency.start", 50);
+	public long PATHMON_LATENCY = Long.getLong("sim.latency.pathmon", 0);
+	public double ERROR_RATE = Double.parseDouble(System.getProperty("sim.errorRate", "0"));
+
+	static class Pathmon {
+		final String name;
+		final int primaryCpu;
+		final int backupCpu;
+		final long readyAt;
+		boolean configured = false;
+		final Map<String, Serverclass> servers = new LinkedHashMap<String, Serverclass>();
+
+		Pathmon(String name, int primaryCpu, int backupCpu, long readyAt) {
+			this.name = name;
+			this.primaryCpu = primaryCpu;
+			this.backupCpu = backupCpu;
+			this.readyAt = readyAt;
+		}
+	}
+
+	static class Serverclass {
+		final Map<String, String> attrs;
+		boolean running = false;
+		boolean frozen = false;
+
+		Serverclass(Map<String, String> attrs) {
+			this.attrs = attrs;
+		}
+	}
+
+	private final Map<String, Pathmon> pathmons = new HashMap<String, Pathmon>();
+	// Server processes: name -> {cpu, pin}
+	private final Map<String, int[]> processes = new HashMap<String, int[]>();
+	// Server process load: name -> {links, weight}
+	private final Map<String, int[]> load = new HashMap<String, int[]>();
+	private final Random random = new Random(1);
+	private int nextPin = 100;
+	private int spawned = 0;
+	private int commands = 0;
+
+	public Process start(List<String> command) throws IOException {
+		synchronized (this) {
+			spawned++;
+		}
+		final List<String> args = command.subList(1, command.size());
+		if (args.size() >= 2 && args.get(0).equals("-p") && args.get(1).equals("pathcom")) {
+			return new SimulatedProcess(new SimulatedProcess.Body() {
+				public int run(SimulatedProcess.Pipe.Input in, SimulatedProcess.Pipe.Output out) throws Exception {
+					sleep(SPAWN_LATENCY);
+					new Pathcom(in, out).run();
+					return 0;
+				}
+			}, "pathcom");
+		}
+		if (args.size() >= 2 && args.get(0).equals("-c")) {
+			return new SimulatedProcess(new SimulatedProcess.Body() {
+				public int run(SimulatedProcess.Pipe.Input in, SimulatedProcess.Pipe.Output out) throws Exception {
+					sleep(SPAWN_LATENCY + STATUS_LATENCY);
+					out.print(tacl(args.get(1)));
+					return 0;
+				}
+			}, "tacl");
+		}
+		if (args.contains("-nowait")) {
+			return new SimulatedProcess(new SimulatedProcess.Body() {
+				public int run(SimulatedProcess.Pipe.Input in, SimulatedProcess.Pipe.Output out) throws Exception {
+					sleep(SPAWN_LATENCY);
+					String name = args.get(args.indexOf("-name") + 1).replace("/G/", "").toUpperCase();
+					int cpu = Integer.parseInt(args.get(args.indexOf("-cpu") + 1));
+					int backup = Integer.parseInt(args.get(args.size() - 1));
+					synchronized (GtaclSimulator.this) {
+						if (!pathmons.containsKey(name))
+							pathmons.put(name,
+									new Pathmon(name, cpu, backup, System.currentTimeMillis() + PATHMON_LATENCY));
+					}
+					return 0;
+				}
+			}, "nowait");
+		}
+		throw new IOException("Simulator does not support " + command);
+	}
+
+	// Adds a running, configured PATHMON
+	public synchronized void addPathmon(String name) {
+		Pathmon pmon = new Pathmon(name.toUpperCase(), 0, 1, 0);
+		pmon.configured = true;
+		pathmons.put(pmon.name, pmon);
+	}
+
+	public synchronized boolean isServing(String pathmon, String serverclass) {
+		Pathmon pmon = pathmons.get(pathmon.toUpperCase());
+		return pmon != null && pmon.servers.containsKey(serverclass) && pmon.servers.get(serverclass).running;
+	}
+
+	// Adds a running process that belongs to no PATHMON
+	public synchronized void addProcess(String name, int cpu) {
+		processes.put(name.replace("$", "").toUpperCase(), new int[] { cpu, nextPin++ });
+	}
+
+	// Sets the links and queued requests STATUS SERVER reports for a process
+	public synchronized void setLoad(String process, int links, int weight) {
+		load.put(process.replace("$", "").toUpperCase(), new int[] { links, weight });
+	}
+
+	public synchronized int getSpawned() {
+		return spawned;
+	}
+
+	public synchronized int getCommands() {
+		return commands;
+	}
+
+	// TACL commands, only STATUS $name and STATUS *
+	private synchronized String tacl(String command) {
+		String[] words = command.trim().split("\\s+");
+		if (words.length < 2 || !words[0].equalsIgnoreCase("status"))
+			return "Unknown command " + command + "\n";
+		if (words[1].equals("*"))
+			return taclStatusAll();
+		String name = words[1].replace("$", "").toUpperCase();
+		StringBuffer out = new StringBuffer("Process           Pri PFR %WT Userid   Program file      Hometerm\n");
+		Pathmon pmon = pathmons.get(name);
+		if (pmon != null && System.currentTimeMillis() >= pmon.readyAt) {
+			out.append(String.format("$%-8s %d,%d   148  001 255,255  $SYSTEM.SYSTEM.PATHMON $ZHOME\n", name,
+					pmon.primaryCpu, 100));
+			if (pmon.configured)
+				out.append(String.format("$%-8s %d,%d   148  001 255,255  $SYSTEM.SYSTEM.PATHMON $ZHOME\n", name,
+						pmon.backupCpu, 101));
+		} else if (processes.containsKey(name)) {
+			int[] cpuPin = processes.get(name);
+			out.append(String.format("$%-8s %d,%d   148  001 255,255  /usr/bin/java  $ZHOME\n", name, cpuPin[0],
+					cpuPin[1]));
+		} else {
+			out.append("$" + name + ": process does not exist\n");
+		}
+		return out.toString();
+	}
+
+	private String taclStatusAll() {
+		StringBuffer out = new StringBuffer("Process           Pri PFR %WT Userid   Program file      Hometerm\n");
+		for (Pathmon pmon : pathmons.values()) {
+			if (System.currentTimeMillis() < pmon.readyAt)
+				continue;
+			out.append(String.format("$%-8s %d,%d   148  001 255,255  $SYSTEM.SYSTEM.PATHMON $ZHOME\n", pmon.name,
+					pmon.primaryCpu, 100));
+			if (pmon.configured)
+				out.append(String.format("          %d,%d   148  001 255,255\n", pmon.backupCpu, 101));
+		}
+		for (Map.Entry<String, int[]> p : processes.entrySet())
+			out.append(String.format("$%-8s %d,%d   148  001 255,255  /usr/bin/java  $ZHOME\n", p.getKey(),
+					p.getValue()[0], p.getValue()[1]));
+		return out.toString();
+	}
+
+	private static void sleep(long millis) throws InterruptedException {
+		if (millis > 0)
+			Thread.sleep(millis);
+	}
+
+	// One PATHCOM conversation
+	private class Pathcom {
+		final SimulatedProcess.Pipe.Input in;
+		final SimulatedProcess.Pipe.Output out;
+		Pathmon open = null;
+		Map<String, String> pending = new LinkedHashMap<String, String>();
+		String continued = null;
+		StringBuffer continuation = new StringBuffer();
+
+		Pathcom(SimulatedProcess.Pipe.Input in, SimulatedProcess.Pipe.Output out) {
+			this.in = in;
+			this.out = out;
+		}
+
+		void run() throws Exception {
+			out.print("$Y123: PATHCOM - T0844L01 - (01JUN18) - SIMULATED\n=");
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (continued != null) {
+					continuation.append(line.endsWith("&") ? line.substring(0, line.length() - 1) : line);
+					if (!line.endsWith("&")) {
+						pending.put(continued, continuation.toString());
+						continued = null;
+					}
+					out.print("\n=");
+					continue;
+				}
+				if (line.equalsIgnoreCase("EXIT"))
+					return;
+				sleep(COMMAND_LATENCY);
+				String reply;
+				synchronized (GtaclSimulator.this) {
+					commands++;
+					reply = ERROR_RATE > 0 && random.nextDouble() < ERROR_RATE
+							? "*ERROR* PATHCOM - 9999 SIMULATED FAILURE\n"
+							: execute(line);
+				}
+				if (reply.startsWith("START "))
+					sleep(START_LATENCY * Integer.parseInt(reply.substring(6).trim()));
+				else
+					out.print(reply);
+				out.print("\n=");
+			}
+		}
+
+		// Returns the PATHCOM reply; "START n" for a START of n processes
+		String execute(String line) {
+			String upper = line.toUpperCase();
+			if (line.length() == 0)
+				return "";
+			if (upper.startsWith("OPEN ")) {
+				Pathmon pmon = pathmons.get(upper.substring(5).trim().replace("$", ""));
+				if (pmon == null || System.currentTimeMillis() < pmon.readyAt)
+					return "*ERROR* PATHCOM - 1001 PATHMON NOT FOUND " + line.substring(5) + "\n";
+				open = pmon;
+				return "";
+			}
+			if (open == null)
+				return "*ERROR* PATHCOM - 1010 NO PATHMON OPEN\n";
+			if (upper.startsWith("SET PATHWAY ") || upper.startsWith("SET PATHMON "))
+				return "";
+			if (upper.startsWith("START PATHWAY")) {
+				open.configured = true;
+				return "";
+			}
+			if (upper.equals("RESET SERVER")) {
+				pending = new LinkedHashMap<String, String>();
+				return "";
+			}
+			if (upper.startsWith("SET SERVER ")) {
+				String[] kv = line.substring(11).trim().split("\\s+", 2);
+				String value = kv.length > 1 ? kv[1] : "";
+				if (value.endsWith("&")) {
+					continued = kv[0].toUpperCase();
+					continuation.setLength(0);
+					continuation.append(value.substring(0, value.length() - 1));
+					return "";
+				}
+				return setAttribute(pending, kv[0].toUpperCase(), value);
+			}
+			if (upper.startsWith("ADD SERVER ")) {
+				String name = line.substring(11).trim();
+				if (open.servers.containsKey(name))
+					return "*ERROR* PATHCOM - 1040 ENTRY ALREADY EXISTS\n";
+				open.servers.put(name, new Serverclass(new LinkedHashMap<String, String>(pending)));
+				return "";
+			}
+			if (upper.startsWith("INFO SERVER ")) {
+				Serverclass svc = open.servers.get(line.substring(12).trim());
+				if (svc == null)
+					return "*ERROR* PATHCOM - 1035 SERVER DOES NOT EXIST\n";
+				StringBuffer info = new StringBuffer("SERVER " + line.substring(12).trim() + "\n");
+				for (Map.Entry<String, String> attr : svc.attrs.entrySet()) {
+					String key = attr.getKey();
+					if (key.startsWith("ENV "))
+						info.append("  ENV ").append(key.substring(4)).append('=').append(attr.getValue());
+					else if (key.startsWith("PROCESS "))
+						info.append("  ").append(key);
+					else if (key.startsWith("DEFINE "))
+						info.append("  DEFINE ").append(attr.getValue());
+					else
+						info.append("  ").append(key).append(' ').append(attr.getValue());
+					info.append('\n');
+				}
+				return info.toString();
+			}
+			if (upper.startsWith("STATUS SERVER ")) {
+				String name = line.substring(14).split(",")[0].trim();
+				Serverclass svc = open.servers.get(name);
+				if (svc == null)
+					return "*ERROR* PATHCOM - 1035 SERVER DOES NOT EXIST\n";
+				StringBuffer status = new StringBuffer("SERVER          #RUNNING  ERROR  INFO\n");
+				List<String> statics = getStatics(svc, null);
+				int running = 0;
+				for (String process : statics)
+					running += processes.containsKey(process) ? 1 : 0;
+				status.append(String.format("%-15s %8d\n", name, running));
+				if (upper.contains("DETAIL")) {
+					status.append(" PROCESS  STATE     ERROR  INFO  #LINKS  WEIGHT\n");
+					for (String process : statics) {
+						int[] l = load.containsKey(process) ? load.get(process) : new int[2];
+						status.append(String.format(" $%-7s %-8s %14d %7d\n", process,
+								processes.containsKey(process) ? "RUNNING" : "STOPPED", l[0], l[1]));
+					}
+				}
+				return status.toString();
+			}
+			String[] verbs = { "START SERVER ", "STOP SERVER ", "FREEZE SERVER ", "THAW SERVER ", "ALTER SERVER " };
+			for (String verb : verbs) {
+				if (upper.startsWith(verb))
+					return serverCommand(verb.split(" ")[0], line.substring(verb.length()).trim());
+			}
+			return "*ERROR* PATHCOM - 1 SYNTAX ERROR " + line + "\n";
+		}
+
+		String setAttribute(Map<String, String> attrs, String key, String value) {
+			if (key.equals("ENV") && value.indexOf('=') > 0)
+				attrs.put("ENV " + value.substring(0, value.indexOf('=')), value.substring(value.indexOf('=') + 1));
+			else if (key.equals("PROCESS"))
+				attrs.put("PROCESS " + value.split("\\s+")[0], "");
+			else if (key.equals("DEFINE"))
+				attrs.put("DEFINE " + value.split(",")[0].trim(), value);
+			else
+				attrs.put(key, value);
+			return "";
+		}
+
+		// START/STOP/FREEZE/THAW/ALTER SERVER name, (a, b) or name, PROCESS $p
+		String serverCommand(String verb, String args) {
+			List<String> names = new ArrayList<String>();
+			String option = null;
+			if (args.startsWith("(")) {
+				for (String name : args.substring(1, args.indexOf(')')).split(","))
+					names.add(name.trim());
+			} else {
+				String[] parts = args.split(",", 2);
+				names.add(parts[0].trim());
+				option = parts.length > 1 ? parts[1].trim() : null;
+			}
+			int started = 0;
+			for (String name : names) {
+				Serverclass svc = open.servers.get(name);
+				if (svc == null)
+					return "*ERROR* PATHCOM - 1035 SERVER " + name + " DOES NOT EXIST\n";
+				if (verb.equals("ALTER")) {
+					if (option == null)
+						return "*ERROR* PATHCOM - 1 SYNTAX ERROR\n";
+					if (option.toUpperCase().startsWith("RESET ")) {
+						svc.attrs.remove(option.substring(6).trim());
+						return "";
+					}
+					String[] kv = option.split("\\s+", 2);
+					return setAttribute(svc.attrs, kv[0].toUpperCase(), kv.length > 1 ? kv[1] : "");
+				}
+				if (verb.equals("FREEZE") || verb.equals("THAW")) {
+					svc.frozen = verb.equals("FREEZE");
+					continue;
+				}
+				List<String> statics = getStatics(svc, option);
+				for (int i = 0; i < statics.size(); i++) {
+					if (verb.equals("STOP")) {
+						processes.remove(statics.get(i));
+					} else {
+						processes.put(statics.get(i), new int[] { getCpu(svc, i), nextPin++ });
+						started++;
+					}
+				}
+				if (option == null)
+					svc.running = verb.equals("START");
+				else if (verb.equals("START"))
+					svc.running = true;
+			}
+			return verb.equals("START") ? "START " + started : "";
+		}
+
+		// The static process names (without '$') affected by a command
+		List<String> getStatics(Serverclass svc, String option) {
+			List<String> statics = new ArrayList<String>();
+			if (option != null && option.toUpperCase().startsWith("PROCESS ")) {
+				statics.add(option.substring(8).trim().replace("$", "").toUpperCase());
+				return statics;
+			}
+			int numstatic = Integer.parseInt(svc.attrs.containsKey("NUMSTATIC") ? svc.attrs.get("NUMSTATIC") : "0");
+			for (String key : svc.attrs.keySet()) {
+				if (key.startsWith("PROCESS ") && statics.size() < numstatic)
+					statics.add(key.substring(8).replace("$", "").toUpperCase());
+			}
+			return statics;
+		}
+
+		// CPU of the i'th static process, round robin over the CPUS pairs
+		int getCpu(Serverclass svc, int i) {
+			String cpus = svc.attrs.containsKey("CPUS") ? svc.attrs.get("CPUS") : "(0:1)";
+			String[] pairs = cpus.replace("(", "").replace(")", "").split(",");
+			return Integer.parseInt(pairs[i % pairs.length].split(":")[0].trim());
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.hpe.nonstop.sim;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.hpe.nonstop.util.GtaclLauncher;
+import com.hpe.nonstop.util.PathcomSession;
+import com.hpe.nonstop.util.PathwaySizing;
+import com.hpe.nonstop.util.TSMPBuilderFactory;
+
+/**
+ * Measures time-to-serving of a TSMP launch against {@link GtaclSimulator}.
+ * Each launch runs the same TSMPBuilderFactory calls as TSMPCapsule.launch,
+ * from reading the properties to START SERVER being accepted.
+ * <p>
+ * Scenarios:
+ * </p>
+ * <ul>
+ * <li>cold : the PATHMON does not exist yet
+ * <li>warm : the PATHMON is running and configured
+ * <li>concurrent : <code>threads</code> launches at once, each with its own
+ * serverclass, against one warm PATHMON
+ * </ul>
+ * <code>java -cp target/benchmarks.jar com.hpe.nonstop.sim.LaunchLatencyHarness [iterations] [threads]</code>
+ */
+public class LaunchLatencyHarness {
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+		PrintStream report = System.out;
+		// The caplet echoes the whole PATHCOM conversation
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		// Every iteration must see the simulator's current state
+		System.setProperty("tsmp.status.ttl", "0");
+
+		report.printf("%-12s %6s %10s %10s %10s %8s %9s\n", "scenario", "runs", "p50 ms", "p99 ms", "max ms",
+				"spawns", "commands");
+		report.println(run("cold", iterations, 1, true));
+		report.println(run("warm", iterations, 1, false));
+		report.println(run("concurrent", iterations, threads, false));
+		System.exit(0);
+	}
+
+	static String run(String scenario, int iterations, int threads, final boolean cold) throws Exception {
+		final GtaclSimulator sim = new GtaclSimulator();
+		GtaclLauncher.setLauncher(sim);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Long> times = new ArrayList<Long>();
+		try {
+			for (int i = 0; i < iterations; i++) {
+				final String pathmon = cold ? "C" + Integer.toString(i, 36).toUpperCase() : "WARM";
+				if (!cold && i == 0)
+					sim.addPathmon(pathmon);
+				List<Future<Long>> launches = new ArrayList<Future<Long>>();
+				for (int t = 0; t < threads; t++) {
+					final String serverclass = "SC" + i + "T" + t;
+					// Guardian names are at most 5 characters
+					final String process = "S" + Integer.toString(i * threads + t, 36).toUpperCase();
+					launches.add(pool.submit(new Callable<Long>() {
+						public Long call() throws Exception {
+							long start = System.nanoTime();
+							launch(pathmon, serverclass, process);
+							if (!sim.isServing(pathmon, serverclass))
+								throw new IllegalStateException(serverclass + " is not serving");
+							return (System.nanoTime() - start) / 1000000;
+						}
+					}));
+				}
+				for (Future<Long> launch : launches)
+					times.add(launch.get());
+				if (cold)
+					PathcomSession.closeAll();
+			}
+		} finally {
+			pool.shutdown();
+			PathcomSession.closeAll();
+		}
+		long[] sorted = new long[times.size()];
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = times.get(i);
+		Arrays.sort(sorted);
+		return String.format("%-12s %6d %10d %10d %10d %8d %9d", scenario, sorted.length, percentile(sorted, 50),
+				percentile(sorted, 99), sorted[sorted.length - 1], sim.getSpawned(), sim.getCommands());
+	}
+
+	// The steps of TSMPCapsule.launch once the configuration is read
+	static void launch(String pathmon, String serverclass, String process) throws Exception {
+		Properties props = new Properties();
+		props.setProperty("PATHMON_NAME", pathmon);
+		props.setProperty("SERVERCLASS_NAME", serverclass);
+		props.setProperty("NUMSTATIC", "2");
+		props.setProperty("MAXSERVERS", "4");
+		props.setProperty("PROCESS_NAMES", process + "A," + process + "B");
+		props.setProperty("CPUS", "{{0,1};{2,3}}");
+
+		TSMPBuilderFactory.Pathmon pmon = TSMPBuilderFactory.newPathmon(props);
+		CompletableFuture<Boolean> started = pmon.startPathmonAsync();
+		List<TSMPBuilderFactory.Serverclass> svcs = TSMPBuilderFactory.newServerclasses(props,
+				new File("/usr/bin/java"), "-cp,/home/app/app.jar,com.example.Main", new File("/home/app"));
+		for (TSMPBuilderFactory.Serverclass svc : svcs)
+			svc.buildConfiguration();
+		PathwaySizing.fromProperties(props).apply(pmon, svcs, props);
+		pmon.configurePathmon(started);
+		TSMPBuilderFactory.Serverclass.configureAndStartInPathmon(pmon, svcs);
+	}
+
+	static long percentile(long[] sorted, int p) {
+		int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+}
@@ -0,0 +1,196 @@
+package com.hpe.nonstop.sim;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A <code>java.lang.Process</code> whose behaviour is a Java {@link Body}
+ * running on its own thread. The caplet reads and writes it exactly like a
+ * real gtacl process.
+ */
+class SimulatedProcess extends Process {
+
+	interface Body {
+		// Reads the process's stdin from in and writes its stdout to out.
+		// Returns the exit code
+		int run(Pipe.Input in, Pipe.Output out) throws Exception;
+	}
+
+	private final Pipe stdin = new Pipe();
+	private final Pipe stdout = new Pipe();
+	private final Thread thread;
+	private Integer exitCode = null;
+
+	SimulatedProcess(final Body body, String name) {
+		thread = new Thread(new Runnable() {
+			public void run() {
+				int code = 1;
+				try {
+					code = body.run(stdin.input(), stdout.output());
+				} catch (Exception ex) {
+					code = 1;
+				} finally {
+					stdout.close();
+					stdin.close();
+					synchronized (SimulatedProcess.this) {
+						exitCode = code;
+						SimulatedProcess.this.notifyAll();
+					}
+				}
+			}
+		}, "sim-" + name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public OutputStream getOutputStream() {
+		return stdin.output();
+	}
+
+	public InputStream getInputStream() {
+		return stdout.input();
+	}
+
+	public InputStream getErrorStream() {
+		return new InputStream() {
+			public int read() {
+				return -1;
+			}
+		};
+	}
+
+	public synchronized int waitFor() throws InterruptedException {
+		while (exitCode == null)
+			wait();
+		return exitCode;
+	}
+
+	public synchronized boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		while (exitCode == null) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				return false;
+			wait(left);
+		}
+		return true;
+	}
+
+	public synchronized int exitValue() {
+		if (exitCode == null)
+			throw new IllegalThreadStateException("process has not exited");
+		return exitCode;
+	}
+
+	public synchronized boolean isAlive() {
+		return exitCode == null;
+	}
+
+	public void destroy() {
+		stdin.close();
+		stdout.close();
+		thread.interrupt();
+	}
+
+	// In memory byte pipe. Unlike java.io.PipedInputStream it does not tie
+	// either end to the thread that first used it
+	static class Pipe {
+		private byte[] buf = new byte[1024];
+		private int start = 0;
+		private int end = 0;
+		private boolean closed = false;
+
+		synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+
+		Input input() {
+			return new Input();
+		}
+
+		Output output() {
+			return new Output();
+		}
+
+		class Input extends InputStream {
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				synchronized (Pipe.this) {
+					while (start == end && !closed) {
+						try {
+							Pipe.this.wait();
+						} catch (InterruptedException ex) {
+							throw new IOException(ex);
+						}
+					}
+					if (start == end)
+						return -1;
+					int n = Math.min(len, end - start);
+					System.arraycopy(buf, start, b, off, n);
+					start += n;
+					return n;
+				}
+			}
+
+			// Reads a line without the line terminator, null at end of input
+			String readLine() throws IOException {
+				StringBuilder line = new StringBuilder();
+				int c;
+				while ((c = read()) != -1 && c != '\n')
+					line.append((char) c);
+				if (c == -1 && line.length() == 0)
+					return null;
+				return line.toString();
+			}
+
+			public int available() {
+				synchronized (Pipe.this) {
+					return end - start;
+				}
+			}
+
+			public void close() {
+				Pipe.this.close();
+			}
+		}
+
+		class Output extends OutputStream {
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				synchronized (Pipe.this) {
+					if (closed)
+						throw new IOException("Pipe closed");
+					if (end + len > buf.length) {
+						byte[] bigger = new byte[Math.max(buf.length * 2, end - start + len)];
+						System.arraycopy(buf, start, bigger, 0, end - start);
+						end -= start;
+						start = 0;
+						buf = bigger;
+					}
+					System.arraycopy(b, off, buf, end, len);
+					end += len;
+					Pipe.this.notifyAll();
+				}
+			}
+
+			void print(String s) throws IOException {
+				byte[] b = s.getBytes();
+				write(b, 0, b.length);
+			}
+
+			public void close() {
+				Pipe.this.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.hpe.nonstop.util;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for reading tsmp.config.prop and generating the PATHCOM
+ * commands of a serverclass, the work TSMPCapsule.launch does before it talks
+ * to PATHMON.
+ * <p>
+ * <code>java -jar target/benchmarks.jar ConfigBenchmark -p defines=5000</code>
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Config {
+		@Param({ "10", "1000", "5000" })
+		public int defines;
+
+		String defineSpec;
+		String configText;
+		Properties props;
+
+		@Setup
+		public void setup() throws Exception {
+			defineSpec = defines(defines);
+			StringBuffer text = new StringBuffer();
+			text.append("PATHMON_NAME=CRD\nPRIMARY_CPU=0\nBACKUP_CPU=1\n");
+			text.append("SERVERCLASS_NAME=SC1\nNUMSTATIC=4\nMAXSERVERS=16\n");
+			text.append("PROCESS_NAMES=A1,A2,A3,A4\nCPUS=").append(cpus(16)).append('\n');
+			text.append("DEFINE=").append(defineSpec).append('\n');
+			configText = text.toString();
+			props = new Properties();
+			props.load(new StringReader(configText));
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Arglist {
+		@Param({ "100", "10000", "100000" })
+		public int arglistLength;
+
+		TSMPBuilderFactory.Serverclass svc;
+
+		@Setup
+		public void setup() {
+			svc = new TSMPBuilderFactory.Serverclass("SC1");
+			svc.PROGRAM = new File("/usr/bin/java");
+			svc.CWD = new File("/home/app");
+			svc.NUMSTATIC = 4;
+			svc.PROCESS = new String[] { "$A1", "$A2", "$A3", "$A4" };
+			svc.CPUS = TSMPBuilderFactory.Serverclass.parseCpus(cpus(4));
+			svc.ARGLIST = arglist(arglistLength);
+			svc.addDefines(defines(100));
+		}
+	}
+
+	@Benchmark
+	public Properties loadProperties(Config config) throws Exception {
+		Properties props = new Properties();
+		props.load(new StringReader(config.configText));
+		return props;
+	}
+
+	@Benchmark
+	public List<TSMPBuilderFactory.Serverclass> newServerclasses(Config config) {
+		return TSMPBuilderFactory.newServerclasses(config.props, new File("/usr/bin/java"), "-cp,app.jar,Main",
+				new File("/home/app"));
+	}
+
+	@Benchmark
+	public int[][] parseCpus() {
+		return TSMPBuilderFactory.Serverclass.parseCpus("{{0,1};{2,3};{4,5};{6,7};{8,9};{10,11};{12,13};{14,15}}");
+	}
+
+	@Benchmark
+	public TSMPBuilderFactory.Serverclass addDefines(Config config) {
+		TSMPBuilderFactory.Serverclass svc = new TSMPBuilderFactory.Serverclass("SC1");
+		svc.addDefines(config.defineSpec);
+		return svc;
+	}
+
+	@Benchmark
+	public List<String> getConfiguration(Arglist arglist) {
+		return arglist.svc.getConfiguration();
+	}
+
+	static String defines(int count) {
+		StringBuffer buf = new StringBuffer();
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				buf.append(", ");
+			buf.append("(=_DEF").append(i).append(", class map, file $MYVOL.MYSUBVOL.F").append(i).append(')');
+		}
+		return buf.toString();
+	}
+
+	static String cpus(int pairs) {
+		StringBuffer buf = new StringBuffer("{");
+		for (int i = 0; i < pairs; i++)
+			buf.append(i == 0 ? "" : ";").append('{').append(2 * i).append(',').append(2 * i + 1).append('}');
+		return buf.append('}').toString();
+	}
+
+	// A java command line of about the given length, mostly classpath
+	static String arglist(int length) {
+		StringBuffer buf = new StringBuffer("-Xmx512m,-cp,");
+		for (int i = 0; buf.length() < length; i++)
+			buf.append(i == 0 ? "" : ":").append("/home/app/lib/dependency-").append(i).append(".jar");
+		return buf.append(",com.example.Main").toString();
+	}
+}
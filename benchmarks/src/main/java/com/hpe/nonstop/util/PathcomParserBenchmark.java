@@ -0,0 +1,93 @@
+package com.hpe.nonstop.util;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks PathcomOutputParser over a PATHCOM transcript of the kind a
+ * serverclass deployment produces: the banner, one prompt per SET SERVER
+ * command, an INFO SERVER listing with many DEFINEs and an error. The
+ * transcript is fed in pieces of at most <code>readSize</code> bytes. Like a
+ * real read, a piece never extends past a prompt since PATHCOM waits for the
+ * next command there.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathcomParserBenchmark {
+
+	@Param({ "10", "1000" })
+	public int defines;
+
+	@Param({ "16", "1024" })
+	public int readSize;
+
+	byte[] transcript;
+	int[] promptEnds;
+	String[] commands;
+
+	@Setup
+	public void setup() {
+		TSMPBuilderFactory.Serverclass svc = new TSMPBuilderFactory.Serverclass("SC1");
+		svc.PROGRAM = new File("/usr/bin/java");
+		svc.ARGLIST = ConfigBenchmark.arglist(2000);
+		svc.addDefines(ConfigBenchmark.defines(defines));
+		List<String> config = svc.getConfiguration();
+
+		StringBuffer out = new StringBuffer("$Y123: PATHCOM - T0844L01 - (01JUN18) - (IPMAAG)\n");
+		out.append("COPYRIGHT HEWLETT PACKARD ENTERPRISE 2018\n=");
+		for (int i = 0; i < config.size(); i++)
+			out.append('\n').append('=');
+		out.append("SERVER SC1\n");
+		for (int i = 0; i < defines; i++)
+			out.append("  DEFINE =_DEF").append(i).append(", CLASS MAP, FILE \\NODE.$MYVOL.MYSUBVOL.F").append(i)
+					.append('\n');
+		out.append("=");
+		out.append("*ERROR* PATHCOM - 1040 ENTRY ALREADY EXISTS\n=");
+		transcript = out.toString().getBytes();
+		promptEnds = new int[config.size() + 3];
+		for (int i = 0, p = 0; i < transcript.length; i++) {
+			if (transcript[i] == '=' && (i == transcript.length - 1 || transcript[i + 1] != '_'))
+				promptEnds[p++] = i + 1;
+		}
+
+		commands = new String[config.size() + 3];
+		for (int i = 0; i < config.size(); i++)
+			commands[i + 1] = config.get(i);
+		commands[config.size() + 1] = "INFO SERVER SC1";
+		commands[config.size() + 2] = "ADD SERVER SC1";
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) {
+		PathcomOutputParser parser = new PathcomOutputParser(false, null);
+		int command = 0;
+		for (int off = 0; off < transcript.length;) {
+			ByteBuffer b = parser.buffer();
+			int len = Math.min(Math.min(readSize, b.capacity()), promptEnds[command] - off);
+			b.put(transcript, off, len);
+			b.flip();
+			off += len;
+			if (parser.feed(b) && off == promptEnds[command])
+				bh.consume(parser.finish(commands[command++]));
+		}
+	}
+}
@@ -4,11 +4,26 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.JarFile;
 
+import com.hpe.nonstop.util.Autoscaler;
+import com.hpe.nonstop.util.ClassDataSharing;
+import com.hpe.nonstop.util.ConfigWatcher;
+import com.hpe.nonstop.util.FleetDeployer;
+import com.hpe.nonstop.util.LaunchPlan;
+import com.hpe.nonstop.util.LaunchTrace;
+import com.hpe.nonstop.util.MetricsExporter;
+import com.hpe.nonstop.util.PathcomSession;
+import com.hpe.nonstop.util.PathwaySizing;
+import com.hpe.nonstop.util.ProcessNameAllocator;
+import com.hpe.nonstop.util.ReadinessGate;
 import com.hpe.nonstop.util.TSMPBuilderFactory;
+import com.hpe.nonstop.util.TSMPLog;
 
 /**
  * <p>
@@ -47,6 +62,17 @@ import com.hpe.nonstop.util.TSMPBuilderFactory;
  * run. Example: 0
  * <li>BACKUP_CPU : The CPU on which the backup of the pathmon process should
  * run. Example: 1
+ * <li>PATHMON_START_TIMEOUT : Milliseconds to wait for a newly started
+ * pathmon to accept an OPEN. Default 30000
+ * <li>PATHWAY_HEADROOM : Percent added to what the serverclasses need when
+ * MAXSERVERCLASSES, MAXSERVERPROCESSES, MAXDEFINES and MAXLINKMONS are sized
+ * for them. Default 25
+ * <li>PATHWAY_LINKMONS : Link monitors expected to use the serverclasses, for
+ * MAXLINKMONS. Default one per CPU in the CPUS of the serverclasses
+ * <li>PATHWAY.&lt;limit&gt; : Sets a SET PATHWAY limit, e.g.
+ * PATHWAY.MAXSERVERPROCESSES=64, instead of sizing it. A value below what the
+ * serverclasses need is an error. Set the limits of a PATHMON shared with
+ * other capsules this way
  * </ul>
  * Properties related to configuring the SERVERCLASS process. The details of
  * each attribute can be found in the 'HPE NonStop TS/MP System Management
@@ -57,9 +83,23 @@ import com.hpe.nonstop.util.TSMPBuilderFactory;
  * <li>MAXSERVERS : Value should be a number. Default 1
  * <li>PROCESS_NAMES : This is a comma separated list of names for the static
  * instances. Example: PRC1,PRC2,PRC3. The names do not contain '$' symbol
+ * and no name listed may be used by two SERVERCLASSes. Default a,b,c, which
+ * SERVERCLASSes without PROCESS_NAMES share
+ * <li>PROCESS_PREFIX : If set, MAXSERVERS names are generated instead of
+ * PROCESS_NAMES, the prefix followed by a base 36 counter up to 5
+ * characters, skipping processes that are already running. A SERVERCLASS
+ * that exists keeps the names it has. Example: with CR the names are $CR000,
+ * $CR001, ... No Default
  * <li>CPUS : This is a list of CPUs on which the processes should be started.
  * Default {{0,1}}. Following are some examples: Example 1: {{0},{2,3},{4}}.
- * Example 2: {{0,1},{1,2},{2,3},{3,0}}
+ * Example 2: {{0,1},{1,2},{2,3},{3,0}}. The pairs may also be separated by
+ * ';'. The value <code>auto</code> spreads the static processes over
+ * AVAILABLE_CPUS by their current load
+ * <li>AVAILABLE_CPUS : The CPUs <code>CPUS=auto</code> may use. Example:
+ * 0,1,2,3. Default 0,1
+ * <li>CPU_LOAD_FILE : A file of cpu=load lines used by
+ * <code>CPUS=auto</code> instead of asking TACL for the processes on each
+ * CPU. No Default
  * <li>STDOUT : Default "/dev/null"
  * <li>STDERR : Default "/dev/null"
  * <li>DEFINE : This is the list of defines that have to be added to the
@@ -67,13 +107,45 @@ import com.hpe.nonstop.util.TSMPBuilderFactory;
  * multiple defines have to be separated by comma. No Default. Example:
  * (=_SQLMX_SMD_LOCATION, class defaults, volume
  * $MYVOL.ZSD0),(=_MX_CMP_PROG_FILE_NAME, class map, file $MYVOL.MYSUBVOL.MXCMP)
+ * <li>RECONCILE : If true and the SERVERCLASS already exists, its live
+ * definition (INFO SERVER) is compared with the configuration and only the
+ * differing attributes are ALTERed. The SERVERCLASS is restarted only when a
+ * changed attribute can not be altered while it runs. Default false
+ * <li>UPGRADE : If ROLLING, an existing SERVERCLASS that needs a restart is
+ * restarted a batch of static processes at a time instead of all at once.
+ * The batches take turns across the CPUs the processes run on. Implies
+ * RECONCILE. No Default
+ * <li>MAX_UNAVAILABLE : The number of static processes a rolling upgrade may
+ * take down at once. Default 1
+ * <li>READY_TIMEOUT : Milliseconds to wait for a restarted process to run.
+ * Default 60000
+ * <li>READY_INTERVAL : Milliseconds between the STATUS SERVER polls that wait
+ * for a restarted process. Default 500
+ * <li>APPCDS : true to start the server processes of all serverclasses with
+ * an AppCDS archive of the application classes. The archive is dumped in the
+ * background after the first launch of each version of the application has
+ * started the servers, and used from the next launch on. A JVM that can not
+ * use the archive runs without it. Default false
+ * <li>APPCDS_DIR : The directory the archives are kept in. Default the
+ * directory of the jar
+ * <li>APPCDS_TIMEOUT : Milliseconds allowed for dumping the archive. Default
+ * 120000
+ * <li>APPCDS_MAX_AGE : Milliseconds after which an archive no launch has used
+ * is removed from APPCDS_DIR. Default 2592000000 (30 days)
  * </ul>
  * </p>
  * <p>
  * A single Capsule jar (with TSMP Caplet) will result in configuration of a
- * pathway environment comprising a single <code>PATHMON</code> and a single
- * <code>SERVERCLASS</code>. If multiple <code>SERVERCLASS</code>es are to be
- * configured they have to be done with a Jar per <code>SERVERCLASS</code>.<br/>
+ * pathway environment comprising a single <code>PATHMON</code> and one or more
+ * <code>SERVERCLASS</code>es. With the keys above a single
+ * <code>SERVERCLASS</code> named by <code>SERVERCLASS_NAME</code> is
+ * configured. To configure several, prefix the serverclass keys with
+ * <code>SERVERCLASS.&lt;name&gt;.</code>, e.g.
+ * <code>SERVERCLASS.ORDERS.NUMSTATIC=2</code>. Every name found this way is
+ * configured as a <code>SERVERCLASS</code>; keys missing from a section are
+ * taken from the un-prefixed keys. All the <code>SERVERCLASS</code>es are
+ * added in one PATHCOM conversation and started with a single
+ * <code>START SERVER</code>.<br/>
  * If the <code>PATHMON</code> in the configuration is already running, the
  * Caplet will try to add <code>SERVERCLASS</code> to the existing
  * <code>PATHMON</code>.
@@ -92,6 +164,118 @@ import com.hpe.nonstop.util.TSMPBuilderFactory;
  * </p>
  * 
  * <p>
+ * <strong>Can repeated launches skip reading the configuration?</strong><br/>
+ * Yes. When the system property <code>tsmp.plan.dir</code> names a directory,
+ * the resolved <code>PATHMON</code> and <code>SERVERCLASS</code>es and their
+ * PATHCOM commands are saved there as a launch plan. A later launch with the
+ * same jar, configuration file, command line and
+ * <code>tsmp.server.define</code> loads the plan instead
+ * </p>
+ * 
+ * <p>
+ * <strong>Can the capacity of a SERVERCLASS follow its load?</strong><br/>
+ * Yes. With the system property <code>tsmp.autoscale</code> set to
+ * <code>true</code> the capsule keeps running after the launch and adjusts
+ * MAXSERVERS and NUMSTATIC of each <code>SERVERCLASS</code> from its live
+ * statistics, within the bounds given as <code>min:max</code> by
+ * <code>tsmp.autoscale.maxservers</code> and
+ * <code>tsmp.autoscale.numstatic</code>. The poll interval and the cooldown
+ * after a change are set in milliseconds by
+ * <code>tsmp.autoscale.interval</code> and
+ * <code>tsmp.autoscale.cooldown</code>
+ * </p>
+ * 
+ * <p>
+ * <strong>Can the PATHMON be monitored with Prometheus?</strong><br/>
+ * Yes. With the system property <code>tsmp.metrics</code> set to
+ * <code>true</code> the capsule keeps running after the launch and serves the
+ * server process counts, links, queued requests, restarts and, where PATHCOM
+ * has STATS SERVER, request and link wait counters on
+ * <code>http://tsmp.metrics.host:tsmp.metrics.port/metrics</code> (default
+ * <code>127.0.0.1:9464</code>). The PATHMON is polled every
+ * <code>tsmp.metrics.interval</code> milliseconds (default 15000) over one
+ * PATHCOM, however often the endpoint is scraped
+ * </p>
+ * 
+ * <p>
+ * <strong>Can the configuration be changed without a new launch?</strong><br/>
+ * Yes, for the SERVERCLASS keys. With the system property
+ * <code>tsmp.watch</code> set to <code>true</code> the capsule keeps running
+ * after the launch and watches the file named by
+ * <code>tsmp.config.prop</code>. Once the file has been quiet for
+ * <code>tsmp.watch.debounce</code> milliseconds (default 500), the
+ * serverclasses whose keys changed are altered in place, as with RECONCILE,
+ * and the others are left alone. Changes to the PATHMON or PATHWAY keys take
+ * effect at the next launch
+ * </p>
+ * 
+ * <p>
+ * <strong>Can several capsules be started at once against one PATHMON?</strong><br/>
+ * Yes. Give them the same directory in the system property
+ * <code>tsmp.lock.dir</code>. The first capsule to find the PATHMON not
+ * configured starts and configures it under a file lock in that directory,
+ * the others wait for it and then only add their serverclasses. Without the
+ * property each capsule starts the PATHMON on its own
+ * </p>
+ * 
+ * <p>
+ * <strong>Can one capsule be deployed to many PATHMONs at once?</strong><br/>
+ * Yes. Set the system property <code>tsmp.fleet</code> to an inventory file.
+ * Each <code>TARGET.&lt;name&gt;.</code> section of the inventory is a
+ * PATHMON, by default named <code>name</code>, and its keys override the
+ * configuration for that PATHMON only, e.g.
+ * <code>TARGET.CRD2.PRIMARY_CPU=2</code>. Up to
+ * <code>tsmp.fleet.parallelism</code> (default 4) PATHMONs are configured at
+ * once. Once more than <code>tsmp.fleet.errorrate</code> (default 0.25) of
+ * the finished targets have failed, the remaining targets are skipped. The
+ * capsule exits with 1 unless every target was deployed
+ * </p>
+ * 
+ * <p>
+ * <strong>How do I know the servers actually came up?</strong><br/>
+ * With the system property <code>tsmp.ready</code> set to <code>true</code>
+ * the capsule waits after START SERVER until every static process is
+ * RUNNING in <code>tsmp.ready.polls</code> polls in a row (default 3), for at
+ * most <code>tsmp.ready.timeout</code> milliseconds (default 60000), and
+ * prints the time each process took, per process and per CPU. If they do not
+ * all run in time, for example because a server keeps failing and being
+ * restarted, the capsule prints their last state and exits with 1
+ * </p>
+ * 
+ * <p>
+ * <strong>How can a slow launch be diagnosed?</strong><br/>
+ * Set the system property <code>tsmp.trace</code> to <code>true</code>. Each
+ * phase of the launch, each gtacl command and each PATHCOM command is then
+ * timed, emitted as a JFR event and written to the JSON file named by
+ * <code>tsmp.trace.file</code>
+ * </p>
+ * 
+ * <p>
+ * <strong>Can the PATHCOM commands be sent without waiting for each
+ * prompt?</strong><br/>
+ * Yes, experimentally. With the system property <code>tsmp.pathcom.mode</code>
+ * set to <code>batch</code> the PATHWAY configuration and the serverclass ADD
+ * commands are written to a temporary OBEY file that is the input of a single
+ * PATHCOM, and its output is matched to the commands afterwards. The START
+ * commands follow in a batch of their own once the configuration succeeded.
+ * Each batch spawns a PATHCOM, so this is not faster than the default pooled
+ * sessions in every case. A SERVERCLASS with RECONCILE or UPGRADE is always
+ * configured interactively
+ * </p>
+ * 
+ * <p>
+ * <strong>How can the output of the capsule be controlled?</strong><br/>
+ * The commands the capsule sends are logged at INFO and the PATHCOM and TACL
+ * output at DEBUG. The system property <code>tsmp.log.level</code> selects the
+ * level (ERROR, WARN, INFO or DEBUG, default INFO) and
+ * <code>tsmp.log.sink</code> where it goes: <code>console</code>,
+ * <code>file</code> (the file named by <code>tsmp.log.file</code>) or
+ * <code>off</code>. Logging is done on a background thread. These messages
+ * do not go through Capsule's log, so <code>capsule.log</code> does not
+ * silence or raise them; it still controls the messages of Capsule itself
+ * </p>
+ * 
+ * <p>
  * <strong>Can it be run on any platform?</strong><br/>
  * No. It has to be run on a NonStop Server ONLY
  * </p>
@@ -116,8 +300,6 @@ import com.hpe.nonstop.util.TSMPBuilderFactory;
  */
 public class TSMPCapsule extends Capsule {
 
-	private boolean LOG_ENABLED = true;
-
 	public TSMPCapsule(Capsule pred) {
 		super(pred);
 		log("Constructor called with", pred.getClass());
@@ -129,7 +311,7 @@ public class TSMPCapsule extends Capsule {
 	}
 
 	protected ProcessBuilder prelaunch(List<String> jvmArgs, List<String> args) {
-		if (LOG_ENABLED) {
+		if (TSMPLog.isEnabled(TSMPLog.DEBUG)) {
 			StringBuffer buf = new StringBuffer();
 			buf.append("JVM ARGS=").append(Arrays.toString(jvmArgs.toArray()));
 			buf.append("\nARGS=").append(Arrays.toString(args.toArray()));
@@ -146,6 +328,270 @@ public class TSMPCapsule extends Capsule {
 		}
 
 		super.log(LOG_VERBOSE, "TSMP Capsule is taking over and configure the application under TSMP");
+		try {
+			return launchInTSMP(pb);
+		} finally {
+			LaunchTrace.writeSummary();
+			TSMPLog.flush(5000);
+		}
+	}
+
+	private int launchInTSMP(ProcessBuilder pb) throws IOException, InterruptedException {
+		List<String> args = pb.command();
+		File cwd = super.getJarFile().getParent().toFile();
+		if (System.getProperty("tsmp.fleet") != null)
+			return deployFleet(args, cwd);
+
+		// A plan saved by an earlier launch with the same jar, config and
+		// command line replaces reading and parsing the configuration
+		LaunchTrace.Span span = LaunchTrace.start("plan", null);
+		File planDir = LaunchPlan.getDirectory();
+		String planKey = null;
+		LaunchPlan plan = null;
+		if (planDir != null) {
+			try {
+				String config = System.getProperty("tsmp.config.prop");
+				planKey = LaunchPlan.key(super.getJarFile().toFile(), config == null ? null : new File(config), args,
+						config, System.getProperty("tsmp.server.define"), cwd.getAbsolutePath());
+			} catch (Exception ex) {
+				throw new IOException(ex);
+			}
+			plan = LaunchPlan.load(planDir, planKey);
+			if (plan != null && !checkArchive(plan, args))
+				plan = null;
+		}
+		span.end();
+
+		// The PATHMON is started first and the serverclasses are built while
+		// it comes up
+		Properties props = null;
+		ClassDataSharing cds = null;
+		TSMPBuilderFactory.Pathmon pmon;
+		if (plan == null) {
+			props = readProperties();
+			pmon = TSMPBuilderFactory.newPathmon(props);
+		} else {
+			pmon = plan.pmon;
+			// The plan was saved from this version of the file, edits are
+			// applied against it
+			if (Boolean.getBoolean("tsmp.watch"))
+				props = readProperties();
+		}
+		span = LaunchTrace.start("pathmon", pmon.getName());
+		CompletableFuture<Boolean> started = pmon.startPathmonAsync();
+		boolean configured = false;
+		try {
+			if (plan == null) {
+				cds = newClassDataSharing(props, args, cwd);
+				List<TSMPBuilderFactory.Serverclass> svcs = newServerclasses(props,
+						cds == null ? args : cds.getCommand(), cwd);
+				PathwaySizing.fromProperties(props).apply(pmon, svcs, props);
+				plan = new LaunchPlan(pmon, svcs);
+				plan.archive = cds == null ? null : cds.getArchive();
+				if (planDir != null)
+					plan.save(planDir, planKey);
+			}
+			pmon.configurePathmon(started);
+			configured = true;
+		} catch (Exception ex) {
+			span.fail();
+			PathcomSession.closeAll();
+			throw new IOException(ex);
+		} finally {
+			// Let the next launcher bring up the PATHMON
+			if (!configured)
+				pmon.releaseLease(started,
+						new IllegalStateException("Launch failed before configuring $" + pmon.getName()));
+			span.end();
+		}
+		List<TSMPBuilderFactory.Serverclass> svcs = plan.svcs;
+
+		span = LaunchTrace.start("serverclass", null);
+		try {
+			TSMPBuilderFactory.Serverclass.configureAndStartInPathmon(pmon, svcs);
+			if (Boolean.getBoolean("tsmp.ready") && !awaitReady(pmon, svcs))
+				return 1;
+		} catch (Exception ex) {
+			span.fail();
+			throw new IOException(ex);
+		} finally {
+			span.end();
+			PathcomSession.closeAll();
+		}
+		// For the next launch, now that the servers are serving
+		if (cds != null)
+			cds.dumpInBackground();
+
+		// The watcher sets a new list when it rebuilds serverclasses
+		List<TSMPBuilderFactory.Serverclass> launched = Collections
+				.unmodifiableList(new ArrayList<TSMPBuilderFactory.Serverclass>(svcs));
+		AtomicReference<List<TSMPBuilderFactory.Serverclass>> live =
+				new AtomicReference<List<TSMPBuilderFactory.Serverclass>>(launched);
+		Thread metrics = Boolean.getBoolean("tsmp.metrics") ? exportMetrics(pmon, live) : null;
+		Thread watch = Boolean.getBoolean("tsmp.watch") ? watchConfig(pmon, live, props) : null;
+		if (Boolean.getBoolean("tsmp.autoscale"))
+			autoscale(pmon, live);
+		if (metrics != null)
+			metrics.join();
+		if (watch != null)
+			watch.join();
+		if (cds != null)
+			cds.awaitDump();
+		ProcessNameAllocator.releaseAll();
+		return 0;
+	}
+
+	// Deploys to every target of the tsmp.fleet inventory, each the way a
+	// launch without a plan does
+	private int deployFleet(List<String> args, final File cwd) throws IOException {
+		FleetDeployer fleet = new FleetDeployer();
+		fleet.PARALLELISM = Integer.getInteger("tsmp.fleet.parallelism", fleet.PARALLELISM);
+		fleet.MAX_ERROR_RATE = Double.parseDouble(
+				System.getProperty("tsmp.fleet.errorrate", String.valueOf(fleet.MAX_ERROR_RATE)));
+		try {
+			Properties props = readProperties();
+			ClassDataSharing cds = newClassDataSharing(props, args, cwd);
+			final List<String> command = cds == null ? args : cds.getCommand();
+			List<FleetDeployer.Target> targets = FleetDeployer.readInventory(new File(System.getProperty("tsmp.fleet")),
+					props);
+			boolean deployed = fleet.run(targets, new FleetDeployer.Deployment() {
+				public void deploy(FleetDeployer.Target target) throws Exception {
+					TSMPBuilderFactory.Pathmon pmon = TSMPBuilderFactory.newPathmon(target.props);
+					CompletableFuture<Boolean> started = pmon.startPathmonAsync();
+					List<TSMPBuilderFactory.Serverclass> svcs;
+					boolean configured = false;
+					try {
+						svcs = newServerclasses(target.props, command, cwd);
+						PathwaySizing.fromProperties(target.props).apply(pmon, svcs, target.props);
+						pmon.configurePathmon(started);
+						configured = true;
+					} finally {
+						if (!configured)
+							pmon.releaseLease(started,
+									new IllegalStateException("Deploy failed before configuring $" + pmon.getName()));
+					}
+					TSMPBuilderFactory.Serverclass.configureAndStartInPathmon(pmon, svcs);
+					if (Boolean.getBoolean("tsmp.ready") && !awaitReady(pmon, svcs))
+						throw new RuntimeException("Static processes not running");
+				}
+			});
+			if (cds != null) {
+				cds.dumpInBackground();
+				cds.awaitDump();
+			}
+			return deployed ? 0 : 1;
+		} catch (IOException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new IOException(ex);
+		} finally {
+			PathcomSession.closeAll();
+			ProcessNameAllocator.releaseAll();
+		}
+	}
+
+	// Waits for the static processes to run and prints the time each took
+	private boolean awaitReady(TSMPBuilderFactory.Pathmon pmon, List<TSMPBuilderFactory.Serverclass> svcs)
+			throws Exception {
+		ReadinessGate gate = new ReadinessGate(pmon, svcs);
+		gate.TIMEOUT = Long.getLong("tsmp.ready.timeout", gate.TIMEOUT);
+		gate.INTERVAL = Long.getLong("tsmp.ready.interval", gate.INTERVAL);
+		gate.STABLE_POLLS = Integer.getInteger("tsmp.ready.polls", gate.STABLE_POLLS);
+		boolean ready = gate.await();
+		TSMPLog.info("%s", gate.getReport());
+		if (!ready)
+			TSMPLog.error("Static processes not running after %d ms\n", gate.TIMEOUT);
+		return ready;
+	}
+
+	// Serves the PATHMON metrics over HTTP until the capsule is stopped
+	private Thread exportMetrics(TSMPBuilderFactory.Pathmon pmon,
+			AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs) throws IOException {
+		final MetricsExporter exporter = new MetricsExporter(pmon, svcs);
+		exporter.HOST = System.getProperty("tsmp.metrics.host", exporter.HOST);
+		exporter.PORT = Integer.getInteger("tsmp.metrics.port", exporter.PORT);
+		exporter.INTERVAL = Long.getLong("tsmp.metrics.interval", exporter.INTERVAL);
+		exporter.start();
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					exporter.run();
+				} catch (Exception ex) {
+					TSMPLog.error("Metrics stopped: %s\n", ex);
+				} finally {
+					exporter.stop();
+				}
+			}
+		}, "metrics-" + pmon.getName());
+		t.start();
+		return t;
+	}
+
+	// Applies edits of tsmp.config.prop until the capsule is stopped
+	private Thread watchConfig(TSMPBuilderFactory.Pathmon pmon,
+			AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs, Properties props) {
+		if (System.getProperty("tsmp.config.prop") == null) {
+			TSMPLog.warn("tsmp.watch needs tsmp.config.prop\n");
+			return null;
+		}
+		final ConfigWatcher watcher = new ConfigWatcher(new File(System.getProperty("tsmp.config.prop")), pmon,
+				svcs, props);
+		watcher.DEBOUNCE = Long.getLong("tsmp.watch.debounce", watcher.DEBOUNCE);
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					watcher.run();
+				} catch (Exception ex) {
+					TSMPLog.error("Config watch stopped: %s\n", ex);
+				}
+			}
+		}, "watch-" + pmon.getName());
+		t.start();
+		return t;
+	}
+
+	// Runs an Autoscaler per serverclass until the capsule is stopped
+	private void autoscale(TSMPBuilderFactory.Pathmon pmon,
+			AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs) throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (TSMPBuilderFactory.Serverclass svc : svcs.get()) {
+			final Autoscaler scaler = new Autoscaler(pmon, svc, svcs);
+			int[] bounds = parseBounds(System.getProperty("tsmp.autoscale.maxservers"), svc.MAXSERVERS);
+			scaler.MIN_MAXSERVERS = bounds[0];
+			scaler.MAX_MAXSERVERS = bounds[1];
+			bounds = parseBounds(System.getProperty("tsmp.autoscale.numstatic"), svc.NUMSTATIC);
+			scaler.MIN_NUMSTATIC = bounds[0];
+			scaler.MAX_NUMSTATIC = bounds[1];
+			scaler.INTERVAL = Long.getLong("tsmp.autoscale.interval", scaler.INTERVAL);
+			scaler.COOLDOWN = Long.getLong("tsmp.autoscale.cooldown", scaler.COOLDOWN);
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					try {
+						scaler.run();
+					} catch (Exception ex) {
+						TSMPLog.error("Autoscaler stopped: %s\n", ex);
+					}
+				}
+			}, "autoscale-" + svc.getName());
+			t.start();
+			threads.add(t);
+		}
+		for (Thread t : threads)
+			t.join();
+	}
+
+	// Parses min:max, both default to value
+	private static int[] parseBounds(String bounds, int value) {
+		if (bounds == null)
+			return new int[] { value, value };
+		String[] minMax = bounds.split(":");
+		return new int[] { Integer.parseInt(minMax[0].trim()), Integer.parseInt(minMax[minMax.length - 1].trim()) };
+	}
+
+	// Reads tsmp.config.prop, from the file named by the system property or
+	// from the jar
+	private Properties readProperties() throws IOException {
+		LaunchTrace.Span span = LaunchTrace.start("config", System.getProperty("tsmp.config.prop"));
 		Properties props = new Properties();
 		if (System.getProperty("tsmp.config.prop") != null)
 			props.load(new FileReader(new File(System.getProperty("tsmp.config.prop"))));
@@ -154,78 +600,72 @@ public class TSMPCapsule extends Capsule {
 			props.load(jar.getInputStream(jar.getEntry("META-INF/tsmp.config.prop")));
 			jar.close();
 		}
+		span.end();
+		return props;
+	}
 
-		TSMPBuilderFactory.Pathmon pmon = new TSMPBuilderFactory.Pathmon(
-				props.getOrDefault("PATHMON_NAME", "NONE").toString());
-		pmon.BACKUP_CPU = Integer.parseInt(props.getOrDefault("BACKUP_CPU", "1").toString());
-		pmon.PRIMARY_CPU = Integer.parseInt(props.getOrDefault("PRIMARY_CPU", "0").toString());
-		try {
-			pmon.startAndConfigurePathmon();
-		} catch (Exception ex) {
-			throw new IOException(ex);
+	// The AppCDS archive of the servers if APPCDS is set, null if not. The
+	// archives go into APPCDS_DIR, by default the jar's directory, the CWD
+	// of the servers
+	private ClassDataSharing newClassDataSharing(Properties props, List<String> args, File cwd) {
+		if (!Boolean.parseBoolean(props.getProperty("APPCDS", "false")))
+			return null;
+		ClassDataSharing cds = new ClassDataSharing(new File(props.getProperty("APPCDS_DIR", cwd.getPath())), args);
+		cds.TIMEOUT = Long.parseLong(props.getProperty("APPCDS_TIMEOUT", String.valueOf(cds.TIMEOUT)));
+		cds.MAX_AGE = Long.parseLong(props.getProperty("APPCDS_MAX_AGE", String.valueOf(cds.MAX_AGE)));
+		return cds.getArchive() == null ? null : cds;
+	}
+
+	// A plan built with AppCDS is used while its archive is the one for the
+	// current class path and was dumped exactly if the plan's servers use
+	// it. Otherwise the plan is rebuilt, and the archive dumped after the
+	// launch if it is missing
+	private boolean checkArchive(LaunchPlan plan, List<String> args) {
+		if (plan.archive == null)
+			return true;
+		ClassDataSharing cds = new ClassDataSharing(plan.archive.getParentFile(), args);
+		if (!plan.archive.equals(cds.getArchive()) || !cds.isDumped() && !cds.hasFailed())
+			return false;
+		for (TSMPBuilderFactory.Serverclass svc : plan.svcs) {
+			if ((ClassDataSharing.getArchive(svc.ARGLIST) != null) != cds.isDumped())
+				return false;
 		}
+		cds.markUsed();
+		return true;
+	}
 
-		TSMPBuilderFactory.Serverclass svc = new TSMPBuilderFactory.Serverclass(
-				props.getOrDefault("SERVERCLASS_NAME", "NONE").toString());
-		List<String> args = pb.command();
+	// Builds the Serverclasses running the command line args
+	private List<TSMPBuilderFactory.Serverclass> newServerclasses(Properties props, List<String> args, File cwd) {
+		LaunchTrace.Span span = LaunchTrace.start("serverclass.model", null);
+		File program = null;
 		StringBuffer arglist = new StringBuffer();
 		for (int i = 0; i < args.size(); i++) {
 			if (i == 0) {
-				svc.PROGRAM = new File(args.get(i));
+				program = new File(args.get(i));
 				continue;
 			}
 			arglist.append(args.get(i));
 			arglist.append(",");
 		}
 		arglist.deleteCharAt(arglist.length() - 1);
-		svc.ARGLIST = arglist.toString();
-
-		svc.CWD = super.getJarFile().getParent().toFile();
-		svc.AUTORESTART = Integer.parseInt(props.getOrDefault("AUTORESTART", "10").toString());
-		svc.NUMSTATIC = Integer.parseInt(props.getOrDefault("NUMSTATIC", "1").toString());
-		svc.MAXSERVERS = Integer.parseInt(props.getOrDefault("MAXSERVERS", "1").toString());
 
-		String pnames = props.getOrDefault("PROCESS_NAMES", "a,b,c").toString();
-		ArrayList<String> pnamelist = new ArrayList<String>();
-		for (String s : pnames.split(",")) {
-			pnamelist.add("$" + s);
-		}
-		svc.PROCESS = pnamelist.toArray(svc.PROCESS);
-
-		{
-			String cpus = (String) props.getOrDefault("CPUS", "{{0,1}}");
-			String[] cpu_pairs = cpus.substring(1, cpus.length() - 1).split(";");
-			int[][] CPUS = new int[cpu_pairs.length][2];
-			for (int i = 0; i < cpu_pairs.length; i++) {
-				String[] pair = cpu_pairs[i].substring(1, cpu_pairs[i].length() - 1).split(",");
-				CPUS[i][0] = Integer.valueOf(pair[0]);
-				CPUS[i][1] = Integer.valueOf(pair.length > 1 ? pair[1] : "-1");
-			}
-			svc.CPUS = CPUS;
-		}
-		svc.STDOUT = new File(props.getOrDefault("STDOUT", "/dev/null").toString());
-		svc.STDERR = new File(props.getOrDefault("STDERR", "/dev/null").toString());
-
-		svc.addDefines(props.getProperty("DEFINE"));
-		svc.addDefines(System.getProperty("tsmp.server.define"));
-
-		try {
-			svc.configureAndStartInPathmon(pmon);
-		} catch (Exception ex) {
-			throw new IOException(ex);
-		}
-		return 0;
+		List<TSMPBuilderFactory.Serverclass> svcs = TSMPBuilderFactory.newServerclasses(props, program,
+				arglist.toString(), cwd);
+		// Build the configuration now rather than when the PATHMON is ready
+		for (TSMPBuilderFactory.Serverclass svc : svcs)
+			svc.buildConfiguration();
+		span.end();
+		return svcs;
 	}
 
+	// Logs the args separated by spaces at DEBUG, formatted only if DEBUG is
+	// enabled
 	private final void log(Object... args) {
-		if (LOG_ENABLED) {
-			StringBuffer buf = new StringBuffer();
-			for (Object arg : args) {
-				buf.append(arg);
-				buf.append(" ");
-			}
-			super.log(LOG_VERBOSE, buf.toString());
-			// System.out.println(buf.toString());
+		if (TSMPLog.isEnabled(TSMPLog.DEBUG)) {
+			StringBuffer format = new StringBuffer();
+			for (int i = 0; i < args.length; i++)
+				format.append("%s ");
+			TSMPLog.debug(format.append("\n").toString(), args);
 		}
 	}
 }
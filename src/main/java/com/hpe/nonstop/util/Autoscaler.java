@@ -0,0 +1,188 @@
+package com.hpe.nonstop.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Controller that keeps MAXSERVERS and NUMSTATIC of a running serverclass in
+ * line with its load. Every <code>INTERVAL</code> milliseconds it reads
+ * <code>STATUS SERVER name, DETAIL</code> and computes
+ * <ul>
+ * <li>utilization : processes with links / running processes
+ * <li>queued : requests waiting, the sum of the WEIGHT column
+ * <li>churn : dynamic processes started or stopped since the last poll
+ * </ul>
+ * MAXSERVERS is raised when utilization stays at or above
+ * <code>HIGH_WATER</code> (or requests queue) for <code>SAMPLES</code> polls
+ * in a row and lowered when it stays at or below <code>LOW_WATER</code>.
+ * NUMSTATIC is raised when dynamic processes keep coming and going under
+ * load and lowered when the serverclass is idle. Values stay within the
+ * configured bounds, and after a change nothing is changed for
+ * <code>COOLDOWN</code> milliseconds. Every decision is printed with the
+ * numbers behind it.
+ * <p>
+ * The values scaled to are kept here and never written to the shared
+ * Serverclass, which other threads read and {@link ConfigWatcher} replaces.
+ * The serverclass is looked up by name at every poll, and the attributes a
+ * reload changed are scaled from their new values.
+ * </p>
+ */
+public class Autoscaler {
+
+	public int MIN_MAXSERVERS = 1;
+	public int MAX_MAXSERVERS = 16;
+	public int MIN_NUMSTATIC = 1;
+	public int MAX_NUMSTATIC = 1;
+	public double HIGH_WATER = 0.8;
+	public double LOW_WATER = 0.3;
+	public int SAMPLES = 3;
+	public long INTERVAL = 10000;
+	public long COOLDOWN = 60000;
+
+	private final TSMPBuilderFactory.Pathmon pmon;
+	private final AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs;
+	private TSMPBuilderFactory.Serverclass svc;
+	// The values last sent to the PATHMON. The shared Serverclass keeps the
+	// configured ones
+	private int maxservers;
+	private int numstatic;
+	private Set<String> lastDynamic = null;
+	private int highSamples = 0;
+	private int lowSamples = 0;
+	private long lastChange = 0;
+
+	public Autoscaler(TSMPBuilderFactory.Pathmon pmon, TSMPBuilderFactory.Serverclass svc) {
+		this(pmon, svc, null);
+	}
+
+	// svcs : the serverclasses svc is replaced from when a new one of its
+	// name is set, may be null
+	public Autoscaler(TSMPBuilderFactory.Pathmon pmon, TSMPBuilderFactory.Serverclass svc,
+			AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs) {
+		this.pmon = pmon;
+		this.svc = svc;
+		this.svcs = svcs;
+		maxservers = svc.MAXSERVERS;
+		numstatic = svc.NUMSTATIC;
+		MIN_MAXSERVERS = svc.MAXSERVERS;
+		MAX_MAXSERVERS = svc.MAXSERVERS;
+		MIN_NUMSTATIC = svc.NUMSTATIC;
+		MAX_NUMSTATIC = svc.NUMSTATIC;
+	}
+
+	// Polls and adjusts until the thread is interrupted
+	public void run() throws Exception {
+		PathcomSession session = PathcomSession.acquire(pmon.getName());
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				if (svcs != null) {
+					for (TSMPBuilderFactory.Serverclass current : svcs.get()) {
+						if (current.getName().equals(svc.getName()))
+							follow(current);
+					}
+				}
+				List<PathcomSession.Result> status = session
+						.executeOrThrow(Arrays.asList("STATUS SERVER " + svc.getName() + ", DETAIL"));
+				List<String> alters = decide(ServerStatus.parse(status.get(0).output), System.currentTimeMillis());
+				if (!alters.isEmpty())
+					session.executeOrThrow(alters);
+				Thread.sleep(INTERVAL);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			PathcomSession.release(session);
+		}
+	}
+
+	// Takes over the values a reload changed when ConfigWatcher set a new
+	// definition of the serverclass. A reload only ALTERs the attributes
+	// that changed in the file, the others keep the values last scaled to
+	synchronized void follow(TSMPBuilderFactory.Serverclass current) {
+		if (current == svc)
+			return;
+		if (current.MAXSERVERS != svc.MAXSERVERS)
+			maxservers = current.MAXSERVERS;
+		if (current.NUMSTATIC != svc.NUMSTATIC)
+			numstatic = current.NUMSTATIC;
+		svc = current;
+	}
+
+	public synchronized int getMaxServers() {
+		return maxservers;
+	}
+
+	public synchronized int getNumStatic() {
+		return numstatic;
+	}
+
+	// Returns the ALTER commands for this poll and takes their values as the
+	// current ones
+	public synchronized List<String> decide(ServerStatus status, long now) {
+		Set<String> running = status.getRunning();
+		int busy = status.getBusy();
+		int queued = status.getQueued();
+		Set<String> statics = new HashSet<String>();
+		for (int i = 0; i < Math.min(svc.PROCESS.length, numstatic); i++)
+			statics.add(svc.PROCESS[i].toUpperCase());
+		Set<String> dynamic = new HashSet<String>(running);
+		dynamic.removeAll(statics);
+		int churn = 0;
+		if (lastDynamic != null) {
+			Set<String> started = new HashSet<String>(dynamic);
+			started.removeAll(lastDynamic);
+			Set<String> stopped = new HashSet<String>(lastDynamic);
+			stopped.removeAll(dynamic);
+			churn = started.size() + stopped.size();
+		}
+		lastDynamic = dynamic;
+
+		double utilization = running.isEmpty() ? 0 : (double) busy / running.size();
+		boolean high = utilization >= HIGH_WATER || queued > 0;
+		boolean low = utilization <= LOW_WATER && queued == 0;
+		highSamples = high ? highSamples + 1 : 0;
+		lowSamples = low ? lowSamples + 1 : 0;
+
+		String metrics = String.format("running=%d busy=%d utilization=%.2f links=%d queued=%d churn=%d",
+				running.size(), busy, utilization, status.getLinks(), queued, churn);
+		List<String> alters = new ArrayList<String>();
+		if (now - lastChange < COOLDOWN) {
+			return alters;
+		}
+
+		int nextMax = maxservers;
+		int nextStatic = numstatic;
+		if (highSamples >= SAMPLES) {
+			nextMax = Math.min(MAX_MAXSERVERS, maxservers + Math.max(1, maxservers / 4));
+			if (churn > 0)
+				nextStatic = Math.min(Math.min(MAX_NUMSTATIC, svc.PROCESS.length), numstatic + 1);
+		} else if (lowSamples >= SAMPLES) {
+			if (churn == 0 && busy == 0)
+				nextStatic = Math.max(MIN_NUMSTATIC, numstatic - 1);
+			nextMax = Math.max(Math.max(MIN_MAXSERVERS, nextStatic), maxservers - Math.max(1, maxservers / 4));
+		}
+		nextMax = Math.max(nextMax, nextStatic);
+
+		String prefix = "ALTER SERVER " + svc.getName() + ", ";
+		if (nextMax != maxservers) {
+			alters.add(prefix + "MAXSERVERS " + nextMax);
+			TSMPLog.info("%s: MAXSERVERS %d -> %d (%s)\n", svc.getName(), maxservers, nextMax, metrics);
+			maxservers = nextMax;
+		}
+		if (nextStatic != numstatic) {
+			alters.add(prefix + "NUMSTATIC " + nextStatic);
+			TSMPLog.info("%s: NUMSTATIC %d -> %d (%s)\n", svc.getName(), numstatic, nextStatic, metrics);
+			numstatic = nextStatic;
+		}
+		if (!alters.isEmpty()) {
+			lastChange = now;
+			highSamples = 0;
+			lowSamples = 0;
+		}
+		return alters;
+	}
+}
@@ -0,0 +1,287 @@
+package com.hpe.nonstop.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * AppCDS archive for the server JVMs, so each static and dynamic server
+ * process maps the application classes instead of loading them.
+ * <p>
+ * The archive is dumped once per application version into a directory, by
+ * default the serverclass CWD next to the jar, as
+ * <code>tsmp-&lt;key&gt;-&lt;version&gt;.jsa</code>. The key is a hash of the
+ * path of the java program and of the jars on the class path, the version a
+ * hash of their sizes and times as well, so a new build of the application or
+ * of its dependencies dumps a new archive. The archive holds the classes of
+ * the JDK's default archive and every class in the jars on the class path
+ * (<code>-Xshare:dump -XX:SharedClassListFile</code>), no training run is
+ * needed.
+ * </p>
+ * <p>
+ * Dumping takes seconds, so it is never done on the launch path: a launch
+ * that finds no archive starts the servers without one and dumps it on a
+ * background thread with {@link #dumpInBackground()} once they are serving;
+ * the next launch uses it. The servers are started with
+ * <code>-XX:SharedArchiveFile</code> and <code>-Xshare:auto</code>, so a JVM
+ * that finds the archive stale or unusable runs without it. If the dump
+ * fails, for example on a JVM without AppCDS, a <code>.failed</code> marker
+ * keeps later launches of the same version from trying again.
+ * </p>
+ * <p>
+ * After a dump the other versions of the same application are removed, and
+ * archives of any application in the directory that no launch has used for
+ * <code>MAX_AGE</code> milliseconds. A launch that uses an archive touches
+ * it.
+ * </p>
+ */
+public class ClassDataSharing {
+
+	private static final String PREFIX = "tsmp-";
+	private static final String SUFFIX = ".jsa";
+	private static final String FAILED = ".failed";
+	private static final String OPTION = "-XX:SharedArchiveFile=";
+
+	public long TIMEOUT = 120000;
+	public long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+	private final List<String> command;
+	// Null if the command line has no class path
+	private final File archive;
+	private Thread dumper = null;
+
+	// dir : where the archives are kept. command : the java command line of
+	// the servers
+	public ClassDataSharing(File dir, List<String> command) {
+		this.command = command;
+		File archive = null;
+		List<String> classpath = getClasspath(command);
+		if (!classpath.isEmpty()) {
+			try {
+				File program = new File(command.get(0));
+				archive = new File(dir, PREFIX + getKey(program, classpath) + "-" + getVersion(program, classpath)
+						+ SUFFIX);
+			} catch (Exception ex) {
+				TSMPLog.warn("AppCDS archive not used: %s\n", ex.getMessage());
+			}
+		}
+		this.archive = archive;
+	}
+
+	// The archive of this version of the application, dumped or not. Null if
+	// there is none
+	public File getArchive() {
+		return archive;
+	}
+
+	public boolean isDumped() {
+		return archive != null && archive.isFile();
+	}
+
+	// The dump of this version failed before
+	public boolean hasFailed() {
+		return archive != null && getMarker(archive).isFile();
+	}
+
+	// The command line with the archive options if the archive has been
+	// dumped, as is if not
+	public List<String> getCommand() {
+		if (!isDumped())
+			return command;
+		markUsed();
+		return addOptions(command, archive);
+	}
+
+	// Keeps a dumped archive from being pruned for another MAX_AGE
+	public void markUsed() {
+		if (isDumped())
+			archive.setLastModified(System.currentTimeMillis());
+	}
+
+	// Dumps the archive on a thread of its own unless it has been dumped or
+	// failed before
+	public synchronized void dumpInBackground() {
+		if (archive == null || isDumped() || hasFailed() || dumper != null)
+			return;
+		dumper = new Thread(new Runnable() {
+			public void run() {
+				dump();
+			}
+		}, "tsmp-appcds");
+		dumper.setPriority(Thread.MIN_PRIORITY);
+		dumper.start();
+	}
+
+	// Waits for a dump started by dumpInBackground
+	public void awaitDump() throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			t = dumper;
+		}
+		if (t != null)
+			t.join();
+	}
+
+	// Dumps the archive and removes the old ones. Returns false if it failed
+	boolean dump() {
+		LaunchTrace.Span span = LaunchTrace.start("appcds", archive.getAbsolutePath());
+		try {
+			archive.getParentFile().mkdirs();
+			dump(archive, command.get(0), getClasspath(command));
+			TSMPLog.info("AppCDS archive %s dumped\n", archive);
+			return true;
+		} catch (Exception ex) {
+			span.fail();
+			TSMPLog.warn("AppCDS archive not dumped: %s\n", ex.getMessage());
+			try {
+				getMarker(archive).createNewFile();
+			} catch (IOException e) {
+				// The next launch tries again
+			}
+			return false;
+		} finally {
+			prune(archive.getParentFile(), archive, MAX_AGE);
+			span.end();
+		}
+	}
+
+	// Inserts the archive options after the java program
+	public static List<String> addOptions(List<String> command, File archive) {
+		List<String> withArchive = new ArrayList<String>(command);
+		withArchive.add(1, OPTION + archive.getAbsolutePath());
+		withArchive.add(2, "-Xshare:auto");
+		return withArchive;
+	}
+
+	// The archive addOptions put into an ARGLIST, null if there is none
+	public static File getArchive(String arglist) {
+		int at = arglist.indexOf(OPTION);
+		if (at < 0)
+			return null;
+		int end = arglist.indexOf(',', at);
+		return new File(arglist.substring(at + OPTION.length(), end < 0 ? arglist.length() : end));
+	}
+
+	// The class path of a java command line, from -cp, -classpath,
+	// --class-path or -jar
+	static List<String> getClasspath(List<String> command) {
+		for (int i = 1; i < command.size() - 1; i++) {
+			String arg = command.get(i);
+			if (arg.equals("-cp") || arg.equals("-classpath") || arg.equals("--class-path") || arg.equals("-jar"))
+				return Arrays.asList(command.get(i + 1).split(File.pathSeparator));
+		}
+		return new ArrayList<String>();
+	}
+
+	// Names the application: the same for every build of it
+	static String getKey(File program, List<String> classpath) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update((program.getCanonicalPath() + "\0").getBytes("UTF-8"));
+		for (String entry : classpath)
+			md.update((new File(entry).getAbsolutePath() + "\0").getBytes("UTF-8"));
+		return toHex(md.digest());
+	}
+
+	static String getVersion(File program, List<String> classpath) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		File java = program.getCanonicalFile();
+		md.update((java.getPath() + "\0" + java.length() + "\0" + java.lastModified() + "\0").getBytes("UTF-8"));
+		for (String entry : classpath) {
+			File f = new File(entry);
+			md.update((f.getAbsolutePath() + "\0" + f.length() + "\0" + f.lastModified() + "\0").getBytes("UTF-8"));
+		}
+		return toHex(md.digest());
+	}
+
+	// The first 8 bytes of a digest
+	private static String toHex(byte[] digest) {
+		StringBuffer hex = new StringBuffer();
+		for (int i = 0; i < 8; i++)
+			hex.append(String.format("%02x", digest[i]));
+		return hex.toString();
+	}
+
+	private void dump(File archive, String program, List<String> classpath) throws Exception {
+		File classlist = File.createTempFile(PREFIX, ".classlist", archive.getParentFile());
+		File tmp = new File(archive.getParentFile(), archive.getName() + ".tmp" + System.nanoTime());
+		try {
+			writeClassList(classlist, new File(program), classpath);
+			StringBuffer cp = new StringBuffer();
+			for (String entry : classpath)
+				cp.append(cp.length() == 0 ? "" : File.pathSeparator).append(entry);
+			CommandExecutor.CommandResult r = CommandExecutor.execute(Arrays.asList(program, "-Xshare:dump",
+					"-XX:SharedClassListFile=" + classlist.getAbsolutePath(),
+					"-XX:SharedArchiveFile=" + tmp.getAbsolutePath(), "-cp", cp.toString()), TIMEOUT);
+			if (r.timedOut || r.exitCode != 0 || !tmp.isFile())
+				throw new RuntimeException(r.toString());
+			Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			classlist.delete();
+			tmp.delete();
+		}
+	}
+
+	// The JDK's own class list, which the default CDS archive is built
+	// from, followed by the classes of the jars
+	private static void writeClassList(File classlist, File program, List<String> classpath) throws IOException {
+		Writer w = new FileWriter(classlist);
+		try {
+			File jdk = new File(program.getCanonicalFile().getParentFile().getParentFile(), "lib/classlist");
+			if (jdk.isFile()) {
+				for (String line : Files.readAllLines(jdk.toPath()))
+					w.write(line + "\n");
+			}
+			for (String entry : classpath) {
+				if (!entry.endsWith(".jar") || !new File(entry).isFile())
+					continue;
+				JarFile jar = new JarFile(entry);
+				try {
+					for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+						String name = e.nextElement().getName();
+						if (name.endsWith(".class") && !name.startsWith("META-INF/")
+								&& !name.endsWith("module-info.class"))
+							w.write(name.substring(0, name.length() - ".class".length()) + "\n");
+					}
+				} finally {
+					jar.close();
+				}
+			}
+		} finally {
+			w.close();
+		}
+	}
+
+	private static File getMarker(File archive) {
+		return new File(archive.getParentFile(), archive.getName() + FAILED);
+	}
+
+	// Removes the other versions of the application of current, and the
+	// archives and markers of any application not touched for maxAge
+	static void prune(File dir, File current, long maxAge) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		String name = current.getName();
+		String key = name.substring(0, name.lastIndexOf('-') + 1);
+		long oldest = System.currentTimeMillis() - maxAge;
+		for (File f : files) {
+			String n = f.getName();
+			if (!n.startsWith(PREFIX) || !(n.endsWith(SUFFIX) || n.endsWith(SUFFIX + FAILED)))
+				continue;
+			if (n.startsWith(name))
+				continue;
+			if (n.startsWith(key) || f.lastModified() < oldest)
+				f.delete();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.hpe.nonstop.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs external commands (gtacl) without blocking the caller. The output of
+ * the command is drained on its own thread while the command runs, so a
+ * command with a lot of output can not stall on a full pipe, and the output
+ * is returned in full. Every command has a deadline after which it is killed.
+ * <p>
+ * Virtual threads are used when the JVM has them, otherwise daemon platform
+ * threads.
+ * </p>
+ */
+public class CommandExecutor {
+
+	// Default deadline for a command, tsmp.command.timeout milliseconds
+	public static final long DEFAULT_TIMEOUT = Long.getLong("tsmp.command.timeout", 60000L);
+
+	public static class CommandResult {
+		public final List<String> command;
+		public final int exitCode;
+		public final String output;
+		public final boolean timedOut;
+		public final long elapsedMillis;
+
+		CommandResult(List<String> command, int exitCode, String output, boolean timedOut, long elapsedMillis) {
+			this.command = command;
+			this.exitCode = exitCode;
+			this.output = output;
+			this.timedOut = timedOut;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public String toString() {
+			return Arrays.toString(command.toArray()).replace(',', ' ') + " exit=" + exitCode
+					+ (timedOut ? " TIMED OUT" : "") + "\n" + output;
+		}
+	}
+
+	private static final ExecutorService EXECUTOR = newExecutor();
+
+	public static CompletableFuture<CommandResult> executeAsync(List<String> command) {
+		return executeAsync(command, DEFAULT_TIMEOUT);
+	}
+
+	public static CompletableFuture<CommandResult> executeAsync(final List<String> command,
+			final long timeoutMillis) {
+		final List<String> clist = new ArrayList<String>(command);
+		final CompletableFuture<CommandResult> result = new CompletableFuture<CommandResult>();
+		EXECUTOR.execute(new Runnable() {
+			public void run() {
+				try {
+					result.complete(runCommand(clist, timeoutMillis));
+				} catch (Throwable t) {
+					result.completeExceptionally(t);
+				}
+			}
+		});
+		return result;
+	}
+
+	// Runs blocking work, such as waiting on a command, on the command threads
+	public static <T> CompletableFuture<T> submit(final Callable<T> task) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		EXECUTOR.execute(new Runnable() {
+			public void run() {
+				try {
+					result.complete(task.call());
+				} catch (Throwable t) {
+					result.completeExceptionally(t);
+				}
+			}
+		});
+		return result;
+	}
+
+	// Synchronous form of executeAsync
+	public static CommandResult execute(List<String> command, long timeoutMillis) throws Exception {
+		return runCommand(new ArrayList<String>(command), timeoutMillis);
+	}
+
+	private static CommandResult runCommand(List<String> clist, long timeoutMillis) throws Exception {
+		LaunchTrace.Span span = LaunchTrace.start("command", LaunchTrace.ENABLED ? join(clist) : null);
+		try {
+			CommandResult result = runCommand(clist, timeoutMillis, System.currentTimeMillis());
+			if (result.timedOut || result.exitCode != 0)
+				span.fail();
+			return result;
+		} catch (Exception ex) {
+			span.fail();
+			throw ex;
+		} finally {
+			span.end();
+		}
+	}
+
+	private static CommandResult runCommand(List<String> clist, long timeoutMillis, long start) throws Exception {
+		final Process proc = GtaclLauncher.launch(clist);
+		proc.getOutputStream().close();
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompletableFuture<Void> drained = CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				byte[] b = new byte[4096];
+				try {
+					InputStream pis = proc.getInputStream();
+					int read;
+					while ((read = pis.read(b)) != -1) {
+						synchronized (out) {
+							out.write(b, 0, read);
+						}
+					}
+				} catch (IOException ex) {
+					// Stream closed because the process was killed
+				}
+			}
+		}, EXECUTOR);
+
+		boolean timedOut = !proc.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+		if (timedOut) {
+			proc.destroyForcibly();
+			proc.waitFor(1, TimeUnit.SECONDS);
+		}
+		try {
+			drained.get(timedOut ? 1000 : timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (Exception ex) {
+			// Keep whatever was read so far
+		}
+		String output;
+		synchronized (out) {
+			output = out.toString();
+		}
+		return new CommandResult(clist, timedOut ? -1 : proc.exitValue(), output, timedOut,
+				System.currentTimeMillis() - start);
+	}
+
+	private static String join(List<String> clist) {
+		StringBuffer buf = new StringBuffer();
+		for (String arg : clist)
+			buf.append(buf.length() == 0 ? "" : " ").append(arg);
+		return buf.toString();
+	}
+
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception ex) {
+			// Virtual threads are not available on this JVM
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "tsmp-command");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+}
@@ -0,0 +1,233 @@
+package com.hpe.nonstop.util;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies edits of the configuration file to the running serverclasses.
+ * <p>
+ * The directory of the file is watched, and once the file has been quiet for
+ * <code>DEBOUNCE</code> milliseconds it is read again and compared key by key
+ * with the version last applied. Only the serverclasses that a changed key
+ * belongs to are rebuilt, and for each of them the ALTER commands for the
+ * attributes and DEFINEs that differ from the last applied definition are
+ * sent over one PATHCOM session, see
+ * {@link TSMPBuilderFactory.Serverclass#getDelta(Map)}. A serverclass is
+ * stopped around the commands only if one of them can not be applied while
+ * it runs, and cycled a few processes at a time if it has UPGRADE=ROLLING.
+ * </p>
+ * <p>
+ * Keys of the PATHMON and PATHWAY, and new serverclasses, are not applied; a
+ * warning says they need a new launch. An edit that can not be applied is
+ * logged and retried with the next edit.
+ * </p>
+ * <p>
+ * The serverclasses are shared with the threads that poll them, e.g.
+ * {@link MetricsExporter} and {@link Autoscaler}. A reload never changes the
+ * list they read; it publishes a new list with the rebuilt serverclasses.
+ * </p>
+ */
+public class ConfigWatcher {
+
+	public long DEBOUNCE = 500;
+
+	// Keys newServerclass reads, plain or in a SERVERCLASS.<name>. section
+	private static final List<String> SERVERCLASS_KEYS = Arrays.asList("AUTORESTART", "NUMSTATIC", "MAXSERVERS",
+			"PROCESS_NAMES", "PROCESS_PREFIX", "CPUS", "STDOUT", "STDERR", "RECONCILE", "UPGRADE", "MAX_UNAVAILABLE",
+			"READY_TIMEOUT", "READY_INTERVAL", "DEFINE");
+
+	private final File file;
+	private final TSMPBuilderFactory.Pathmon pmon;
+	private final AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs;
+	private Properties applied;
+
+	// svcs : the serverclasses as launched, a new list is set as edits are
+	// applied
+	// props : the configuration they were launched from
+	public ConfigWatcher(File file, TSMPBuilderFactory.Pathmon pmon,
+			AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs, Properties props) {
+		this.file = file.getAbsoluteFile();
+		this.pmon = pmon;
+		this.svcs = svcs;
+		this.applied = props;
+	}
+
+	// Watches until the thread is interrupted
+	public void run() throws Exception {
+		Path dir = file.getParentFile().toPath();
+		WatchService watcher = FileSystems.getDefault().newWatchService();
+		try {
+			dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			TSMPLog.info("Watching %s\n", file);
+			while (!Thread.currentThread().isInterrupted()) {
+				if (!changed(watcher.take()))
+					continue;
+				// Wait for the burst of events of one save to end
+				WatchKey key;
+				while ((key = watcher.poll(DEBOUNCE, TimeUnit.MILLISECONDS)) != null)
+					changed(key);
+				try {
+					reload();
+				} catch (Exception ex) {
+					TSMPLog.error("Reload of %s failed: %s\n", file, ex);
+				}
+			}
+		} finally {
+			watcher.close();
+		}
+	}
+
+	// Drains the key, true if one of its events was for the file
+	private boolean changed(WatchKey key) {
+		boolean ours = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getName().equals(event.context().toString()))
+				ours = true;
+		}
+		key.reset();
+		return ours;
+	}
+
+	// Applies the difference between the file and the last applied version
+	public void reload() throws Exception {
+		Properties props = read();
+		Set<String> keys = getChangedKeys(applied, props);
+		if (keys.isEmpty())
+			return;
+		TSMPLog.info("%s changed: %s\n", file.getName(), keys);
+
+		List<TSMPBuilderFactory.Serverclass> current = svcs.get();
+		Map<String, Set<String>> affected = new LinkedHashMap<String, Set<String>>();
+		for (String key : keys) {
+			String name = null;
+			String attr = key;
+			int dot = key.indexOf('.', TSMPBuilderFactory.SECTION_PREFIX.length());
+			if (key.startsWith(TSMPBuilderFactory.SECTION_PREFIX) && dot > 0) {
+				name = key.substring(TSMPBuilderFactory.SECTION_PREFIX.length(), dot);
+				attr = key.substring(dot + 1);
+			}
+			if (!SERVERCLASS_KEYS.contains(attr)) {
+				TSMPLog.warn("%s: %s is applied at the next launch\n", file.getName(), key);
+				continue;
+			}
+			for (TSMPBuilderFactory.Serverclass svc : current) {
+				if (name == null || name.equals(svc.getName())) {
+					if (!affected.containsKey(svc.getName()))
+						affected.put(svc.getName(), new LinkedHashSet<String>());
+					affected.get(svc.getName()).add(attr);
+				}
+			}
+			if (name != null && !affected.containsKey(name))
+				TSMPLog.warn("%s: serverclass %s is added at the next launch\n", file.getName(), name);
+		}
+		if (affected.isEmpty()) {
+			applied = props;
+			return;
+		}
+
+		boolean sectioned = false;
+		for (String key : props.stringPropertyNames())
+			sectioned |= key.startsWith(TSMPBuilderFactory.SECTION_PREFIX);
+		CpuPlacement placement = TSMPBuilderFactory.newCpuPlacement(props);
+		boolean failed = false;
+		List<TSMPBuilderFactory.Serverclass> next = new ArrayList<TSMPBuilderFactory.Serverclass>(current);
+		PathcomSession session = PathcomSession.acquire(pmon.getName());
+		try {
+			for (int i = 0; i < next.size(); i++) {
+				TSMPBuilderFactory.Serverclass svc = next.get(i);
+				Set<String> attrs = affected.get(svc.getName());
+				if (attrs == null)
+					continue;
+				String prefix = sectioned ? TSMPBuilderFactory.SECTION_PREFIX + svc.getName() + "." : "";
+				// Keep the placement and the process names, they are only
+				// redone when their keys change
+				Properties effective = new Properties();
+				effective.putAll(props);
+				boolean keepCpus = svc.AUTO_CPUS && !attrs.contains("CPUS");
+				if (keepCpus)
+					effective.setProperty(prefix + "CPUS", formatCpus(svc.CPUS));
+				boolean keepNames = !attrs.contains("PROCESS_NAMES") && !attrs.contains("PROCESS_PREFIX");
+				if (keepNames) {
+					effective.setProperty(prefix + "PROCESS_PREFIX", "");
+					effective.setProperty(prefix + "PROCESS_NAMES", String.join(",", svc.PROCESS).replace("$", ""));
+				}
+				try {
+					TSMPBuilderFactory.Serverclass updated = TSMPBuilderFactory.newServerclass(svc.getName(),
+							effective, prefix, svc.PROGRAM, svc.ARGLIST, svc.CWD, placement);
+					if (keepCpus)
+						updated.AUTO_CPUS = true;
+					if (keepNames)
+						updated.AUTO_NAMES = svc.AUTO_NAMES;
+					List<String> delta = updated.getDelta(svc.getAttributes());
+					TSMPLog.info("%s: %s\n", svc.getName(),
+							delta.isEmpty() ? "unchanged" : delta.subList(1, delta.size()).toString());
+					updated.applyDelta(session, delta);
+					next.set(i, updated);
+					List<String> unused = new ArrayList<String>(Arrays.asList(svc.PROCESS));
+					unused.removeAll(Arrays.asList(updated.PROCESS));
+					ProcessNameAllocator.release(unused);
+				} catch (Exception ex) {
+					TSMPLog.error("%s: reload failed: %s\n", svc.getName(), ex.getMessage());
+					failed = true;
+				}
+			}
+		} finally {
+			PathcomSession.release(session);
+			// The serverclasses that were altered, even if others failed
+			svcs.set(Collections.unmodifiableList(next));
+		}
+		if (!failed)
+			applied = props;
+	}
+
+	// Keys added, removed or changed between two versions
+	static Set<String> getChangedKeys(Properties before, Properties after) {
+		Set<String> keys = new LinkedHashSet<String>();
+		Set<String> all = new LinkedHashSet<String>(before.stringPropertyNames());
+		all.addAll(after.stringPropertyNames());
+		for (String key : all) {
+			String a = before.getProperty(key);
+			String b = after.getProperty(key);
+			if (a == null ? b != null : !a.equals(b))
+				keys.add(key);
+		}
+		return keys;
+	}
+
+	// The CPUS property form of pairs, {{0,1},{2}}
+	static String formatCpus(int[][] cpus) {
+		List<String> pairs = new ArrayList<String>();
+		for (int[] pair : cpus)
+			pairs.add("{" + pair[0] + (pair.length > 1 && pair[1] != -1 ? "," + pair[1] : "") + "}");
+		return "{" + String.join(",", pairs) + "}";
+	}
+
+	private Properties read() throws Exception {
+		Properties props = new Properties();
+		Reader reader = new FileReader(file);
+		try {
+			props.load(reader);
+		} finally {
+			reader.close();
+		}
+		return props;
+	}
+}
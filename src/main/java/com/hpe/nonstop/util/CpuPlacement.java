@@ -0,0 +1,149 @@
+package com.hpe.nonstop.util;
+
+import java.io.FileReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Computes the CPUS of a serverclass from the load on the available
+ * processors, used for <code>CPUS=auto</code>.
+ * <p>
+ * Each static process gets its own primary:backup pair. The primary goes to
+ * the least loaded CPU, the backup to the least loaded other CPU. CPUs whose
+ * load is above <code>HOT_FACTOR</code> times the average are used only when
+ * nothing else is left, so a pair is not placed on a hot CPU. Every placement
+ * adds to the load of its CPUs, so the static processes of a serverclass, and
+ * of all serverclasses placed with the same instance, spread over the
+ * processors.
+ * </p>
+ */
+public class CpuPlacement {
+
+	// The load added by a primary and by a backup process
+	static final double PRIMARY_LOAD = 1.0;
+	static final double BACKUP_LOAD = 0.25;
+
+	public double HOT_FACTOR = 1.5;
+
+	// Reports the current load of each CPU
+	public interface LoadSource {
+		Map<Integer, Double> getLoad(List<Integer> cpus) throws Exception;
+	}
+
+	// Load from a properties file of cpu=load, for tests and fixed layouts
+	public static class FileLoadSource implements LoadSource {
+		private final String file;
+
+		public FileLoadSource(String file) {
+			this.file = file;
+		}
+
+		public Map<Integer, Double> getLoad(List<Integer> cpus) throws Exception {
+			Properties props = new Properties();
+			Reader r = new FileReader(file);
+			try {
+				props.load(r);
+			} finally {
+				r.close();
+			}
+			Map<Integer, Double> load = new HashMap<Integer, Double>();
+			for (Integer cpu : cpus)
+				load.put(cpu, Double.parseDouble(props.getProperty(String.valueOf(cpu), "0")));
+			return load;
+		}
+	}
+
+	// Load from one TACL STATUS * of all processes: every primary counts
+	// PRIMARY_LOAD on its CPU, every backup BACKUP_LOAD
+	public static class StatusLoadSource implements LoadSource {
+		private static final Pattern CPU_PIN = Pattern.compile("(\\d+)\\s*,\\s*\\d+");
+
+		public Map<Integer, Double> getLoad(List<Integer> cpus) throws Exception {
+			return parse(ProcessStatusSnapshot.getTable(), cpus);
+		}
+
+		static Map<Integer, Double> parse(String output, List<Integer> cpus) {
+			Map<Integer, Double> load = new HashMap<Integer, Double>();
+			for (Integer cpu : cpus)
+				load.put(cpu, 0.0);
+			for (String line : output.split("\\r?\\n")) {
+				Matcher m = CPU_PIN.matcher(line);
+				if (line.trim().length() == 0 || !m.find())
+					continue;
+				Integer cpu = Integer.valueOf(m.group(1));
+				if (load.containsKey(cpu))
+					load.put(cpu, load.get(cpu) + (line.startsWith("$") ? PRIMARY_LOAD : BACKUP_LOAD));
+			}
+			return load;
+		}
+	}
+
+	private final List<Integer> cpus;
+	private final LoadSource source;
+	private Map<Integer, Double> load = null;
+
+	public CpuPlacement(List<Integer> cpus, LoadSource source) {
+		this.cpus = new ArrayList<Integer>(cpus);
+		this.source = source;
+	}
+
+	// Parses a list of CPU numbers such as 0,1,2,3
+	public static List<Integer> parseCpuList(String list) {
+		List<Integer> cpus = new ArrayList<Integer>();
+		for (String cpu : list.split("[,;\\s]+")) {
+			if (cpu.length() > 0)
+				cpus.add(Integer.valueOf(cpu));
+		}
+		return cpus;
+	}
+
+	// Returns primary/backup pairs for the static processes of a serverclass
+	public int[][] place(int processes) throws Exception {
+		if (load == null)
+			load = new HashMap<Integer, Double>(source.getLoad(cpus));
+		int[][] pairs = new int[Math.max(1, processes)][2];
+		for (int i = 0; i < pairs.length; i++) {
+			int primary = leastLoaded(-1);
+			int backup = leastLoaded(primary);
+			pairs[i][0] = primary;
+			pairs[i][1] = backup;
+			load.put(primary, load.get(primary) + PRIMARY_LOAD);
+			if (backup != -1)
+				load.put(backup, load.get(backup) + BACKUP_LOAD);
+		}
+		return pairs;
+	}
+
+	public String toString() {
+		return "CpuPlacement" + Arrays.toString(cpus.toArray()) + " load=" + load;
+	}
+
+	// The least loaded CPU other than exclude, preferring CPUs that are not
+	// hot. -1 if there is none
+	private int leastLoaded(int exclude) {
+		double total = 0;
+		for (Integer cpu : cpus)
+			total += load.get(cpu);
+		double hot = HOT_FACTOR * Math.max(total / cpus.size(), PRIMARY_LOAD);
+
+		int best = -1;
+		boolean bestHot = true;
+		for (Integer cpu : cpus) {
+			if (cpu == exclude)
+				continue;
+			boolean isHot = load.get(cpu) > hot;
+			if (best == -1 || (bestHot && !isHot) || (bestHot == isHot && load.get(cpu) < load.get(best))) {
+				best = cpu;
+				bestHot = isHot;
+			}
+		}
+		return best;
+	}
+}
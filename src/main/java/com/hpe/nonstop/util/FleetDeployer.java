@@ -0,0 +1,182 @@
+package com.hpe.nonstop.util;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deploys one configuration to many PATHMONs, the targets listed in an
+ * inventory file.
+ * <p>
+ * The inventory is a properties file. Every <code>TARGET.&lt;name&gt;.</code>
+ * section is a target; its keys override the keys of the configuration for
+ * that target only, e.g. <code>TARGET.CRD2.PRIMARY_CPU=2</code> or
+ * <code>TARGET.CRD2.SERVERCLASS.ORDERS.NUMSTATIC=4</code>. The PATHMON of a
+ * target is its PATHMON_NAME key, by default the target name. Keys outside a
+ * section apply to every target. A target without overrides is listed in
+ * <code>TARGETS</code>, a comma separated list.
+ * </p>
+ * <p>
+ * Up to <code>PARALLELISM</code> targets are deployed at once. Targets on the
+ * same PATHMON are deployed one after the other, those in TARGETS first and
+ * then the sections by name, so the commands sent to a PATHMON are never
+ * interleaved. Once at least
+ * <code>MIN_SAMPLES</code> targets are done and more than
+ * <code>MAX_ERROR_RATE</code> of them failed, no more targets are started;
+ * those already running finish.
+ * </p>
+ */
+public class FleetDeployer {
+
+	private static final String SECTION_PREFIX = "TARGET.";
+
+	public int PARALLELISM = 4;
+	public double MAX_ERROR_RATE = 0.25;
+	public int MIN_SAMPLES = 4;
+
+	// Deploys the configuration of one target
+	public interface Deployment {
+		void deploy(Target target) throws Exception;
+	}
+
+	public static class Target {
+		public final String NAME;
+		public final Properties props;
+		// PENDING, DEPLOYED, FAILED or SKIPPED
+		public String status = "PENDING";
+		public long elapsedMillis = 0;
+		public Exception error = null;
+
+		Target(String name, Properties props) {
+			NAME = name;
+			this.props = props;
+		}
+
+		public String getPathmonName() {
+			return props.getProperty("PATHMON_NAME", NAME);
+		}
+	}
+
+	private final AtomicInteger done = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private volatile boolean stopped = false;
+
+	// The targets of the inventory, each with the configuration in base
+	// overridden by its keys
+	public static List<Target> readInventory(File inventory, Properties base) throws Exception {
+		Properties inv = new Properties();
+		Reader r = new FileReader(inventory);
+		try {
+			inv.load(r);
+		} finally {
+			r.close();
+		}
+
+		Set<String> names = new TreeSet<String>();
+		List<String> order = new ArrayList<String>();
+		for (String name : inv.getProperty("TARGETS", "").split(",")) {
+			if (name.trim().length() > 0 && names.add(name.trim()))
+				order.add(name.trim());
+		}
+		for (String key : new TreeSet<String>(inv.stringPropertyNames())) {
+			int dot = key.indexOf('.', SECTION_PREFIX.length());
+			if (key.startsWith(SECTION_PREFIX) && dot > 0 && names.add(key.substring(SECTION_PREFIX.length(), dot)))
+				order.add(key.substring(SECTION_PREFIX.length(), dot));
+		}
+
+		List<Target> targets = new ArrayList<Target>();
+		for (String name : order) {
+			Properties props = new Properties();
+			props.putAll(base);
+			String prefix = SECTION_PREFIX + name + ".";
+			for (String key : inv.stringPropertyNames()) {
+				if (key.startsWith(prefix))
+					props.setProperty(key.substring(prefix.length()), inv.getProperty(key));
+				else if (!key.startsWith(SECTION_PREFIX) && !key.equals("TARGETS"))
+					props.setProperty(key, inv.getProperty(key));
+			}
+			props.setProperty("PATHMON_NAME", inv.getProperty(prefix + "PATHMON_NAME", name));
+			targets.add(new Target(name, props));
+		}
+		return targets;
+	}
+
+	// Deploys the targets and returns true if all were deployed
+	public boolean run(List<Target> targets, final Deployment deployment) throws Exception {
+		// One task per PATHMON keeps its targets serialized
+		Map<String, List<Target>> byPathmon = new LinkedHashMap<String, List<Target>>();
+		for (Target target : targets) {
+			List<Target> group = byPathmon.get(target.getPathmonName().toUpperCase());
+			if (group == null)
+				byPathmon.put(target.getPathmonName().toUpperCase(), group = new ArrayList<Target>());
+			group.add(target);
+		}
+
+		final int total = targets.size();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(PARALLELISM, byPathmon.size())));
+		try {
+			List<Future<?>> tasks = new ArrayList<Future<?>>();
+			for (final List<Target> group : byPathmon.values()) {
+				tasks.add(pool.submit(new Runnable() {
+					public void run() {
+						for (Target target : group)
+							deploy(target, deployment, total);
+					}
+				}));
+			}
+			for (Future<?> task : tasks)
+				task.get();
+		} finally {
+			pool.shutdown();
+		}
+
+		int deployed = 0;
+		int skipped = 0;
+		for (Target target : targets) {
+			deployed += target.status.equals("DEPLOYED") ? 1 : 0;
+			skipped += target.status.equals("SKIPPED") ? 1 : 0;
+		}
+		TSMPLog.info("Fleet: %d deployed, %d failed, %d skipped of %d targets%s\n", deployed, failed.get(),
+				skipped, total, stopped ? ", stopped on error rate" : "");
+		return deployed == total;
+	}
+
+	private void deploy(Target target, Deployment deployment, int total) {
+		if (stopped) {
+			target.status = "SKIPPED";
+			return;
+		}
+		LaunchTrace.Span span = LaunchTrace.start("fleet.target", target.NAME);
+		long start = System.currentTimeMillis();
+		try {
+			deployment.deploy(target);
+			target.status = "DEPLOYED";
+		} catch (Exception ex) {
+			span.fail();
+			target.status = "FAILED";
+			target.error = ex;
+			failed.incrementAndGet();
+		} finally {
+			span.end();
+		}
+		target.elapsedMillis = System.currentTimeMillis() - start;
+		int n = done.incrementAndGet();
+		TSMPLog.info("[%d/%d] %s ($%s) %s in %d ms%s\n", n, total, target.NAME, target.getPathmonName(),
+				target.status, target.elapsedMillis, target.error != null ? ": " + target.error.getMessage() : "");
+		if (n >= MIN_SAMPLES && failed.get() > MAX_ERROR_RATE * n && !stopped) {
+			stopped = true;
+			TSMPLog.warn("Fleet: %d of %d targets failed, not starting the rest\n", failed.get(), n);
+		}
+	}
+}
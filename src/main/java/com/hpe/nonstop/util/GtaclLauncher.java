@@ -0,0 +1,89 @@
+package com.hpe.nonstop.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Starts the gtacl processes the caplet talks to. The default launcher runs
+ * the command line as is, with stderr merged into stdout.
+ * <p>
+ * Another launcher, e.g. a simulator of gtacl / PATHCOM for running the caplet
+ * off a NonStop system, can be set with {@link #setLauncher(GtaclLauncher)} or
+ * by naming its class in the system property <code>tsmp.gtacl.launcher</code>.
+ * The class needs a public no argument constructor.
+ * </p>
+ */
+public abstract class GtaclLauncher {
+
+	private static GtaclLauncher launcher = null;
+
+	public abstract Process start(List<String> command) throws IOException;
+
+	// Starts the command with its standard input read from the file. This
+	// launcher writes the file to the process from a separate thread;
+	// launchers that can redirect the input do so instead
+	public Process start(List<String> command, final File input) throws IOException {
+		final Process proc = start(command);
+		Thread feeder = new Thread(new Runnable() {
+			public void run() {
+				try {
+					OutputStream os = proc.getOutputStream();
+					try {
+						Files.copy(input.toPath(), os);
+					} finally {
+						os.close();
+					}
+				} catch (IOException ex) {
+					// The process went away, its output tells why
+				}
+			}
+		}, "gtacl-input");
+		feeder.setDaemon(true);
+		feeder.start();
+		return proc;
+	}
+
+	public static synchronized void setLauncher(GtaclLauncher l) {
+		launcher = l;
+	}
+
+	public static Process launch(List<String> command) throws IOException {
+		return getLauncher().start(command);
+	}
+
+	public static Process launch(List<String> command, File input) throws IOException {
+		return getLauncher().start(command, input);
+	}
+
+	private static synchronized GtaclLauncher getLauncher() throws IOException {
+		if (launcher != null)
+			return launcher;
+		String name = System.getProperty("tsmp.gtacl.launcher");
+		if (name == null) {
+			launcher = new GtaclLauncher() {
+				public Process start(List<String> command) throws IOException {
+					ProcessBuilder pb = new ProcessBuilder(command);
+					pb.redirectErrorStream(true);
+					return pb.start();
+				}
+
+				public Process start(List<String> command, File input) throws IOException {
+					ProcessBuilder pb = new ProcessBuilder(command);
+					pb.redirectErrorStream(true);
+					pb.redirectInput(input);
+					return pb.start();
+				}
+			};
+		} else {
+			try {
+				launcher = (GtaclLauncher) Class.forName(name).getDeclaredConstructor().newInstance();
+			} catch (Exception ex) {
+				throw new IOException("Can not create gtacl launcher " + name, ex);
+			}
+		}
+		return launcher;
+	}
+}
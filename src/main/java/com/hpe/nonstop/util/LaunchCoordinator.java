@@ -0,0 +1,185 @@
+package com.hpe.nonstop.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Makes sure only one launcher at a time brings up a PATHMON when several
+ * capsules start against the same PATHMON_NAME.
+ * <p>
+ * The launchers share the directory named by the system property
+ * <code>tsmp.lock.dir</code>. A launcher that finds the PATHMON not yet
+ * configured takes the lock on <code>&lt;PATHMON&gt;.lock</code> in that
+ * directory, and holds it while it starts and configures the PATHMON. Once
+ * the PATHMON is up it writes the time to <code>&lt;PATHMON&gt;.ready</code>
+ * and releases the lock. The others block on the lock. A launcher that finds
+ * the ready time later than its own check of the PATHMON goes on to add its
+ * serverclasses right away; one that does not, after waiting (the holder
+ * failed), checks the PATHMON again and brings it up itself if needed.
+ * Launchers in one JVM wait for the one of them that holds the lock.
+ * </p>
+ */
+public class LaunchCoordinator {
+
+	// Bring-ups in flight in this JVM, by PATHMON name
+	private static final Map<String, CompletableFuture<Void>> LOCAL = new HashMap<String, CompletableFuture<Void>>();
+
+	// The hold of one launcher on the bring-up of a PATHMON
+	public static class Lease {
+		private final String pname;
+		private final CompletableFuture<Void> done;
+		private final File ready;
+		private final FileChannel channel;
+		private final FileLock lock;
+		// Another launcher brought the PATHMON up after the caller last
+		// checked it
+		private boolean readyByOther = false;
+		// The lock was held by another launcher when asked for
+		private boolean waited = false;
+
+		// since : when the caller last checked the PATHMON
+		Lease(String pname, CompletableFuture<Void> done, long since) throws IOException {
+			this.pname = pname;
+			this.done = done;
+			File dir = getDirectory();
+			dir.mkdirs();
+			ready = new File(dir, pname + ".ready");
+			channel = FileChannel.open(new File(dir, pname + ".lock").toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			LaunchTrace.Span span = LaunchTrace.start("pathmon.lock", pname);
+			try {
+				FileLock held = channel.tryLock();
+				if (held == null) {
+					// Wait with a shared lock so that all the waiters wake up
+					// together when the holder is done
+					waited = true;
+					TSMPLog.info("$%s is being started by another launcher, waiting\n", pname);
+					FileLock shared = channel.lock(0, Long.MAX_VALUE, true);
+					readyByOther = readyAt() >= since;
+					shared.release();
+					if (!readyByOther)
+						held = channel.lock();
+				} else if (readyAt() >= since) {
+					readyByOther = true;
+					held.release();
+					held = null;
+				}
+				lock = held;
+				if (lock != null) {
+					// Who holds the lock, for whoever looks at the file
+					channel.truncate(0);
+					channel.write(ByteBuffer.wrap((ManagementFactory.getRuntimeMXBean().getName() + "\n").getBytes()));
+				}
+			} catch (IOException ex) {
+				span.fail();
+				channel.close();
+				throw ex;
+			} finally {
+				span.end();
+			}
+		}
+
+		// Lets the next launcher in. failure is null if the PATHMON is up
+		public void release(Throwable failure) {
+			if (failure == null && !readyByOther) {
+				try {
+					Files.write(ready.toPath(), String.valueOf(System.currentTimeMillis()).getBytes());
+				} catch (IOException ex) {
+					TSMPLog.warn("Write of %s failed: %s\n", ready, ex);
+				}
+			}
+			try {
+				if (lock != null)
+					lock.release();
+				channel.close();
+			} catch (IOException ex) {
+				TSMPLog.warn("Release of the $%s lock failed: %s\n", pname, ex);
+			}
+			synchronized (LOCAL) {
+				if (LOCAL.get(pname) == done)
+					LOCAL.remove(pname);
+			}
+			if (failure == null)
+				done.complete(null);
+			else
+				done.completeExceptionally(failure);
+		}
+
+		// True if the lock was held by a launcher that did not finish the
+		// bring-up, the PATHMON has to be checked again
+		public boolean isStale() {
+			return waited;
+		}
+
+		// When the last bring-up finished, 0 if unknown
+		private long readyAt() {
+			try {
+				return Long.parseLong(new String(Files.readAllBytes(ready.toPath())).trim());
+			} catch (Exception ex) {
+				return 0;
+			}
+		}
+	}
+
+	public static File getDirectory() {
+		String dir = System.getProperty("tsmp.lock.dir");
+		return dir == null ? null : new File(dir);
+	}
+
+	public static boolean isEnabled() {
+		return getDirectory() != null;
+	}
+
+	// Completes with the lease once this launcher may bring up the PATHMON,
+	// or with null once another launcher has brought it up. since : when
+	// the caller found the PATHMON not configured
+	public static CompletableFuture<Lease> lead(final String pname, final long since) {
+		final CompletableFuture<Void> done;
+		synchronized (LOCAL) {
+			CompletableFuture<Void> leader = LOCAL.get(pname);
+			if (leader != null) {
+				return leader.handle(new BiFunction<Void, Throwable, CompletableFuture<Lease>>() {
+					public CompletableFuture<Lease> apply(Void v, Throwable failure) {
+						// Take over from a leader that failed
+						return failure == null ? CompletableFuture.completedFuture((Lease) null) : lead(pname, since);
+					}
+				}).thenCompose(new Function<CompletableFuture<Lease>, CompletableFuture<Lease>>() {
+					public CompletableFuture<Lease> apply(CompletableFuture<Lease> lease) {
+						return lease;
+					}
+				});
+			}
+			done = new CompletableFuture<Void>();
+			LOCAL.put(pname, done);
+		}
+		return CommandExecutor.submit(new Callable<Lease>() {
+			public Lease call() throws Exception {
+				try {
+					Lease lease = new Lease(pname, done, since);
+					if (!lease.readyByOther)
+						return lease;
+					lease.release(null);
+					return null;
+				} catch (Exception ex) {
+					synchronized (LOCAL) {
+						LOCAL.remove(pname);
+					}
+					done.completeExceptionally(ex);
+					throw ex;
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,90 @@
+package com.hpe.nonstop.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JFR event for a {@link LaunchTrace} span.
+ * <p>
+ * The caplet is built for Java 8, which has no jdk.jfr API, so the event type
+ * (<code>com.hpe.nonstop.LaunchPhase</code> with the fields phase, detail and
+ * failed) is defined at run time with <code>jdk.jfr.EventFactory</code> and
+ * used by reflection. On a JVM without it {@link #isAvailable()} is false.
+ * </p>
+ */
+class LaunchPhaseEvent {
+
+	private static final Object FACTORY;
+	private static Method newEvent;
+	private static Method begin;
+	private static Method end;
+	private static Method shouldCommit;
+	private static Method set;
+	private static Method commit;
+
+	static {
+		Object factory = null;
+		try {
+			Class<?> annotation = Class.forName("jdk.jfr.AnnotationElement");
+			Constructor<?> newAnnotation = annotation.getConstructor(Class.class, Object.class);
+			Constructor<?> newField = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class,
+					String.class, List.class);
+			Class<?> label = Class.forName("jdk.jfr.Label");
+
+			List<Object> annotations = Arrays.asList(
+					newAnnotation.newInstance(Class.forName("jdk.jfr.Name"), "com.hpe.nonstop.LaunchPhase"),
+					newAnnotation.newInstance(label, "TSMP Launch Phase"),
+					newAnnotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { "TSMP" }));
+			// In the order of the set index
+			List<Object> fields = Arrays.asList(
+					newField.newInstance(String.class, "phase", Arrays.asList(newAnnotation.newInstance(label, "Phase"))),
+					newField.newInstance(String.class, "detail",
+							Arrays.asList(newAnnotation.newInstance(label, "Detail"))),
+					newField.newInstance(boolean.class, "failed",
+							Arrays.asList(newAnnotation.newInstance(label, "Failed"))));
+
+			Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			newEvent = factoryClass.getMethod("newEvent");
+			begin = event.getMethod("begin");
+			end = event.getMethod("end");
+			shouldCommit = event.getMethod("shouldCommit");
+			set = event.getMethod("set", int.class, Object.class);
+			commit = event.getMethod("commit");
+			factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+		} catch (Throwable t) {
+			factory = null;
+		}
+		FACTORY = factory;
+	}
+
+	static boolean isAvailable() {
+		return FACTORY != null;
+	}
+
+	static Object start() {
+		try {
+			Object event = newEvent.invoke(FACTORY);
+			begin.invoke(event);
+			return event;
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	static void commit(Object event, String phase, String detail, boolean failed) {
+		try {
+			end.invoke(event);
+			if ((Boolean) shouldCommit.invoke(event)) {
+				set.invoke(event, 0, phase);
+				set.invoke(event, 1, detail);
+				set.invoke(event, 2, failed);
+				commit.invoke(event);
+			}
+		} catch (Exception ex) {
+			// A span without its event
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package com.hpe.nonstop.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resolved result of reading tsmp.config.prop: the Pathmon, the
+ * Serverclasses and the PATHCOM commands generated for them, saved so that a
+ * later launch with the same inputs can skip reading and parsing the
+ * configuration.
+ * <p>
+ * Plans are stored in the directory named by the system property
+ * <code>tsmp.plan.dir</code>; without it no plans are used. A plan file is
+ * named after the hash of everything the plan is built from (see
+ * {@link #key(File, File, List, String...)}), so any change in the inputs
+ * selects a different file. A plan that can not be read is ignored. Plans
+ * with a serverclass placed by <code>CPUS=auto</code> or named by
+ * <code>PROCESS_PREFIX</code> are not saved.
+ * </p>
+ */
+public class LaunchPlan {
+
+	private static final int MAGIC = 0x54504c33; // "TPL3"
+
+	public final TSMPBuilderFactory.Pathmon pmon;
+	public final List<TSMPBuilderFactory.Serverclass> svcs;
+	// The AppCDS archive the plan was built for, null without APPCDS
+	public File archive = null;
+
+	public LaunchPlan(TSMPBuilderFactory.Pathmon pmon, List<TSMPBuilderFactory.Serverclass> svcs) {
+		this.pmon = pmon;
+		this.svcs = svcs;
+	}
+
+	public static File getDirectory() {
+		String dir = System.getProperty("tsmp.plan.dir");
+		return dir == null ? null : new File(dir);
+	}
+
+	// Hash of the inputs of a plan: the capsule jar (path, size and
+	// modification time), the external config file (content), the launch
+	// command line and any other values the plan depends on
+	public static String key(File jar, File config, List<String> command, String... values) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		update(md, jar.getAbsolutePath());
+		update(md, String.valueOf(jar.length()));
+		update(md, String.valueOf(jar.lastModified()));
+		if (config != null)
+			md.update(Files.readAllBytes(config.toPath()));
+		for (String arg : command)
+			update(md, arg);
+		for (String value : values)
+			update(md, value == null ? "\0null" : value);
+		StringBuffer hex = new StringBuffer();
+		for (byte b : md.digest())
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	// Returns the plan saved under key, null if there is none
+	public static LaunchPlan load(File dir, String key) {
+		File file = new File(dir, key + ".plan");
+		if (!file.isFile())
+			return null;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				return read(buf);
+			} finally {
+				raf.close();
+			}
+		} catch (Exception ex) {
+			TSMPLog.warn("Ignoring launch plan %s: %s\n", file, ex);
+			return null;
+		}
+	}
+
+	// Saves the plan under key. The file is written under a temporary name
+	// and renamed, so readers never see a partial plan
+	public void save(File dir, String key) {
+		for (TSMPBuilderFactory.Serverclass svc : svcs) {
+			// CPUS=auto and PROCESS_PREFIX depend on the processes running
+			// at launch, not on the inputs
+			if (svc.AUTO_CPUS || svc.AUTO_NAMES)
+				return;
+		}
+		try {
+			dir.mkdirs();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			write(new DataOutputStream(bytes));
+			File tmp = File.createTempFile(key, ".tmp", dir);
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				bytes.writeTo(out);
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), new File(dir, key + ".plan").toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (Exception ex) {
+			TSMPLog.warn("Can not save launch plan in %s: %s\n", dir, ex);
+		}
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		writeString(out, pmon.PNAME);
+		int[] limits = { pmon.MAXASSIGNS, pmon.MAXDEFINES, pmon.MAXEXTERNALTCPS, pmon.MAXLINKMONS, pmon.MAXPARAMS,
+				pmon.MAXPATHCOMS, pmon.MAXSERVERCLASSES, pmon.MAXSERVERPROCESSES, pmon.MAXSPI, pmon.MAXSTARTUPS,
+				pmon.MAXTERMS, pmon.MAXTCPS, pmon.PRIMARY_CPU, pmon.BACKUP_CPU };
+		out.writeInt(limits.length);
+		for (int limit : limits)
+			out.writeInt(limit);
+		out.writeLong(pmon.START_TIMEOUT);
+		writeFile(out, archive);
+
+		out.writeInt(svcs.size());
+		for (TSMPBuilderFactory.Serverclass svc : svcs) {
+			writeString(out, svc.getName());
+			writeString(out, svc.PROCESSTYPE);
+			writeString(out, svc.ARGLIST);
+			out.writeInt(svc.AUTORESTART);
+			out.writeInt(svc.CPUS.length);
+			for (int[] pair : svc.CPUS) {
+				out.writeInt(pair[0]);
+				out.writeInt(pair[1]);
+			}
+			writeFile(out, svc.CWD);
+			out.writeInt(svc.ENV.length);
+			for (String[] env : svc.ENV) {
+				writeString(out, env[0]);
+				writeString(out, env[1]);
+			}
+			writeString(out, svc.HOMETERM);
+			out.writeInt(svc.LINKDEPTH);
+			out.writeInt(svc.MAXLINKS);
+			out.writeInt(svc.MAXSERVERS);
+			out.writeInt(svc.NUMSTATIC);
+			out.writeInt(svc.PROCESS.length);
+			for (String process : svc.PROCESS)
+				writeString(out, process);
+			writeFile(out, svc.PROGRAM);
+			writeFile(out, svc.STDOUT);
+			writeFile(out, svc.STDERR);
+			out.writeBoolean(svc.RECONCILE);
+			out.writeBoolean(svc.ROLLING);
+			out.writeInt(svc.MAX_UNAVAILABLE);
+			out.writeLong(svc.READY_TIMEOUT);
+			out.writeLong(svc.READY_INTERVAL);
+			Map<String, String> defines = svc.getDefines();
+			out.writeInt(defines.size());
+			for (String define : defines.values())
+				writeString(out, define);
+			List<String> config = svc.getConfiguration();
+			out.writeInt(config.size());
+			for (String command : config)
+				writeString(out, command);
+		}
+	}
+
+	private static LaunchPlan read(ByteBuffer in) throws IOException {
+		if (in.getInt() != MAGIC)
+			throw new IOException("not a launch plan");
+		TSMPBuilderFactory.Pathmon pmon = new TSMPBuilderFactory.Pathmon(readString(in));
+		int[] limits = new int[in.getInt()];
+		for (int i = 0; i < limits.length; i++)
+			limits[i] = in.getInt();
+		pmon.MAXASSIGNS = limits[0];
+		pmon.MAXDEFINES = limits[1];
+		pmon.MAXEXTERNALTCPS = limits[2];
+		pmon.MAXLINKMONS = limits[3];
+		pmon.MAXPARAMS = limits[4];
+		pmon.MAXPATHCOMS = limits[5];
+		pmon.MAXSERVERCLASSES = limits[6];
+		pmon.MAXSERVERPROCESSES = limits[7];
+		pmon.MAXSPI = limits[8];
+		pmon.MAXSTARTUPS = limits[9];
+		pmon.MAXTERMS = limits[10];
+		pmon.MAXTCPS = limits[11];
+		pmon.PRIMARY_CPU = limits[12];
+		pmon.BACKUP_CPU = limits[13];
+		pmon.START_TIMEOUT = in.getLong();
+		File archive = readFile(in);
+
+		int count = in.getInt();
+		List<TSMPBuilderFactory.Serverclass> svcs = new ArrayList<TSMPBuilderFactory.Serverclass>(count);
+		for (int s = 0; s < count; s++) {
+			TSMPBuilderFactory.Serverclass svc = new TSMPBuilderFactory.Serverclass(readString(in));
+			svc.PROCESSTYPE = readString(in);
+			svc.ARGLIST = readString(in);
+			svc.AUTORESTART = in.getInt();
+			svc.CPUS = new int[in.getInt()][2];
+			for (int[] pair : svc.CPUS) {
+				pair[0] = in.getInt();
+				pair[1] = in.getInt();
+			}
+			svc.CWD = readFile(in);
+			svc.ENV = new String[in.getInt()][2];
+			for (String[] env : svc.ENV) {
+				env[0] = readString(in);
+				env[1] = readString(in);
+			}
+			svc.HOMETERM = readString(in);
+			svc.LINKDEPTH = in.getInt();
+			svc.MAXLINKS = in.getInt();
+			svc.MAXSERVERS = in.getInt();
+			svc.NUMSTATIC = in.getInt();
+			svc.PROCESS = new String[in.getInt()];
+			for (int i = 0; i < svc.PROCESS.length; i++)
+				svc.PROCESS[i] = readString(in);
+			svc.PROGRAM = readFile(in);
+			svc.STDOUT = readFile(in);
+			svc.STDERR = readFile(in);
+			svc.RECONCILE = in.get() != 0;
+			svc.ROLLING = in.get() != 0;
+			svc.MAX_UNAVAILABLE = in.getInt();
+			svc.READY_TIMEOUT = in.getLong();
+			svc.READY_INTERVAL = in.getLong();
+			for (int i = in.getInt(); i > 0; i--)
+				svc.addDefine(readString(in));
+			List<String> config = new ArrayList<String>();
+			for (int i = in.getInt(); i > 0; i--)
+				config.add(readString(in));
+			svc.setConfiguration(Collections.unmodifiableList(config));
+			svcs.add(svc);
+		}
+		LaunchPlan plan = new LaunchPlan(pmon, svcs);
+		plan.archive = archive;
+		return plan;
+	}
+
+	private static void update(MessageDigest md, String s) throws Exception {
+		md.update(s.getBytes("UTF-8"));
+		md.update((byte) 0);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] b = s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(ByteBuffer in) throws IOException {
+		int len = in.getInt();
+		if (len == -1)
+			return null;
+		byte[] b = new byte[len];
+		in.get(b);
+		return new String(b, "UTF-8");
+	}
+
+	private static void writeFile(DataOutputStream out, File f) throws IOException {
+		writeString(out, f == null ? null : f.getPath());
+	}
+
+	private static File readFile(ByteBuffer in) throws IOException {
+		String path = readString(in);
+		return path == null ? null : new File(path);
+	}
+}
@@ -0,0 +1,109 @@
+package com.hpe.nonstop.util;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Timed spans around the phases of a TSMP launch, the gtacl commands it runs
+ * and each PATHCOM command it sends.
+ * <p>
+ * Tracing is off unless the system property <code>tsmp.trace</code> is true;
+ * when off {@link #start(String, String)} returns a shared span that does
+ * nothing. When on, every span is emitted as a JFR event
+ * (<code>com.hpe.nonstop.LaunchPhase</code>, if the JVM has JFR) and kept for
+ * {@link #writeSummary()}, which writes them as JSON to the file named by
+ * <code>tsmp.trace.file</code> (default tsmp-trace.json).
+ * </p>
+ */
+public class LaunchTrace {
+
+	public static final boolean ENABLED = Boolean.getBoolean("tsmp.trace");
+
+	private static final boolean JFR = ENABLED && LaunchPhaseEvent.isAvailable();
+	private static final ConcurrentLinkedQueue<Span> SPANS = new ConcurrentLinkedQueue<Span>();
+	private static final Span NOOP = new Span(null, null);
+
+	public static class Span {
+		public final String phase;
+		public final String detail;
+		final long startMillis = System.currentTimeMillis();
+		final long startNanos = System.nanoTime();
+		final Object event;
+		long durationNanos = -1;
+		boolean failed = false;
+
+		Span(String phase, String detail) {
+			this.phase = phase;
+			this.detail = detail;
+			this.event = phase != null && JFR ? LaunchPhaseEvent.start() : null;
+		}
+
+		// Marks the span as failed; end it as usual
+		public void fail() {
+			failed = true;
+		}
+
+		public void end() {
+			if (phase == null)
+				return;
+			durationNanos = System.nanoTime() - startNanos;
+			if (event != null)
+				LaunchPhaseEvent.commit(event, phase, detail, failed);
+			SPANS.add(this);
+		}
+	}
+
+	// phase : e.g. "pathmon.configure". detail : e.g. the command, may be null
+	public static Span start(String phase, String detail) {
+		if (!ENABLED)
+			return NOOP;
+		return new Span(phase, detail);
+	}
+
+	// Writes the spans ended so far and forgets them
+	public static void writeSummary() {
+		if (!ENABLED)
+			return;
+		List<Span> spans = new ArrayList<Span>();
+		Span span;
+		while ((span = SPANS.poll()) != null)
+			spans.add(span);
+		String file = System.getProperty("tsmp.trace.file", "tsmp-trace.json");
+		try {
+			Writer w = new FileWriter(file);
+			try {
+				w.write("[\n");
+				for (int i = 0; i < spans.size(); i++) {
+					Span s = spans.get(i);
+					w.write(String.format("{\"phase\":%s,\"detail\":%s,\"start\":%d,\"micros\":%d,\"failed\":%b}%s\n",
+							quote(s.phase), quote(s.detail), s.startMillis, s.durationNanos / 1000, s.failed,
+							i == spans.size() - 1 ? "" : ","));
+				}
+				w.write("]\n");
+			} finally {
+				w.close();
+			}
+		} catch (IOException ex) {
+			TSMPLog.warn("Can not write %s: %s\n", file, ex);
+		}
+	}
+
+	private static String quote(String s) {
+		if (s == null)
+			return "null";
+		StringBuffer buf = new StringBuffer("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\')
+				buf.append('\\').append(c);
+			else if (c < ' ')
+				buf.append(String.format("\\u%04x", (int) c));
+			else
+				buf.append(c);
+		}
+		return buf.append('"').toString();
+	}
+}
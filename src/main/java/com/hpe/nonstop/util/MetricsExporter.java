@@ -0,0 +1,257 @@
+package com.hpe.nonstop.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the runtime statistics of a PATHMON and its serverclasses in the
+ * Prometheus text format on <code>http://HOST:PORT/metrics</code>.
+ * <p>
+ * One thread polls STATUS SERVER name, DETAIL and STATS SERVER name for every
+ * serverclass every <code>INTERVAL</code> milliseconds over a single PATHCOM
+ * session and renders the metrics text once per poll. A scrape returns the
+ * text of the last poll, so the cost on the PATHMON does not depend on how
+ * many scrapers there are or how often they scrape. If STATS SERVER fails
+ * (some PATHCOM versions and the simulator do not have it) the request and
+ * link wait counters are left out.
+ * </p>
+ * <p>
+ * A restart is a static process that was RUNNING in one poll and in the next
+ * is not RUNNING, is gone, or runs with another process ID. The process ID
+ * catches a restart between two polls; with a PATHCOM that does not report it
+ * only the stops are seen. Restarts are counted per process and labelled
+ * with <code>configured_cpu</code>, the primary CPU the process is configured
+ * on, so a process that comes back on its backup CPU keeps its series. The
+ * serverclasses and their CPUs are read again at every poll, so edits applied
+ * by {@link ConfigWatcher} are followed. The endpoint answers GET only.
+ * </p>
+ */
+public class MetricsExporter {
+
+	public String HOST = "127.0.0.1";
+	public int PORT = 9464;
+	public long INTERVAL = 15000;
+
+	private static final Pattern REQUESTS = Pattern.compile("REQ(?:UEST)?S?\\s*(?:CNT|COUNT)?\\s+(\\d+)");
+	private static final Pattern LINK_WAITS = Pattern.compile("LINK\\s*WAITS?\\s+(\\d+)");
+
+	private final TSMPBuilderFactory.Pathmon pmon;
+	private final AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs;
+	// Configured CPU of each static process, by name with '$'
+	private final Map<String, Integer> cpus = new LinkedHashMap<String, Integer>();
+	// Each static process as the last poll saw it, absent if it was not
+	// reported
+	private final Map<String, ServerStatus.Process> seen = new LinkedHashMap<String, ServerStatus.Process>();
+	private final Map<String, Long> restarts = new LinkedHashMap<String, Long>();
+	private long polls = 0;
+	private long pollErrors = 0;
+	private boolean statsSupported = true;
+	private volatile String text = "";
+	private HttpServer server = null;
+
+	public MetricsExporter(TSMPBuilderFactory.Pathmon pmon, List<TSMPBuilderFactory.Serverclass> svcs) {
+		this(pmon, new AtomicReference<List<TSMPBuilderFactory.Serverclass>>(svcs));
+	}
+
+	// svcs : the serverclasses, read at every poll
+	public MetricsExporter(TSMPBuilderFactory.Pathmon pmon,
+			AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs) {
+		this.pmon = pmon;
+		this.svcs = svcs;
+	}
+
+	// Starts the HTTP endpoint
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(HOST, PORT), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!exchange.getRequestMethod().equals("GET")) {
+					exchange.getResponseHeaders().set("Allow", "GET");
+					exchange.sendResponseHeaders(405, -1);
+					exchange.close();
+					return;
+				}
+				byte[] body = text.getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream os = exchange.getResponseBody();
+				try {
+					os.write(body);
+				} finally {
+					os.close();
+				}
+			}
+		});
+		server.start();
+		TSMPLog.info("Metrics on http://%s:%d/metrics\n", HOST, server.getAddress().getPort());
+	}
+
+	public void stop() {
+		if (server != null)
+			server.stop(0);
+	}
+
+	// The port the endpoint listens on, PORT unless it was 0
+	public int getPort() {
+		return server == null ? PORT : server.getAddress().getPort();
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	// Polls until the thread is interrupted. A session that breaks is
+	// replaced at the next poll
+	public void run() throws Exception {
+		PathcomSession session = null;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				long start = System.nanoTime();
+				StringBuffer metrics = new StringBuffer();
+				boolean up;
+				try {
+					if (session == null || !session.isAlive()) {
+						if (session != null)
+							session.close();
+						session = PathcomSession.acquire(pmon.getName());
+					}
+					poll(session, metrics);
+					up = true;
+				} catch (Exception ex) {
+					TSMPLog.warn("Metrics poll of $%s failed: %s\n", pmon.getName(), ex.getMessage());
+					pollErrors++;
+					up = false;
+				}
+				polls++;
+				text = render(metrics, up, (System.nanoTime() - start) / 1e9);
+				Thread.sleep(INTERVAL);
+			}
+		} finally {
+			if (session != null)
+				PathcomSession.release(session);
+		}
+	}
+
+	// Appends the serverclass metrics of one poll
+	void poll(PathcomSession session, StringBuffer metrics) throws Exception {
+		StringBuffer processes = new StringBuffer();
+		StringBuffer busy = new StringBuffer();
+		StringBuffer free = new StringBuffer();
+		StringBuffer links = new StringBuffer();
+		StringBuffer queued = new StringBuffer();
+		StringBuffer requests = new StringBuffer();
+		StringBuffer linkWaits = new StringBuffer();
+		List<TSMPBuilderFactory.Serverclass> current = svcs.get();
+		cpus.clear();
+		for (TSMPBuilderFactory.Serverclass svc : current) {
+			int statics = Math.min(svc.PROCESS.length, svc.NUMSTATIC);
+			for (int i = 0; i < statics; i++) {
+				String name = (svc.PROCESS[i].startsWith("$") ? svc.PROCESS[i] : "$" + svc.PROCESS[i]).toUpperCase();
+				cpus.put(name, svc.CPUS[i % svc.CPUS.length][0]);
+			}
+		}
+		for (TSMPBuilderFactory.Serverclass svc : current) {
+			String label = "serverclass=\"" + svc.getName() + "\"";
+			PathcomSession.Result status = session
+					.executeOrThrow(Arrays.asList("STATUS SERVER " + svc.getName() + ", DETAIL")).get(0);
+			ServerStatus load = ServerStatus.parse(status.output);
+			countRestarts(svc, load);
+			int running = load.getRunning().size();
+			processes.append(String.format("tsmp_server_processes{%s,state=\"running\"} %d\n", label, running));
+			processes.append(String.format("tsmp_server_processes{%s,state=\"other\"} %d\n", label,
+					load.getProcesses().size() - running));
+			busy.append(String.format("tsmp_server_busy{%s} %d\n", label, load.getBusy()));
+			free.append(String.format("tsmp_server_free{%s} %d\n", label, running - load.getBusy()));
+			links.append(String.format("tsmp_server_links{%s} %d\n", label, load.getLinks()));
+			queued.append(String.format("tsmp_server_queued{%s} %d\n", label, load.getQueued()));
+
+			if (statsSupported) {
+				PathcomSession.Result stats = session.execute(Arrays.asList("STATS SERVER " + svc.getName())).get(0);
+				if (stats.error) {
+					statsSupported = false;
+				} else {
+					requests.append(String.format("tsmp_server_requests_total{%s} %d\n", label, sum(REQUESTS, stats.output)));
+					linkWaits.append(String.format("tsmp_server_link_waits_total{%s} %d\n", label,
+							sum(LINK_WAITS, stats.output)));
+				}
+			}
+		}
+		metric(metrics, "tsmp_server_processes", "gauge", "Processes of the serverclass by state", processes);
+		metric(metrics, "tsmp_server_busy", "gauge", "Running processes with open links", busy);
+		metric(metrics, "tsmp_server_free", "gauge", "Running processes without links", free);
+		metric(metrics, "tsmp_server_links", "gauge", "Open links to the serverclass", links);
+		metric(metrics, "tsmp_server_queued", "gauge", "Requests waiting for a link (WEIGHT)", queued);
+		if (requests.length() > 0) {
+			metric(metrics, "tsmp_server_requests_total", "counter", "Requests served (STATS SERVER)", requests);
+			metric(metrics, "tsmp_server_link_waits_total", "counter", "Link waits (STATS SERVER)", linkWaits);
+		}
+	}
+
+	// Counts the static processes of svc that stopped, went away or came
+	// back with another process ID since the last poll
+	private void countRestarts(TSMPBuilderFactory.Serverclass svc, ServerStatus status) {
+		int statics = Math.min(svc.PROCESS.length, svc.NUMSTATIC);
+		for (int i = 0; i < statics; i++) {
+			String name = (svc.PROCESS[i].startsWith("$") ? svc.PROCESS[i] : "$" + svc.PROCESS[i]).toUpperCase();
+			ServerStatus.Process now = status.get(name);
+			ServerStatus.Process before = now == null ? seen.remove(name) : seen.put(name, now);
+			if (before == null || !before.isRunning())
+				continue;
+			if (now == null || !now.isRunning() || before.hasPid() && now.hasPid() && !before.isSameProcess(now)) {
+				Long n = restarts.get(name);
+				restarts.put(name, n == null ? 1 : n + 1);
+			}
+		}
+	}
+
+	String render(StringBuffer serverMetrics, boolean up, double seconds) {
+		StringBuffer out = new StringBuffer();
+		String label = "pathmon=\"" + pmon.getName() + "\"";
+		metric(out, "tsmp_pathmon_up", "gauge", "1 if the last poll of the PATHMON succeeded",
+				new StringBuffer(String.format("tsmp_pathmon_up{%s} %d\n", label, up ? 1 : 0)));
+		if (up)
+			out.append(serverMetrics);
+		StringBuffer restartLines = new StringBuffer();
+		for (Map.Entry<String, Integer> p : cpus.entrySet()) {
+			Long n = restarts.get(p.getKey());
+			restartLines.append(String.format(
+					"tsmp_process_restarts_total{process=\"%s\",configured_cpu=\"%d\"} %d\n", p.getKey(),
+					p.getValue(), n == null ? 0 : n));
+		}
+		metric(out, "tsmp_process_restarts_total", "counter", "Static processes that stopped or restarted",
+				restartLines);
+		metric(out, "tsmp_polls_total", "counter", "Polls of the PATHMON",
+				new StringBuffer(String.format("tsmp_polls_total{%s} %d\n", label, polls)));
+		metric(out, "tsmp_poll_errors_total", "counter", "Polls of the PATHMON that failed",
+				new StringBuffer(String.format("tsmp_poll_errors_total{%s} %d\n", label, pollErrors)));
+		metric(out, "tsmp_poll_duration_seconds", "gauge", "Duration of the last poll",
+				new StringBuffer(String.format("tsmp_poll_duration_seconds{%s} %.6f\n", label, seconds)));
+		return out.toString();
+	}
+
+	private static void metric(StringBuffer out, String name, String type, String help, StringBuffer samples) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		out.append(samples);
+	}
+
+	private static long sum(Pattern p, String output) {
+		long total = 0;
+		Matcher m = p.matcher(output.toUpperCase());
+		while (m.find())
+			total += Long.parseLong(m.group(1));
+		return total;
+	}
+}
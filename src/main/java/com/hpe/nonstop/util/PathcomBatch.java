@@ -0,0 +1,149 @@
+package com.hpe.nonstop.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a list of PATHCOM commands in one PATHCOM process without waiting for
+ * the prompt between commands. The commands, preceded by OPEN and followed by
+ * EXIT, are written to a temporary OBEY file that becomes the input of
+ * <code>gtacl -p pathcom</code>; the output is split at the prompts and
+ * mapped back to the commands afterwards.
+ * <p>
+ * Unlike {@link PathcomSession}, PATHCOM does not stop at a failing command;
+ * all the commands run and the results tell which failed, so a command that
+ * depends on the others succeeding has to go in a batch of its own. Batch
+ * mode is experimental and selected with
+ * <code>-Dtsmp.pathcom.mode=batch</code>. It saves the wait for each prompt
+ * but spawns a PATHCOM per batch instead of reusing a pooled session, and
+ * was not measured faster than sessions. If the PATHCOM process can not be
+ * started the commands are run over a {@link PathcomSession} instead.
+ * </p>
+ */
+public class PathcomBatch {
+
+	public static boolean isEnabled() {
+		return System.getProperty("tsmp.pathcom.mode", "interactive").equalsIgnoreCase("batch");
+	}
+
+	// Executes the commands against PATHMON pname and returns one result per
+	// command. The commands must not contain OPEN or EXIT
+	public static List<PathcomSession.Result> execute(String pname, List<String> commands) throws Exception {
+		File obey = File.createTempFile("tsmp-", ".obey");
+		LaunchTrace.Span span = LaunchTrace.start("pathcom.batch", pname);
+		try {
+			List<String> all = new ArrayList<String>();
+			all.add("OPEN $" + pname);
+			all.addAll(commands);
+			all.add("EXIT");
+			Writer w = new FileWriter(obey);
+			try {
+				for (String command : all)
+					w.write(command + "\n");
+			} finally {
+				w.close();
+			}
+
+			Process proc;
+			try {
+				proc = GtaclLauncher.launch(TSMPBuilderFactory.TACLUtilities.gtacl("-p", "pathcom"), obey);
+			} catch (IOException ex) {
+				TSMPLog.warn("PATHCOM batch not started, running interactively: %s\n", ex);
+				PathcomSession session = PathcomSession.acquire(pname);
+				try {
+					return session.execute(commands);
+				} finally {
+					PathcomSession.release(session);
+				}
+			}
+
+			List<PathcomSession.Result> results;
+			try {
+				results = read(proc.getInputStream(), all);
+			} finally {
+				proc.waitFor(1, TimeUnit.SECONDS);
+				if (proc.isAlive())
+					proc.destroy();
+			}
+			if (results.get(0).error)
+				throw new RuntimeException(results.get(0).toString());
+			results = results.subList(1, all.size() - 1);
+			for (PathcomSession.Result r : results) {
+				if (r.error)
+					span.fail();
+			}
+			return new ArrayList<PathcomSession.Result>(results);
+		} catch (Exception ex) {
+			span.fail();
+			throw ex;
+		} finally {
+			span.end();
+			obey.delete();
+		}
+	}
+
+	// Same as execute but throws the output of the first failing command
+	public static List<PathcomSession.Result> executeOrThrow(String pname, List<String> commands)
+			throws Exception {
+		List<PathcomSession.Result> results = execute(pname, commands);
+		for (PathcomSession.Result r : results) {
+			if (r.error)
+				throw new RuntimeException(r.toString());
+		}
+		return results;
+	}
+
+	// The output before the first prompt is the banner, the output after the
+	// prompt before command i is the output of command i
+	static List<PathcomSession.Result> read(InputStream pis, List<String> commands) throws Exception {
+		PathcomOutputParser parser = new PathcomOutputParser(true, TSMPLog.stream(TSMPLog.DEBUG));
+		List<PathcomSession.Result> results = new ArrayList<PathcomSession.Result>();
+		boolean banner = true;
+		while (true) {
+			ByteBuffer b = parser.buffer();
+			int read = pis.read(b.array(), 0, b.capacity());
+			if (read == -1)
+				break;
+			b.limit(read);
+			while (b.hasRemaining()) {
+				if (!parser.feed(b))
+					break;
+				if (banner) {
+					parser.finish(null);
+					banner = false;
+				} else if (results.size() < commands.size()) {
+					int i = results.size();
+					results.add(unecho(parser.finish(commands.get(i)), commands.get(i)));
+				}
+			}
+		}
+		// The output of EXIT, if any, ends at end of file
+		if (!banner && results.size() < commands.size()) {
+			int i = results.size();
+			results.add(unecho(parser.finish(commands.get(i)), commands.get(i)));
+		}
+		if (results.size() < commands.size() - 1)
+			throw new RuntimeException("PATHCOM batch ended after " + results.size() + " of " + commands.size()
+					+ " commands\n" + parser.getTranscript());
+		while (results.size() < commands.size())
+			results.add(new PathcomSession.Result(commands.get(results.size()), "", 0));
+		return results;
+	}
+
+	// PATHCOM may echo a command read from a file after the prompt
+	private static PathcomSession.Result unecho(PathcomSession.Result r, String command) {
+		String output = r.output;
+		int eol = output.indexOf('\n');
+		String first = (eol < 0 ? output : output.substring(0, eol)).trim();
+		if (!first.equalsIgnoreCase(command.trim()))
+			return r;
+		return new PathcomSession.Result(command, eol < 0 ? "" : output.substring(eol + 1), r.errorCode);
+	}
+}
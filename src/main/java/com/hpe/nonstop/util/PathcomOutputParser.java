@@ -0,0 +1,177 @@
+package com.hpe.nonstop.util;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Incremental parser for the output of a PATHCOM conversation. Output is fed
+ * in whatever pieces it is read in and the parser keeps its state between
+ * pieces, so a prompt or an error message split over two reads is handled the
+ * same as one read in full.
+ * <p>
+ * PATHCOM prompts with a '=' at the start of a line. No line of its output
+ * starts with '=', attributes such as the DEFINEs of INFO SERVER are indented,
+ * so every '=' at the start of a line is a prompt, whether PATHCOM then waits
+ * for input or reads its next command from a file. {@link #feed(ByteBuffer)}
+ * stops right after the prompt, so the caller can finish the output of each
+ * command in turn and knows if anything followed the prompt.
+ * </p>
+ * <p>
+ * The output of each command is kept up to <code>MAX_OUTPUT</code> bytes.
+ * The full transcript is kept only if asked for.
+ * </p>
+ */
+public class PathcomOutputParser {
+
+	public static final int MAX_OUTPUT = 64 * 1024;
+
+	// PATHCOM marks errors as *ERROR*; a plain ERROR is also the heading of a
+	// column in STATUS output
+	private static final byte[] ERROR = "*ERROR*".getBytes();
+	private static final Charset CHARSET = Charset.defaultCharset();
+
+	// Read buffer, reused for every read
+	private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+	private byte[] output = new byte[1024];
+	private int length = 0;
+	private boolean truncated = false;
+
+	private boolean lineStart = true;
+	private boolean pendingPrompt = false;
+
+	// Error detection: bytes of "*ERROR*" matched so far, then the error number
+	// that follows it on the same line
+	private int errorMatch = 0;
+	private boolean errorSeen = false;
+	private boolean inErrorLine = false;
+	private int errorCode = 0;
+	private boolean codeDone = false;
+
+	private final StringBuilder transcript;
+	private final PrintStream echo;
+
+	// keepTranscript : retain everything fed, see getTranscript
+	// echo : stream to copy the output to, may be null
+	public PathcomOutputParser(boolean keepTranscript, PrintStream echo) {
+		this.transcript = keepTranscript ? new StringBuilder() : null;
+		this.echo = echo;
+	}
+
+	// The buffer to read into. It is cleared and handed out for a read; pass
+	// it to feed once filled and flipped
+	public ByteBuffer buffer() {
+		buffer.clear();
+		return buffer;
+	}
+
+	// Consumes the bytes between position and limit, up to the first
+	// prompt. Returns atPrompt(); the bytes after the prompt are left in the
+	// buffer
+	public boolean feed(ByteBuffer in) {
+		int start = in.position();
+		while (in.hasRemaining()) {
+			consume(in.get());
+			if (pendingPrompt)
+				break;
+		}
+		if (echo != null)
+			echo.write(in.array(), in.arrayOffset() + start, in.position() - start);
+		if (transcript != null)
+			transcript.append(new String(in.array(), in.arrayOffset() + start, in.position() - start, CHARSET));
+		return pendingPrompt;
+	}
+
+	public boolean feed(byte[] b, int off, int len) {
+		return feed(ByteBuffer.wrap(b, off, len));
+	}
+
+	public boolean atPrompt() {
+		return pendingPrompt;
+	}
+
+	// Ends the output of the current command at the prompt and returns it.
+	// The parser is then ready for the next command
+	public PathcomSession.Result finish(String command) {
+		String text = new String(output, 0, length, CHARSET) + (truncated ? "\n...(truncated)" : "");
+		int code = errorSeen ? (errorCode == 0 ? -1 : errorCode) : 0;
+		PathcomSession.Result result = new PathcomSession.Result(command, text, code);
+
+		length = 0;
+		truncated = false;
+		// The reply to the next command starts a line, a reply of just '='
+		// is a prompt
+		lineStart = true;
+		pendingPrompt = false;
+		errorMatch = 0;
+		errorSeen = false;
+		inErrorLine = false;
+		errorCode = 0;
+		codeDone = false;
+		if (output.length > 4 * 1024)
+			output = new byte[1024];
+		return result;
+	}
+
+	// The full output fed so far, or null if not kept
+	public String getTranscript() {
+		return transcript == null ? null : transcript.toString();
+	}
+
+	private void consume(byte c) {
+		if (pendingPrompt) {
+			// Fed on without finish, the '=' is output
+			pendingPrompt = false;
+			append((byte) '=');
+			scanError((byte) '=');
+		}
+		if (c == '=' && lineStart) {
+			pendingPrompt = true;
+			lineStart = false;
+			return;
+		}
+		append(c);
+		scanError(c);
+		lineStart = c == '\n' || c == '\r';
+	}
+
+	private void append(byte c) {
+		if (length == output.length) {
+			if (length >= MAX_OUTPUT) {
+				truncated = true;
+				return;
+			}
+			byte[] bigger = new byte[Math.min(MAX_OUTPUT, length * 2)];
+			System.arraycopy(output, 0, bigger, 0, length);
+			output = bigger;
+		}
+		output[length++] = c;
+	}
+
+	private void scanError(byte c) {
+		if (c == '\n' || c == '\r') {
+			inErrorLine = false;
+			errorMatch = 0;
+			return;
+		}
+		if (inErrorLine && !codeDone) {
+			if (c >= '0' && c <= '9') {
+				errorCode = errorCode * 10 + (c - '0');
+			} else if (errorCode != 0) {
+				codeDone = true;
+			}
+		}
+		if (c == ERROR[errorMatch]) {
+			if (++errorMatch == ERROR.length) {
+				errorMatch = 0;
+				if (!errorSeen) {
+					errorSeen = true;
+					inErrorLine = true;
+				}
+			}
+		} else {
+			errorMatch = c == ERROR[0] ? 1 : 0;
+		}
+	}
+}
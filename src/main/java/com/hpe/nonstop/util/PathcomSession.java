@@ -0,0 +1,349 @@
+package com.hpe.nonstop.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long lived PATHCOM conversation with a single PATHMON. The PATHMON is
+ * opened once when the session is created and any number of command batches
+ * can then be executed over the same <code>gtacl -p pathcom</code> process.
+ * <p>
+ * Sessions are pooled per PATHMON name. Use {@link #acquire(String)} and
+ * {@link #release(PathcomSession)}; sessions that stay idle in the pool for
+ * longer than <code>tsmp.pathcom.idle</code> milliseconds (default 30000) are
+ * closed.
+ * </p>
+ * <p>
+ * PATHCOM has <code>tsmp.command.timeout</code> milliseconds to answer each
+ * command, after that it is killed and the session is broken. PATHCOM waits
+ * at the prompt, so output that follows a prompt means the output can no
+ * longer be matched to the commands; that also breaks the session.
+ * </p>
+ */
+public class PathcomSession {
+
+	// Outcome of a single PATHCOM command
+	public static class Result {
+		public final String command;
+		public final String output;
+		public final boolean error;
+		// The number following *ERROR* in the output, -1 if there was none and
+		// 0 if the command succeeded
+		public final int errorCode;
+		// When the output ended at the prompt
+		public final long endedAt = System.currentTimeMillis();
+
+		Result(String command, String output, int errorCode) {
+			this.command = command;
+			this.output = output;
+			this.errorCode = errorCode;
+			this.error = errorCode != 0;
+		}
+
+		public String toString() {
+			return command + "\n" + output;
+		}
+	}
+
+	private static final int MAX_IDLE_PER_PATHMON = 2;
+	private static volatile long idleMillis = Long.getLong("tsmp.pathcom.idle", 30000L);
+
+	// Kills a PATHCOM that does not answer in time
+	private static final ScheduledExecutorService WATCHDOG = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "pathcom-watchdog");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private static final Map<String, Deque<PathcomSession>> POOL = new HashMap<String, Deque<PathcomSession>>();
+	private static Thread evictor = null;
+
+	private final String pname;
+	private final Process proc;
+	private final OutputStreamWriter osw;
+	private final InputStream pis;
+	private final PathcomOutputParser parser = new PathcomOutputParser(
+			Boolean.getBoolean("tsmp.pathcom.transcript"), TSMPLog.stream(TSMPLog.DEBUG));
+	private long lastUsed = System.currentTimeMillis();
+	private volatile boolean broken = false;
+	private volatile boolean timedOut = false;
+
+	// pname : pathmon name without '$'
+	PathcomSession(String pname) throws Exception {
+		this(pname, 0, 0, 0, null);
+	}
+
+	// Retries the OPEN for up to timeout milliseconds, backing off from
+	// backoff to backoffMax milliseconds, for a PATHMON that is starting.
+	// Stops retrying once abandon is done, may be null
+	PathcomSession(String pname, long timeout, long backoff, long backoffMax, Future<?> abandon) throws Exception {
+		this.pname = pname;
+		long deadline = System.currentTimeMillis() + timeout;
+		LaunchTrace.Span span = LaunchTrace.start("pathcom.spawn", pname);
+		proc = GtaclLauncher.launch(TSMPBuilderFactory.TACLUtilities.gtacl("-p", "pathcom"));
+		osw = new OutputStreamWriter(proc.getOutputStream());
+		pis = proc.getInputStream();
+		try {
+			readToPrompt(null);
+			span.end();
+			Result open = send("OPEN $" + pname);
+			while (open.error && System.currentTimeMillis() + backoff <= deadline
+					&& (abandon == null || !abandon.isDone())) {
+				Thread.sleep(backoff);
+				backoff = Math.min(backoff * 2, backoffMax);
+				open = send("OPEN $" + pname);
+			}
+			if (open.error)
+				throw new RuntimeException(open.toString());
+		} catch (Exception ex) {
+			close();
+			throw ex;
+		}
+	}
+
+	public String getPathmonName() {
+		return pname;
+	}
+
+	// Executes the commands in order and returns one result per command. The
+	// batch stops at the first command that reports an error; the error is
+	// included as the last result
+	public List<Result> execute(List<String> commands) throws Exception {
+		List<Result> results = new ArrayList<Result>();
+		try {
+			for (String command : commands) {
+				Result r = send(command);
+				results.add(r);
+				if (r.error)
+					break;
+			}
+		} catch (Exception ex) {
+			broken = true;
+			throw ex;
+		}
+		lastUsed = System.currentTimeMillis();
+		return results;
+	}
+
+	// Same as execute but throws the failing command's output
+	public List<Result> executeOrThrow(List<String> commands) throws Exception {
+		List<Result> results = execute(commands);
+		if (!results.isEmpty() && results.get(results.size() - 1).error)
+			throw new RuntimeException(results.get(results.size() - 1).toString());
+		return results;
+	}
+
+	public boolean isAlive() {
+		return !broken && proc.isAlive();
+	}
+
+	public void close() {
+		try {
+			if (proc.isAlive()) {
+				osw.write("EXIT\n");
+				osw.flush();
+			}
+		} catch (IOException ex) {
+			// The process is going away anyway
+		}
+		try {
+			proc.waitFor(1, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		if (proc.isAlive())
+			proc.destroy();
+	}
+
+	// The full conversation, kept only with -Dtsmp.pathcom.transcript=true
+	public String getTranscript() {
+		return parser.getTranscript();
+	}
+
+	private Result send(String command) throws Exception {
+		TSMPLog.info("%s\n", command);
+		LaunchTrace.Span span = LaunchTrace.start("pathcom.command", command);
+		try {
+			if (pis.available() > 0)
+				throw afterPrompt(pis.available());
+			osw.write(command + "\n");
+			osw.flush();
+			Result result = readToPrompt(command);
+			if (result.error)
+				span.fail();
+			return result;
+		} catch (Exception ex) {
+			span.fail();
+			throw ex;
+		} finally {
+			span.end();
+		}
+	}
+
+	// Reads until PATHCOM prompts for the next command, for at most
+	// CommandExecutor.DEFAULT_TIMEOUT milliseconds
+	private Result readToPrompt(String command) throws Exception {
+		ScheduledFuture<?> deadline = WATCHDOG.schedule(new Runnable() {
+			public void run() {
+				timedOut = true;
+				broken = true;
+				proc.destroyForcibly();
+			}
+		}, CommandExecutor.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+		try {
+			while (true) {
+				ByteBuffer b = parser.buffer();
+				int read = -1;
+				try {
+					read = pis.read(b.array(), 0, b.capacity());
+				} catch (IOException ex) {
+					if (!timedOut)
+						throw ex;
+				}
+				if (read == -1) {
+					broken = true;
+					throw new RuntimeException("PATHCOM for $" + pname
+							+ (timedOut ? " timed out after " + CommandExecutor.DEFAULT_TIMEOUT + " ms" : " terminated")
+							+ "\n" + parser.finish(command));
+				}
+				b.limit(read);
+				if (parser.feed(b)) {
+					if (b.hasRemaining())
+						throw afterPrompt(b.remaining());
+					return parser.finish(command);
+				}
+			}
+		} finally {
+			deadline.cancel(false);
+		}
+	}
+
+	private RuntimeException afterPrompt(int bytes) {
+		broken = true;
+		return new RuntimeException("PATHCOM for $" + pname + " wrote " + bytes + " bytes after the prompt");
+	}
+
+	// Pool
+
+	public static PathcomSession acquire(String pname) throws Exception {
+		synchronized (POOL) {
+			Deque<PathcomSession> idle = POOL.get(pname);
+			while (idle != null && !idle.isEmpty()) {
+				PathcomSession session = idle.pollFirst();
+				if (session.isAlive())
+					return session;
+				session.close();
+			}
+		}
+		return new PathcomSession(pname);
+	}
+
+	public static void release(PathcomSession session) {
+		if (!session.isAlive()) {
+			session.close();
+			return;
+		}
+		PathcomSession extra = null;
+		synchronized (POOL) {
+			Deque<PathcomSession> idle = POOL.get(session.pname);
+			if (idle == null) {
+				idle = new ArrayDeque<PathcomSession>();
+				POOL.put(session.pname, idle);
+			}
+			session.lastUsed = System.currentTimeMillis();
+			idle.addFirst(session);
+			if (idle.size() > MAX_IDLE_PER_PATHMON)
+				extra = idle.pollLast();
+			startEvictor();
+		}
+		if (extra != null)
+			extra.close();
+	}
+
+	// Milliseconds a session may stay idle in the pool, tsmp.pathcom.idle by
+	// default
+	public static void setIdleMillis(long millis) {
+		synchronized (POOL) {
+			idleMillis = millis;
+			// The evictor sleeps for the old time, start it over
+			if (evictor != null) {
+				evictor.interrupt();
+				evictor = null;
+				if (!POOL.isEmpty())
+					startEvictor();
+			}
+		}
+	}
+
+	// Closes every pooled session
+	public static void closeAll() {
+		List<PathcomSession> sessions = new ArrayList<PathcomSession>();
+		synchronized (POOL) {
+			for (Deque<PathcomSession> idle : POOL.values())
+				sessions.addAll(idle);
+			POOL.clear();
+		}
+		for (PathcomSession session : sessions)
+			session.close();
+	}
+
+	// Closes the sessions idle for idleMillis or more
+	static void evictIdle() {
+		List<PathcomSession> expired = new ArrayList<PathcomSession>();
+		long now = System.currentTimeMillis();
+		synchronized (POOL) {
+			for (Iterator<Deque<PathcomSession>> it = POOL.values().iterator(); it.hasNext();) {
+				Deque<PathcomSession> idle = it.next();
+				for (Iterator<PathcomSession> sit = idle.iterator(); sit.hasNext();) {
+					PathcomSession session = sit.next();
+					if (now - session.lastUsed >= idleMillis || !session.isAlive()) {
+						sit.remove();
+						expired.add(session);
+					}
+				}
+				if (idle.isEmpty())
+					it.remove();
+			}
+		}
+		for (PathcomSession session : expired)
+			session.close();
+	}
+
+	// Caller holds the POOL lock
+	private static void startEvictor() {
+		if (evictor != null)
+			return;
+		evictor = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(Math.max(idleMillis / 2, 100));
+					} catch (InterruptedException ex) {
+						return;
+					}
+					evictIdle();
+				}
+			}
+		}, "pathcom-evictor");
+		evictor.setDaemon(true);
+		evictor.start();
+	}
+}
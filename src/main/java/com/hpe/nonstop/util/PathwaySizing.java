@@ -0,0 +1,97 @@
+package com.hpe.nonstop.util;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Sizes the SET PATHWAY limits of a PATHMON from the serverclasses it will
+ * run instead of the fixed defaults of {@link TSMPBuilderFactory.Pathmon}.
+ * <p>
+ * The minimum of each workload limit is what the serverclasses declare:
+ * </p>
+ * <ul>
+ * <li>MAXSERVERCLASSES : the number of serverclasses
+ * <li>MAXSERVERPROCESSES : the sum of their MAXSERVERS
+ * <li>MAXDEFINES : the sum of their DEFINEs
+ * <li>MAXLINKMONS : PATHWAY_LINKMONS, by default the number of distinct CPUs
+ * in their CPUS
+ * </ul>
+ * Each limit is set to its minimum plus PATHWAY_HEADROOM percent (default
+ * 25), below the defaults of {@link TSMPBuilderFactory.Pathmon} as well as
+ * above them, unless it is set with a <code>PATHWAY.&lt;limit&gt;</code> key
+ * (e.g. PATHWAY.MAXSERVERPROCESSES=64). A key is used as is, so a PATHMON
+ * shared by the serverclasses of several capsules is given room for all of
+ * them that way; a key below the minimum is rejected.
+ */
+public class PathwaySizing {
+
+	private static final String PREFIX = "PATHWAY.";
+
+	public int HEADROOM = 25;
+	// Link monitors expected to open the serverclasses, -1 for one per CPU
+	public int LINKMONS = -1;
+
+	public static PathwaySizing fromProperties(Properties props) {
+		PathwaySizing sizing = new PathwaySizing();
+		sizing.HEADROOM = Integer.parseInt(props.getProperty("PATHWAY_HEADROOM", "25"));
+		sizing.LINKMONS = Integer.parseInt(props.getProperty("PATHWAY_LINKMONS", "-1"));
+		return sizing;
+	}
+
+	// The least each workload limit can be for the serverclasses
+	public Map<String, Integer> getMinimums(List<TSMPBuilderFactory.Serverclass> svcs) {
+		int processes = 0;
+		int defines = 0;
+		Set<Integer> cpus = new HashSet<Integer>();
+		for (TSMPBuilderFactory.Serverclass svc : svcs) {
+			processes += svc.MAXSERVERS;
+			defines += svc.getDefines().size();
+			for (int[] pair : svc.CPUS) {
+				cpus.add(pair[0]);
+				if (pair[1] != -1)
+					cpus.add(pair[1]);
+			}
+		}
+		Map<String, Integer> minimums = new LinkedHashMap<String, Integer>();
+		minimums.put("MAXSERVERCLASSES", svcs.size());
+		minimums.put("MAXSERVERPROCESSES", processes);
+		minimums.put("MAXDEFINES", defines);
+		minimums.put("MAXLINKMONS", LINKMONS >= 0 ? LINKMONS : cpus.size());
+		return minimums;
+	}
+
+	// Sets the limits of pmon from the PATHWAY. keys in props and sizes the
+	// workload limits that are not set to what the serverclasses need
+	public void apply(TSMPBuilderFactory.Pathmon pmon, List<TSMPBuilderFactory.Serverclass> svcs,
+			Properties props) {
+		Map<String, Integer> minimums = getMinimums(svcs);
+		Set<String> set = new HashSet<String>();
+		for (String key : props.stringPropertyNames()) {
+			if (!key.toUpperCase().startsWith(PREFIX))
+				continue;
+			String name = key.substring(PREFIX.length()).toUpperCase();
+			int value = Integer.parseInt(props.getProperty(key).trim());
+			if (value < 0)
+				throw new IllegalArgumentException(key + "=" + value + " is negative");
+			Integer min = minimums.get(name);
+			if (min != null && value < min)
+				throw new IllegalArgumentException(
+						key + "=" + value + " is below the " + min + " the serverclasses need");
+			pmon.setLimit(name, value);
+			set.add(name);
+		}
+
+		for (Map.Entry<String, Integer> min : minimums.entrySet()) {
+			if (!set.contains(min.getKey()))
+				pmon.setLimit(min.getKey(), withHeadroom(min.getValue()));
+		}
+	}
+
+	int withHeadroom(int min) {
+		return Math.max(1, (int) Math.ceil(min * (100 + HEADROOM) / 100.0));
+	}
+}
@@ -0,0 +1,256 @@
+package com.hpe.nonstop.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Generates the Guardian names of the server processes of a launch from a
+ * prefix, so that hundreds of static servers do not need a PROCESS_NAMES list.
+ * <p>
+ * A name is the prefix followed by a base 36 counter (0-9, A-Z) that fills
+ * the name up to <code>MAX_LENGTH</code> characters, e.g. the prefix CR gives
+ * $CR000, $CR001 and so on. A serverclass that already exists in the PATHMON
+ * keeps the names of that prefix it has, as INFO SERVER reports them, and
+ * only the rest are generated. Names of running processes are skipped; they
+ * are all read with one <code>STATUS *</code>, see
+ * {@link ProcessStatusSnapshot#getTable()}, the first time a name is
+ * allocated.
+ * </p>
+ * <p>
+ * Every name allocated or reserved is taken for the rest of the launch, so
+ * the serverclasses of a launch never share a name. Process names are unique
+ * on the node, and all the PATHMONs a JVM reaches are on the node its gtacl
+ * runs on, so the names are also taken for every other launch in the JVM,
+ * e.g. the other targets of a fleet, which would otherwise generate the same
+ * names from the same <code>STATUS *</code>.
+ * </p>
+ * <p>
+ * Capsules in other JVMs are kept off the names through the directory of
+ * {@link LaunchCoordinator}, <code>tsmp.lock.dir</code>, if set: a name is
+ * only taken while this JVM holds the lock on
+ * <code>names/&lt;NAME&gt;.lock</code> in it, and generating skips names
+ * locked by another JVM. A name is held until the JVM exits or
+ * {@link #release(Collection)} gives it back, e.g. once a reload replaced the
+ * process that had it.
+ * </p>
+ */
+public class ProcessNameAllocator {
+
+	// Guardian process names are at most 5 characters after the '$'
+	public static final int MAX_LENGTH = 5;
+
+	private static final Pattern NAME = Pattern.compile("[A-Z][A-Z0-9]{0," + (MAX_LENGTH - 1) + "}");
+	private static final String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+	// Names taken by any launch in this JVM, with the lock that keeps other
+	// JVMs off them, null without a tsmp.lock.dir
+	private static final Map<String, FileLock> NODE = new HashMap<String, FileLock>();
+
+	// The PATHMON asked for the names a serverclass has, null for none
+	private final String pathmon;
+	// Names taken by this launch
+	private final Set<String> taken = new HashSet<String>();
+	private Set<String> running = null;
+
+	public ProcessNameAllocator() {
+		this(null);
+	}
+
+	// pathmon : name without '$' of the PATHMON whose serverclasses keep
+	// their names, may be null
+	public ProcessNameAllocator(String pathmon) {
+		this.pathmon = pathmon;
+	}
+
+	// Reserves names given in the configuration. Throws if a name is not a
+	// valid process name or was already taken in this launch
+	public synchronized void reserve(List<String> names) {
+		for (String name : names) {
+			String upper = strip(name);
+			if (!NAME.matcher(upper).matches())
+				throw new IllegalArgumentException("Invalid process name " + name);
+			if (!taken.add(upper))
+				throw new IllegalArgumentException("Process name " + name + " is used twice");
+			// Another JVM may hold it for the same serverclass, e.g. a
+			// capsule launched against the same PATHMON
+			synchronized (NODE) {
+				hold(upper);
+			}
+		}
+	}
+
+	// Returns count names, with '$', for the serverclass. The names of the
+	// prefix the serverclass already has are kept, the others start with
+	// prefix and are neither running nor taken. All of them are taken
+	public synchronized List<String> allocate(String serverclass, String prefix, int count) throws Exception {
+		return allocate(prefix, count, getAssigned(serverclass));
+	}
+
+	public List<String> allocate(String prefix, int count) throws Exception {
+		return allocate(null, prefix, count);
+	}
+
+	// assigned : names, with or without '$', the serverclass has now
+	synchronized List<String> allocate(String prefix, int count, List<String> assigned) throws Exception {
+		String upper = strip(prefix);
+		if (upper.length() >= MAX_LENGTH || !NAME.matcher(upper).matches())
+			throw new IllegalArgumentException("Invalid process name prefix " + prefix);
+		if (running == null)
+			running = ProcessStatusSnapshot.parseNames(ProcessStatusSnapshot.getTable());
+
+		List<String> names = new ArrayList<String>();
+		for (String name : assigned) {
+			String kept = strip(name);
+			// Only names this prefix could have generated, in case the prefix
+			// changed
+			if (names.size() < count && kept.length() == MAX_LENGTH && kept.startsWith(upper)
+					&& NAME.matcher(kept).matches() && !taken.contains(kept) && !names.contains(kept))
+				names.add(kept);
+		}
+		synchronized (NODE) {
+			List<String> held = new ArrayList<String>();
+			int width = MAX_LENGTH - upper.length();
+			long limit = (long) Math.pow(DIGITS.length(), width);
+			for (long n = 0; n < limit && names.size() < count; n++) {
+				String name = upper + format(n, width);
+				if (running.contains(name) || taken.contains(name) || NODE.containsKey(name) || names.contains(name))
+					continue;
+				if (!hold(name))
+					continue;
+				held.add(name);
+				names.add(name);
+			}
+			if (names.size() < count) {
+				release(held);
+				throw new IllegalArgumentException(
+						"Only " + names.size() + " of " + count + " process names left for prefix " + prefix);
+			}
+			for (String name : names)
+				hold(name);
+		}
+		List<String> result = new ArrayList<String>();
+		for (String name : names) {
+			taken.add(name);
+			result.add("$" + name);
+		}
+		return result;
+	}
+
+	// The static processes of the serverclass in the PATHMON, none if either
+	// does not exist yet
+	private List<String> getAssigned(String serverclass) {
+		List<String> names = new ArrayList<String>();
+		if (serverclass == null || pathmon == null)
+			return names;
+		try {
+			if (running == null)
+				running = ProcessStatusSnapshot.parseNames(ProcessStatusSnapshot.getTable());
+			if (!running.contains(strip(pathmon)))
+				return names;
+			PathcomSession session = PathcomSession.acquire(strip(pathmon));
+			try {
+				PathcomSession.Result info = session.execute(Arrays.asList("INFO SERVER " + serverclass)).get(0);
+				if (info.error)
+					return names;
+				for (String key : TSMPBuilderFactory.Serverclass.parseInfo(info.output).keySet()) {
+					// Without the node name PATHMON may add
+					if (key.startsWith("PROCESS "))
+						names.add(key.substring("PROCESS ".length()).replaceAll("^\\\\[A-Za-z0-9]+\\.", ""));
+				}
+			} finally {
+				PathcomSession.release(session);
+			}
+		} catch (Exception ex) {
+			TSMPLog.warn("Process names of %s in $%s not read: %s\n", serverclass, pathmon, ex.getMessage());
+		}
+		return names;
+	}
+
+	// Gives the names, with or without '$', back to launches in this and
+	// other JVMs
+	public static void release(Collection<String> names) {
+		synchronized (NODE) {
+			for (String name : names) {
+				String upper = strip(name);
+				if (!NODE.containsKey(upper))
+					continue;
+				FileLock lock = NODE.remove(upper);
+				try {
+					if (lock != null)
+						lock.channel().close();
+				} catch (IOException ex) {
+					TSMPLog.warn("Release of the process name $%s failed: %s\n", upper, ex);
+				}
+			}
+		}
+	}
+
+	public static void releaseAll() {
+		synchronized (NODE) {
+			release(new ArrayList<String>(NODE.keySet()));
+		}
+	}
+
+	// Takes the name for this JVM, false if another JVM holds it. Called
+	// with NODE locked
+	private static boolean hold(String name) {
+		if (NODE.containsKey(name))
+			return true;
+		File dir = LaunchCoordinator.getDirectory();
+		FileLock lock = null;
+		if (dir != null) {
+			FileChannel channel = null;
+			try {
+				File names = new File(dir, "names");
+				names.mkdirs();
+				channel = FileChannel.open(new File(names, name + ".lock").toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE);
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException ex) {
+				// Locked through another channel of this JVM
+				lock = null;
+			} catch (IOException ex) {
+				TSMPLog.warn("Lock of the process name $%s failed: %s\n", name, ex);
+				NODE.put(name, null);
+				return true;
+			}
+			if (lock == null) {
+				try {
+					channel.close();
+				} catch (IOException ex) {
+					// Not locked, nothing to release
+				}
+				return false;
+			}
+		}
+		NODE.put(name, lock);
+		return true;
+	}
+
+	static String format(long n, int width) {
+		char[] digits = new char[width];
+		for (int i = width - 1; i >= 0; i--) {
+			digits[i] = DIGITS.charAt((int) (n % DIGITS.length()));
+			n /= DIGITS.length();
+		}
+		return new String(digits);
+	}
+
+	private static String strip(String name) {
+		String trimmed = name.trim().toUpperCase();
+		return trimmed.startsWith("$") ? trimmed.substring(1) : trimmed;
+	}
+}
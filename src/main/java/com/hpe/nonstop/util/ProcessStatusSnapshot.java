@@ -0,0 +1,171 @@
+package com.hpe.nonstop.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The state of a named process as reported by a single TACL
+ * <code>STATUS $name</code> query.
+ * <p>
+ * Snapshots are cached per process name for <code>tsmp.status.ttl</code>
+ * milliseconds (default 5000), and callers asking while a query is in flight
+ * share that query, so a burst of callers costs one gtacl call. Call
+ * {@link #invalidate(String)} after changing the state of the process.
+ * </p>
+ * <p>
+ * The output of a <code>STATUS *</code> of all processes is cached the same
+ * way, see {@link #getTable()}.
+ * </p>
+ */
+public class ProcessStatusSnapshot {
+
+	public static final long TTL = Long.getLong("tsmp.status.ttl", 5000L);
+
+	private static final Pattern CPU_PIN = Pattern.compile("(\\d+)\\s*,\\s*(\\d+)");
+	private static final Map<String, CompletableFuture<ProcessStatusSnapshot>> CACHE = new HashMap<String, CompletableFuture<ProcessStatusSnapshot>>();
+	private static CompletableFuture<String> table = null;
+	private static long tableTakenAt = 0;
+
+	// name : process name without '$', upper case
+	public final String NAME;
+	public final int PRIMARY_CPU;
+	public final int PRIMARY_PIN;
+	public final int BACKUP_CPU;
+	public final int BACKUP_PIN;
+	public final long TAKEN_AT;
+
+	ProcessStatusSnapshot(String name, int[] primary, int[] backup, long takenAt) {
+		NAME = name;
+		PRIMARY_CPU = primary == null ? -1 : primary[0];
+		PRIMARY_PIN = primary == null ? -1 : primary[1];
+		BACKUP_CPU = backup == null ? -1 : backup[0];
+		BACKUP_PIN = backup == null ? -1 : backup[1];
+		TAKEN_AT = takenAt;
+	}
+
+	public boolean isRunning() {
+		return PRIMARY_CPU != -1;
+	}
+
+	public boolean isPair() {
+		return BACKUP_CPU != -1;
+	}
+
+	public String toString() {
+		return "$" + NAME + (isRunning() ? " primary " + PRIMARY_CPU + "," + PRIMARY_PIN : " not running")
+				+ (isPair() ? " backup " + BACKUP_CPU + "," + BACKUP_PIN : "");
+	}
+
+	// Parses the output of STATUS $name. The primary is on the line naming the
+	// process, the backup on the next line naming it, or on the line right
+	// below that does not start with a process name
+	public static ProcessStatusSnapshot parse(String name, String output, long takenAt) {
+		String upper = name.toUpperCase();
+		Pattern named = Pattern.compile("(^|\\s)\\$" + Pattern.quote(upper) + "(\\s|$)");
+		int[] primary = null;
+		int[] backup = null;
+		boolean previousMatched = false;
+		for (String line : output.split("\r?\n")) {
+			boolean isNamed = named.matcher(line.toUpperCase()).find();
+			boolean continuation = previousMatched && !isNamed && line.length() > 0
+					&& Character.isWhitespace(line.charAt(0));
+			previousMatched = false;
+			if (!isNamed && !continuation)
+				continue;
+			Matcher m = CPU_PIN.matcher(line);
+			if (!m.find())
+				continue;
+			int[] cpuPin = { Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) };
+			if (primary == null) {
+				primary = cpuPin;
+				previousMatched = true;
+			} else {
+				backup = cpuPin;
+				break;
+			}
+		}
+		return new ProcessStatusSnapshot(upper, primary, backup, takenAt);
+	}
+
+	// name : process name without '$'
+	public static ProcessStatusSnapshot get(String name) throws Exception {
+		return getAsync(name).get();
+	}
+
+	public static CompletableFuture<ProcessStatusSnapshot> getAsync(final String name) {
+		final String key = name.toUpperCase();
+		synchronized (CACHE) {
+			CompletableFuture<ProcessStatusSnapshot> cached = CACHE.get(key);
+			if (cached != null && (!cached.isDone() || isFresh(cached)))
+				return cached;
+
+			final long takenAt = System.currentTimeMillis();
+			CompletableFuture<ProcessStatusSnapshot> probe = TSMPBuilderFactory.TACLUtilities
+					.executeCommandAsync(TSMPBuilderFactory.TACLUtilities.gtacl("-c", "status $" + name))
+					.thenApply(new Function<CommandExecutor.CommandResult, ProcessStatusSnapshot>() {
+						public ProcessStatusSnapshot apply(CommandExecutor.CommandResult r) {
+							if (r.timedOut)
+								throw new RuntimeException(r.toString());
+							return parse(key, r.output, takenAt);
+						}
+					});
+			CACHE.put(key, probe);
+			return probe;
+		}
+	}
+
+	public static void invalidate(String name) {
+		synchronized (CACHE) {
+			CACHE.remove(name.toUpperCase());
+			table = null;
+		}
+	}
+
+	// The output of STATUS *, one gtacl call for every process on the system
+	public static String getTable() throws Exception {
+		CompletableFuture<String> probe;
+		synchronized (CACHE) {
+			if (table == null || table.isDone()
+					&& (table.isCompletedExceptionally() || System.currentTimeMillis() - tableTakenAt >= TTL)) {
+				tableTakenAt = System.currentTimeMillis();
+				table = TSMPBuilderFactory.TACLUtilities
+						.executeCommandAsync(TSMPBuilderFactory.TACLUtilities.gtacl("-c", "status *"))
+						.thenApply(new Function<CommandExecutor.CommandResult, String>() {
+							public String apply(CommandExecutor.CommandResult r) {
+								if (r.timedOut)
+									throw new RuntimeException(r.toString());
+								return r.output;
+							}
+						});
+			}
+			probe = table;
+		}
+		return probe.get();
+	}
+
+	// The names in STATUS * output, upper case without '$'. The line of a
+	// primary starts with its name, the line of a backup with blanks
+	public static Set<String> parseNames(String output) {
+		Set<String> names = new LinkedHashSet<String>();
+		for (String line : output.split("\\r?\\n")) {
+			if (!line.startsWith("$"))
+				continue;
+			String name = line.split("[\\s:]+")[0].substring(1).toUpperCase();
+			if (name.length() > 0)
+				names.add(name);
+		}
+		return names;
+	}
+
+	private static boolean isFresh(CompletableFuture<ProcessStatusSnapshot> done) {
+		if (done.isCompletedExceptionally())
+			return false;
+		return System.currentTimeMillis() - done.join().TAKEN_AT < TTL;
+	}
+}
@@ -0,0 +1,205 @@
+package com.hpe.nonstop.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Waits after START SERVER until every static process of the serverclasses is
+ * RUNNING, polling STATUS SERVER name, DETAIL over one PATHCOM session every
+ * <code>INTERVAL</code> milliseconds for at most <code>TIMEOUT</code>
+ * milliseconds.
+ * <p>
+ * A process is ready once <code>STABLE_POLLS</code> polls in a row show it
+ * RUNNING, so that a server that starts and fails right away is not taken as
+ * up. A process that is RUNNING and later is not, a server being restarted by
+ * AUTORESTART, is counted as a restart and starts over. Static processes
+ * without a name in PROCESS_NAMES are named by PATHMON; the first processes
+ * of the serverclass that are not named in the configuration stand for them.
+ * The report gives the time from START SERVER to the first of the RUNNING
+ * polls of each process and, per CPU, the number of processes and the
+ * slowest of them. If the gate fails it also gives the last state of every
+ * process that is not ready.
+ * </p>
+ */
+public class ReadinessGate {
+
+	public long TIMEOUT = 60000;
+	public long INTERVAL = 250;
+	public int STABLE_POLLS = 3;
+
+	// State of one static process
+	public static class ProcessState {
+		public final String SERVERCLASS;
+		public final String NAME;
+		public int CPU;
+		public String state = "NOT REPORTED";
+		public long readyMillis = -1;
+		public int restarts = 0;
+		// Polls in a row that showed it RUNNING, and the time from START
+		// SERVER to the first of them
+		private int runningPolls = 0;
+		private long runningMillis = -1;
+
+		ProcessState(String serverclass, String name, int cpu) {
+			SERVERCLASS = serverclass;
+			NAME = name;
+			CPU = cpu;
+		}
+
+		public boolean isReady() {
+			return readyMillis != -1;
+		}
+	}
+
+	private final TSMPBuilderFactory.Pathmon pmon;
+	private final List<TSMPBuilderFactory.Serverclass> svcs;
+	private final Map<String, ProcessState> processes = new LinkedHashMap<String, ProcessState>();
+	// Static processes named by PATHMON not yet seen, by serverclass
+	private final Map<String, Integer> unnamed = new LinkedHashMap<String, Integer>();
+
+	public ReadinessGate(TSMPBuilderFactory.Pathmon pmon, List<TSMPBuilderFactory.Serverclass> svcs) {
+		this.pmon = pmon;
+		this.svcs = svcs;
+		for (TSMPBuilderFactory.Serverclass svc : svcs) {
+			int statics = Math.min(svc.PROCESS.length, svc.NUMSTATIC);
+			for (int i = 0; i < statics; i++) {
+				String name = svc.PROCESS[i].startsWith("$") ? svc.PROCESS[i] : "$" + svc.PROCESS[i];
+				// Process i is started on CPU pair i % CPUS.length
+				processes.put(name.toUpperCase(),
+						new ProcessState(svc.getName(), name.toUpperCase(), svc.CPUS[i % svc.CPUS.length][0]));
+			}
+			unnamed.put(svc.getName(), svc.NUMSTATIC - statics);
+		}
+	}
+
+	// Polls until every static process is ready or TIMEOUT has passed since
+	// the first START SERVER, see Serverclass.STARTED_AT. Returns true if all
+	// are ready
+	public boolean await() throws Exception {
+		LaunchTrace.Span span = LaunchTrace.start("serverclass.ready", null);
+		long startedAt = Long.MAX_VALUE;
+		for (TSMPBuilderFactory.Serverclass svc : svcs)
+			startedAt = Math.min(startedAt, svc.STARTED_AT);
+		PathcomSession session = PathcomSession.acquire(pmon.getName());
+		try {
+			while (true) {
+				long now = System.currentTimeMillis();
+				for (TSMPBuilderFactory.Serverclass svc : svcs) {
+					PathcomSession.Result status = session
+							.execute(Arrays.asList("STATUS SERVER " + svc.getName() + ", DETAIL")).get(0);
+					if (!status.error)
+						update(svc, ServerStatus.parse(status.output), now - svc.STARTED_AT);
+				}
+				if (isReady()) {
+					locate();
+					return true;
+				}
+				if (now - startedAt + INTERVAL > TIMEOUT) {
+					span.fail();
+					return false;
+				}
+				Thread.sleep(INTERVAL);
+			}
+		} finally {
+			PathcomSession.release(session);
+			span.end();
+		}
+	}
+
+	public boolean isReady() {
+		for (ProcessState p : processes.values()) {
+			if (!p.isReady())
+				return false;
+		}
+		for (int missing : unnamed.values()) {
+			if (missing > 0)
+				return false;
+		}
+		return true;
+	}
+
+	public List<ProcessState> getProcesses() {
+		return new ArrayList<ProcessState>(processes.values());
+	}
+
+	public String getReport() {
+		StringBuffer report = new StringBuffer("Time to ready\n");
+		Map<Integer, long[]> byCpu = new TreeMap<Integer, long[]>();
+		for (ProcessState p : processes.values()) {
+			report.append(String.format("  %-10s %-9s cpu %2d  %s%s\n", p.SERVERCLASS, p.NAME, p.CPU,
+					p.isReady() ? p.readyMillis + " ms" : "NOT READY, " + p.state,
+					p.restarts > 0 ? ", restarted " + p.restarts + " times" : ""));
+			long[] cpu = byCpu.get(p.CPU);
+			if (cpu == null)
+				byCpu.put(p.CPU, cpu = new long[] { 0, 0, 0 });
+			cpu[0]++;
+			if (p.isReady())
+				cpu[1] = Math.max(cpu[1], p.readyMillis);
+			else
+				cpu[2]++;
+		}
+		for (Map.Entry<String, Integer> missing : unnamed.entrySet()) {
+			if (missing.getValue() > 0)
+				report.append(String.format("  %-10s %d static processes without a name NOT REPORTED\n",
+						missing.getKey(), missing.getValue()));
+		}
+		for (Map.Entry<Integer, long[]> cpu : byCpu.entrySet())
+			report.append(String.format("  cpu %2d: %d processes, slowest %d ms%s\n", cpu.getKey(), cpu.getValue()[0],
+					cpu.getValue()[1], cpu.getValue()[2] > 0 ? ", " + cpu.getValue()[2] + " not ready" : ""));
+		return report.toString();
+	}
+
+	// elapsed : time since START SERVER for the serverclass
+	void update(TSMPBuilderFactory.Serverclass svc, ServerStatus status, long elapsed) {
+		for (ServerStatus.Process s : status.getProcesses().values()) {
+			ProcessState p = processes.get(s.NAME);
+			if (p == null) {
+				// A process named by PATHMON takes the place of the next
+				// static process without a name
+				int missing = unnamed.get(svc.getName());
+				if (missing == 0)
+					continue;
+				int i = svc.NUMSTATIC - missing;
+				p = new ProcessState(svc.getName(), s.NAME, svc.CPUS[i % svc.CPUS.length][0]);
+				processes.put(s.NAME, p);
+				unnamed.put(svc.getName(), missing - 1);
+			}
+			p.state = s.STATE;
+			if (s.hasPid())
+				p.CPU = s.CPU;
+			boolean running = s.isRunning();
+			if (running) {
+				if (p.runningPolls++ == 0)
+					p.runningMillis = elapsed;
+				if (p.runningPolls >= STABLE_POLLS && !p.isReady())
+					p.readyMillis = p.runningMillis;
+			} else {
+				if (p.runningPolls > 0)
+					p.restarts++;
+				p.runningPolls = 0;
+				p.readyMillis = -1;
+			}
+		}
+	}
+
+	// Replaces the expected CPU of each process with the one it runs on
+	private void locate() {
+		Map<ProcessState, CompletableFuture<ProcessStatusSnapshot>> probes = new LinkedHashMap<ProcessState, CompletableFuture<ProcessStatusSnapshot>>();
+		for (ProcessState p : processes.values())
+			probes.put(p, ProcessStatusSnapshot.getAsync(p.NAME.substring(1)));
+		for (Map.Entry<ProcessState, CompletableFuture<ProcessStatusSnapshot>> probe : probes.entrySet()) {
+			try {
+				ProcessStatusSnapshot status = probe.getValue().get();
+				if (status.isRunning())
+					probe.getKey().CPU = status.PRIMARY_CPU;
+			} catch (Exception ex) {
+				// Keep the expected CPU
+			}
+		}
+	}
+}
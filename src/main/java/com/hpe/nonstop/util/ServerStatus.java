@@ -0,0 +1,132 @@
+package com.hpe.nonstop.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The processes of a serverclass as <code>STATUS SERVER name, DETAIL</code>
+ * reports them, shared by the rolling restart of a serverclass,
+ * {@link Autoscaler}, {@link ReadinessGate} and {@link MetricsExporter}.
+ * <p>
+ * Every process row starts with the name and the state. The ERROR and INFO
+ * columns may be empty, so the other columns are told apart by their form: a
+ * <code>cpu,pin</code> pair is the process ID and of the plain numbers the
+ * last two are #LINKS and WEIGHT; anything else is skipped. Columns a PATHCOM
+ * version does not print are left at -1 (process ID) or 0.
+ * </p>
+ */
+public class ServerStatus {
+
+	private static final Pattern PID = Pattern.compile("\\d+,\\d+");
+	private static final Pattern NUMBER = Pattern.compile("\\d+");
+
+	// One process row
+	public static class Process {
+		// With '$', upper case
+		public final String NAME;
+		public final String STATE;
+		public int LINKS = 0;
+		// Requests waiting for a link
+		public int WEIGHT = 0;
+		public int CPU = -1;
+		public int PIN = -1;
+
+		Process(String name, String state) {
+			NAME = name;
+			STATE = state;
+		}
+
+		public boolean isRunning() {
+			return STATE.equals("RUNNING");
+		}
+
+		// Another process of the same name once CPU or PIN changed, e.g.
+		// after a restart
+		public boolean isSameProcess(Process other) {
+			return CPU == other.CPU && PIN == other.PIN;
+		}
+
+		public boolean hasPid() {
+			return PIN != -1;
+		}
+	}
+
+	private final Map<String, Process> processes = new LinkedHashMap<String, Process>();
+
+	public static ServerStatus parse(String output) {
+		ServerStatus status = new ServerStatus();
+		for (String line : output.split("\\r?\\n")) {
+			String[] cols = line.trim().split("\\s+");
+			if (cols.length < 2 || !cols[0].startsWith("$"))
+				continue;
+			Process p = new Process(cols[0].toUpperCase(), cols[1].toUpperCase());
+			List<Integer> numbers = new ArrayList<Integer>();
+			for (int i = 2; i < cols.length; i++) {
+				if (PID.matcher(cols[i]).matches()) {
+					String[] pid = cols[i].split(",");
+					p.CPU = Integer.parseInt(pid[0]);
+					p.PIN = Integer.parseInt(pid[1]);
+				} else if (NUMBER.matcher(cols[i]).matches()) {
+					numbers.add(Integer.valueOf(cols[i]));
+				}
+			}
+			if (numbers.size() >= 2) {
+				p.LINKS = numbers.get(numbers.size() - 2);
+				p.WEIGHT = numbers.get(numbers.size() - 1);
+			}
+			status.processes.put(p.NAME, p);
+		}
+		return status;
+	}
+
+	// By name with '$', in the order of the output
+	public Map<String, Process> getProcesses() {
+		return processes;
+	}
+
+	public Process get(String name) {
+		return processes.get((name.startsWith("$") ? name : "$" + name).toUpperCase());
+	}
+
+	public Set<String> getRunning() {
+		Set<String> running = new LinkedHashSet<String>();
+		for (Process p : processes.values()) {
+			if (p.isRunning())
+				running.add(p.NAME);
+		}
+		return running;
+	}
+
+	// Running processes with links
+	public int getBusy() {
+		int busy = 0;
+		for (Process p : processes.values()) {
+			if (p.isRunning() && p.LINKS > 0)
+				busy++;
+		}
+		return busy;
+	}
+
+	public int getLinks() {
+		int links = 0;
+		for (Process p : processes.values()) {
+			if (p.isRunning())
+				links += p.LINKS;
+		}
+		return links;
+	}
+
+	public int getQueued() {
+		int queued = 0;
+		for (Process p : processes.values()) {
+			if (p.isRunning())
+				queued += p.WEIGHT;
+		}
+		return queued;
+	}
+}
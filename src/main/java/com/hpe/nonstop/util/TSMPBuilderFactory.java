@@ -1,12 +1,24 @@
 package com.hpe.nonstop.util;
 import java.io.File;
-import java.io.InputStream;
-import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.HashMap; // Ravi: Support for DEFINEs.
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * <b>(C) Copyright [2018] Hewlett Packard Enterprise Development LP.</b>
@@ -14,6 +26,143 @@ import java.util.concurrent.TimeUnit;
  *
  */
 public class TSMPBuilderFactory {
+	static final String SECTION_PREFIX = "SERVERCLASS.";
+
+	// Returns the Pathmon described by the tsmp.config.prop properties
+	public static Pathmon newPathmon(Properties props) {
+		Pathmon pmon = new Pathmon(props.getOrDefault("PATHMON_NAME", "NONE").toString());
+		pmon.BACKUP_CPU = Integer.parseInt(props.getOrDefault("BACKUP_CPU", "1").toString());
+		pmon.PRIMARY_CPU = Integer.parseInt(props.getOrDefault("PRIMARY_CPU", "0").toString());
+		pmon.START_TIMEOUT = Long.parseLong(props.getOrDefault("PATHMON_START_TIMEOUT", "30000").toString());
+		return pmon;
+	}
+
+	// Returns the Serverclasses described by the tsmp.config.prop properties.
+	// Either a single serverclass configured with the plain keys, or one
+	// serverclass per SERVERCLASS.<name>. section. Keys missing from a
+	// section are taken from the plain keys
+	public static List<Serverclass> newServerclasses(Properties props, File program, String arglist, File cwd) {
+		Set<String> names = new TreeSet<String>();
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith(SECTION_PREFIX) && key.indexOf('.', SECTION_PREFIX.length()) > 0)
+				names.add(key.substring(SECTION_PREFIX.length(), key.indexOf('.', SECTION_PREFIX.length())));
+		}
+		List<String> prefixes = new ArrayList<String>();
+		if (names.isEmpty()) {
+			names.add(props.getOrDefault("SERVERCLASS_NAME", "NONE").toString());
+			prefixes.add("");
+		} else {
+			for (String name : names)
+				prefixes.add(SECTION_PREFIX + name + ".");
+		}
+		// Serverclasses with CPUS=auto share one placement so they spread
+		// over the CPUS together, and all share one name allocator. Names
+		// listed in PROCESS_NAMES are taken before any are generated
+		CpuPlacement placement = newCpuPlacement(props);
+		ProcessNameAllocator allocator = new ProcessNameAllocator(props.getProperty("PATHMON_NAME"));
+		Serverclass[] svcs = new Serverclass[names.size()];
+		for (int pass = 0; pass < 2; pass++) {
+			int i = 0;
+			for (String name : names) {
+				String prefix = prefixes.get(i);
+				boolean generated = getProperty(props, prefix, "PROCESS_PREFIX", "").trim().length() > 0;
+				if (generated == (pass == 1))
+					svcs[i] = newServerclass(name, props, prefix, program, arglist, cwd, placement, allocator);
+				i++;
+			}
+		}
+		return new ArrayList<Serverclass>(Arrays.asList(svcs));
+	}
+
+	// Placement over AVAILABLE_CPUS (default 0,1) using the loads in
+	// CPU_LOAD_FILE, or a STATUS of all processes if there is no such file
+	public static CpuPlacement newCpuPlacement(Properties props) {
+		List<Integer> cpus = CpuPlacement.parseCpuList(props.getProperty("AVAILABLE_CPUS", "0,1"));
+		String file = props.getProperty("CPU_LOAD_FILE");
+		return new CpuPlacement(cpus,
+				file != null ? new CpuPlacement.FileLoadSource(file) : new CpuPlacement.StatusLoadSource());
+	}
+
+	public static Serverclass newServerclass(String name, Properties props, String prefix, File program,
+			String arglist, File cwd) {
+		return newServerclass(name, props, prefix, program, arglist, cwd, newCpuPlacement(props));
+	}
+
+	public static Serverclass newServerclass(String name, Properties props, String prefix, File program,
+			String arglist, File cwd, CpuPlacement placement) {
+		return newServerclass(name, props, prefix, program, arglist, cwd, placement, new ProcessNameAllocator());
+	}
+
+	// PROCESS_PREFIX, if set, generates the process names with allocator
+	// instead of taking them from PROCESS_NAMES
+	public static Serverclass newServerclass(String name, Properties props, String prefix, File program,
+			String arglist, File cwd, CpuPlacement placement, ProcessNameAllocator allocator) {
+		Serverclass svc = new Serverclass(name);
+		svc.PROGRAM = program;
+		svc.ARGLIST = arglist;
+
+		svc.CWD = cwd;
+		svc.AUTORESTART = Integer.parseInt(getProperty(props, prefix, "AUTORESTART", "10"));
+		svc.NUMSTATIC = Integer.parseInt(getProperty(props, prefix, "NUMSTATIC", "1"));
+		svc.MAXSERVERS = Integer.parseInt(getProperty(props, prefix, "MAXSERVERS", "1"));
+
+		String pprefix = getProperty(props, prefix, "PROCESS_PREFIX", "").trim();
+		if (pprefix.length() > 0) {
+			try {
+				svc.PROCESS = allocator.allocate(name, pprefix, Math.max(svc.NUMSTATIC, svc.MAXSERVERS))
+						.toArray(svc.PROCESS);
+				svc.AUTO_NAMES = true;
+			} catch (IllegalArgumentException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				throw new RuntimeException("Process names for " + name + " failed", ex);
+			}
+		} else {
+			String pnames = getProperty(props, prefix, "PROCESS_NAMES", null);
+			ArrayList<String> pnamelist = new ArrayList<String>();
+			for (String s : (pnames == null ? "a,b,c" : pnames).split(",")) {
+				pnamelist.add("$" + s.trim());
+			}
+			// Serverclasses without PROCESS_NAMES all have the default names,
+			// as they always had
+			if (pnames != null)
+				allocator.reserve(pnamelist);
+			svc.PROCESS = pnamelist.toArray(svc.PROCESS);
+			if (svc.PROCESS.length < svc.NUMSTATIC)
+				TSMPLog.warn("%s: %d PROCESS_NAMES for NUMSTATIC %d\n", name, svc.PROCESS.length, svc.NUMSTATIC);
+		}
+
+		String cpus = getProperty(props, prefix, "CPUS", "{{0,1}}");
+		if (cpus.trim().equalsIgnoreCase("auto")) {
+			try {
+				svc.CPUS = placement.place(svc.NUMSTATIC);
+			} catch (Exception ex) {
+				throw new RuntimeException("CPU placement for " + name + " failed", ex);
+			}
+			svc.AUTO_CPUS = true;
+		} else {
+			svc.CPUS = Serverclass.parseCpus(cpus);
+		}
+		svc.STDOUT = new File(getProperty(props, prefix, "STDOUT", "/dev/null"));
+		svc.STDERR = new File(getProperty(props, prefix, "STDERR", "/dev/null"));
+
+		svc.RECONCILE = Boolean.parseBoolean(getProperty(props, prefix, "RECONCILE", "false"));
+		svc.ROLLING = getProperty(props, prefix, "UPGRADE", "").equalsIgnoreCase("ROLLING");
+		svc.MAX_UNAVAILABLE = Integer.parseInt(getProperty(props, prefix, "MAX_UNAVAILABLE", "1"));
+		svc.READY_TIMEOUT = Long.parseLong(getProperty(props, prefix, "READY_TIMEOUT", "60000"));
+		svc.READY_INTERVAL = Long.parseLong(getProperty(props, prefix, "READY_INTERVAL", "500"));
+
+		svc.addDefines(getProperty(props, prefix, "DEFINE", null));
+		svc.addDefines(System.getProperty("tsmp.server.define"));
+		return svc;
+	}
+
+	// Looks up prefix + key, falling back to the plain key
+	static String getProperty(Properties props, String prefix, String key, String def) {
+		String value = props.getProperty(prefix + key);
+		return value != null ? value : props.getProperty(key, def);
+	}
+
 	public static class Pathmon {
 		public int MAXASSIGNS = 10;
 		public int MAXDEFINES = 8191;
@@ -31,120 +180,268 @@ public class TSMPBuilderFactory {
 		public int PRIMARY_CPU = 0;
 		public int BACKUP_CPU = 1;
 
+		// Readiness probe after starting the PATHMON, see awaitReady
+		public long START_TIMEOUT = 30000;
+		public long READY_BACKOFF = 20;
+		public long READY_BACKOFF_MAX = 100;
+
 		String PNAME = "PM";
 
+		// Held from startPathmonAsync to the end of configurePathmon when
+		// launches are coordinated, see LaunchCoordinator
+		private LaunchCoordinator.Lease lease = null;
+
 		// name : pathmon name without '$'
 		public Pathmon(String name) {
 			PNAME = name;
 		}
 
+		public String getName() {
+			return PNAME;
+		}
+
 		// Indicates if the pathmon is started and configured
 		public Boolean isPathmonConfigured() throws Exception {
-			return TACLUtilities.isProcessPair(PNAME);
+			return ProcessStatusSnapshot.get(PNAME).isPair();
 		}
 
 		// Indicates if the pathmon is started by not configured
 		public Boolean isPathmonStarted() throws Exception {
-			return TACLUtilities.isProcessRunning(PNAME);
+			return ProcessStatusSnapshot.get(PNAME).isRunning();
 		}
 
 		public void startAndConfigurePathmon() throws Exception {
-			if (isPathmonConfigured())
-				return;
+			configurePathmon(startPathmonAsync());
+		}
 
-			if (isPathmonStarted() == false) {
-				startPathmon();
-			}
-			configurePathmon();
+		// Starts the PATHMON unless it is running. The future completes once
+		// the PATHMON is ready, see awaitReady, with true if the PATHWAY still
+		// has to be configured. Build the serverclasses while waiting
+		public CompletableFuture<Boolean> startPathmonAsync() {
+			final LaunchTrace.Span span = LaunchTrace.start("pathmon.status", PNAME);
+			return ProcessStatusSnapshot.getAsync(PNAME)
+					.thenCompose(new Function<ProcessStatusSnapshot, CompletableFuture<Boolean>>() {
+						public CompletableFuture<Boolean> apply(ProcessStatusSnapshot status) {
+							span.end();
+							if (status.isPair())
+								return CompletableFuture.completedFuture(false);
+							if (LaunchCoordinator.isEnabled())
+								return startPathmonCoordinated(status);
+							if (status.isRunning())
+								return CompletableFuture.completedFuture(true);
+							return startPathmon();
+						}
+					});
 		}
 
-		public static String executePathcomCommands(List<String> commands) throws Exception {
-			ProcessBuilder pb = new ProcessBuilder("gtacl", "-p", "pathcom");
-			pb.redirectErrorStream(true);
+		// Takes the bring-up lease. The PATHMON is checked again only if the
+		// lease was held by a launcher that failed, see LaunchCoordinator
+		private CompletableFuture<Boolean> startPathmonCoordinated(final ProcessStatusSnapshot checked) {
+			return LaunchCoordinator.lead(PNAME, checked.TAKEN_AT)
+					.thenCompose(new Function<LaunchCoordinator.Lease, CompletableFuture<Boolean>>() {
+						public CompletableFuture<Boolean> apply(LaunchCoordinator.Lease held) {
+							if (held == null)
+								return CompletableFuture.completedFuture(false);
+							synchronized (Pathmon.this) {
+								lease = held;
+							}
+							CompletableFuture<ProcessStatusSnapshot> status = CompletableFuture.completedFuture(checked);
+							if (held.isStale()) {
+								ProcessStatusSnapshot.invalidate(PNAME);
+								status = ProcessStatusSnapshot.getAsync(PNAME);
+							}
+							return status.thenCompose(
+									new Function<ProcessStatusSnapshot, CompletableFuture<Boolean>>() {
+										public CompletableFuture<Boolean> apply(ProcessStatusSnapshot status) {
+											if (status.isPair())
+												return CompletableFuture.completedFuture(false);
+											if (status.isRunning())
+												return CompletableFuture.completedFuture(true);
+											return startPathmon();
+										}
+									});
+						}
+					}).whenComplete(new BiConsumer<Boolean, Throwable>() {
+						public void accept(Boolean configure, Throwable failure) {
+							if (failure != null || !configure)
+								releaseLease(failure);
+						}
+					});
+		}
 
-			Process proc = pb.start();
+		// Gives up the bring-up started by startPathmonAsync, for a launch that
+		// fails before configurePathmon. The lease, held now or taken once
+		// started completes, is released so the next launcher takes over
+		public void releaseLease(CompletableFuture<Boolean> started, final Throwable failure) {
+			started.whenComplete(new BiConsumer<Boolean, Throwable>() {
+				public void accept(Boolean configure, Throwable ex) {
+					releaseLease(failure);
+				}
+			});
+		}
 
-			OutputStreamWriter osw = new OutputStreamWriter(proc.getOutputStream());
+		private void releaseLease(Throwable failure) {
+			LaunchCoordinator.Lease held;
+			synchronized (this) {
+				held = lease;
+				lease = null;
+			}
+			if (held != null)
+				held.release(failure);
+		}
 
-			InputStream pis = proc.getInputStream();
-			byte[] b = new byte[1024];
-			StringBuilder fullOutput = new StringBuilder();
-			StringBuilder partOutput = new StringBuilder(); // Error message
-															// may span
-															// multiple
-															// lines
-			int cmdcount = 0;
+		// Waits for startPathmonAsync and configures the PATHWAY if needed
+		public void configurePathmon(CompletableFuture<Boolean> started) throws Exception {
+			boolean configure;
 			try {
-				while (true && (cmdcount < commands.size())) {
-					int read = pis.read(b);
-					if (read == -1) {
-						// EOF
-						break;
-					}
-					String tmp = new String(b, 0, read);
-					partOutput.append(tmp);
-					fullOutput.append(tmp);
-					System.out.print(tmp);
-					if (b[read - 1] == '=') {
-						// Check for errors after executing the first
-						// command
-						if (cmdcount > 0) {
-							if (partOutput.toString().contains("ERROR")) {
-								osw.write("EXIT\n");
-								osw.flush();
-								throw new RuntimeException(partOutput.toString());
-							}
-						}
-						partOutput.delete(0, partOutput.length());
-						String command = commands.get(cmdcount) + "\n";
-						System.out.print(command);
-						osw.write(command);
-						osw.flush();
-						cmdcount++;
-					}
-				}
+				configure = started.get();
+			} catch (ExecutionException ex) {
+				throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+			}
+			if (!configure)
+				return;
+			LaunchTrace.Span span = LaunchTrace.start("pathmon.configure", PNAME);
+			try {
+				configurePathmon();
+			} catch (Exception ex) {
+				releaseLease(ex);
+				throw ex;
+			} finally {
+				span.end();
+			}
+			ProcessStatusSnapshot.invalidate(PNAME);
+			releaseLease(null);
+		}
+
+		// Executes the commands over a pooled PATHCOM session that already has
+		// this PATHMON open. The commands must not contain OPEN or EXIT
+		public List<PathcomSession.Result> executeInSession(List<String> commands) throws Exception {
+			PathcomSession session = PathcomSession.acquire(PNAME);
+			try {
+				return session.executeOrThrow(commands);
 			} finally {
-				proc.waitFor(1, TimeUnit.SECONDS);
-				if (proc.isAlive())
-					proc.destroy();
+				PathcomSession.release(session);
 			}
-			return fullOutput.toString();
 		}
 
 		// Private Functions
 
-		private void startPathmon() throws Exception {
-			Object[] ret = TACLUtilities.executeCommand("gtacl", "-nowait", "-name", "/G/" + PNAME, "-cpu",
-					String.valueOf(PRIMARY_CPU), "-term", "/G/zhome", "-p", "/G/system/system/pathmon",
-					String.valueOf(BACKUP_CPU));
-			if (((Integer) ret[0]) != 0) {
-				throw new RuntimeException(ret[1].toString());
-			}
+		// gtacl -nowait returns before the PATHMON can be opened, so the
+		// future completes only once awaitReady succeeds. The PATHCOM for
+		// awaitReady is spawned while the PATHMON is being started
+		private CompletableFuture<Boolean> startPathmon() {
+			final LaunchTrace.Span span = LaunchTrace.start("pathmon.start", PNAME);
+			final CompletableFuture<Boolean> failed = new CompletableFuture<Boolean>();
+			CompletableFuture<Boolean> started = TACLUtilities
+					.executeCommandAsync(TACLUtilities.gtacl("-nowait", "-name", "/G/" + PNAME, "-cpu",
+							String.valueOf(PRIMARY_CPU), "-term", "/G/zhome", "-p", "/G/system/system/pathmon",
+							String.valueOf(BACKUP_CPU)))
+					.thenApply(new Function<CommandExecutor.CommandResult, Boolean>() {
+						public Boolean apply(CommandExecutor.CommandResult r) {
+							span.end();
+							ProcessStatusSnapshot.invalidate(PNAME);
+							if (r.timedOut || r.exitCode != 0) {
+								failed.complete(true);
+								throw new RuntimeException(r.output);
+							}
+							return true;
+						}
+					});
+			CompletableFuture<Boolean> ready = CommandExecutor.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					LaunchTrace.Span span = LaunchTrace.start("pathmon.ready", PNAME);
+					try {
+						awaitReady(failed);
+						return true;
+					} catch (Exception ex) {
+						span.fail();
+						throw ex;
+					} finally {
+						span.end();
+					}
+				}
+			});
+			return started.thenCombine(ready, new BiFunction<Boolean, Boolean, Boolean>() {
+				public Boolean apply(Boolean started, Boolean ready) {
+					return true;
+				}
+			});
+		}
 
+		// Retries OPEN over one PATHCOM until the PATHMON answers, backing off
+		// from READY_BACKOFF to READY_BACKOFF_MAX milliseconds between tries,
+		// and fails after START_TIMEOUT milliseconds or once failed is done.
+		// The session goes to the pool for configurePathmon
+		private void awaitReady(Future<?> failed) throws Exception {
+			PathcomSession session = new PathcomSession(PNAME, START_TIMEOUT, READY_BACKOFF, READY_BACKOFF_MAX,
+					failed);
+			PathcomSession.release(session);
 		}
 
 		private void configurePathmon() throws Exception {
 			List<String> commands = new ArrayList<String>();
 			{
-				commands.add("OPEN $" + PNAME);
-				commands.add("SET PATHWAY MAXASSIGNS " + MAXASSIGNS);
-				commands.add("SET PATHWAY MAXDEFINES " + MAXDEFINES);
-				commands.add("SET PATHWAY MAXEXTERNALTCPS " + MAXEXTERNALTCPS);
-				commands.add("SET PATHWAY MAXLINKMONS " + MAXLINKMONS);
-				commands.add("SET PATHWAY MAXPARAMS " + MAXPARAMS);
-				commands.add("SET PATHWAY MAXPATHCOMS " + MAXPATHCOMS);
-				commands.add("SET PATHWAY MAXSERVERCLASSES " + MAXSERVERCLASSES);
-				commands.add("SET PATHWAY MAXSERVERPROCESSES " + MAXSERVERPROCESSES);
-				commands.add("SET PATHWAY MAXSPI " + MAXSPI);
-				commands.add("SET PATHWAY MAXSTARTUPS " + MAXSTARTUPS);
-				commands.add("SET PATHWAY MAXTERMS " + MAXTERMS);
-				commands.add("SET PATHWAY MAXTCPS " + MAXTCPS);
+				for (Map.Entry<String, Integer> limit : getLimits().entrySet())
+					commands.add("SET PATHWAY " + limit.getKey() + " " + limit.getValue());
 
 				commands.add("SET PATHMON BACKUPCPU " + BACKUP_CPU);
+			}
+			if (PathcomBatch.isEnabled()) {
+				// PATHCOM goes on after a failing SET, the PATHWAY is started
+				// by a batch of its own once they all succeeded
+				PathcomBatch.executeOrThrow(PNAME, commands);
+				PathcomBatch.executeOrThrow(PNAME, Arrays.asList("START PATHWAY COLD !"));
+			} else {
 				commands.add("START PATHWAY COLD !");
-				commands.add("EXIT");
+				executeInSession(commands);
 			}
-			Pathmon.executePathcomCommands(commands);
+		}
+
+		// The SET PATHWAY limits by name, e.g. MAXSERVERPROCESSES
+		public Map<String, Integer> getLimits() {
+			Map<String, Integer> limits = new LinkedHashMap<String, Integer>();
+			limits.put("MAXASSIGNS", MAXASSIGNS);
+			limits.put("MAXDEFINES", MAXDEFINES);
+			limits.put("MAXEXTERNALTCPS", MAXEXTERNALTCPS);
+			limits.put("MAXLINKMONS", MAXLINKMONS);
+			limits.put("MAXPARAMS", MAXPARAMS);
+			limits.put("MAXPATHCOMS", MAXPATHCOMS);
+			limits.put("MAXSERVERCLASSES", MAXSERVERCLASSES);
+			limits.put("MAXSERVERPROCESSES", MAXSERVERPROCESSES);
+			limits.put("MAXSPI", MAXSPI);
+			limits.put("MAXSTARTUPS", MAXSTARTUPS);
+			limits.put("MAXTERMS", MAXTERMS);
+			limits.put("MAXTCPS", MAXTCPS);
+			return limits;
+		}
+
+		public void setLimit(String name, int value) {
+			if (name.equals("MAXASSIGNS"))
+				MAXASSIGNS = value;
+			else if (name.equals("MAXDEFINES"))
+				MAXDEFINES = value;
+			else if (name.equals("MAXEXTERNALTCPS"))
+				MAXEXTERNALTCPS = value;
+			else if (name.equals("MAXLINKMONS"))
+				MAXLINKMONS = value;
+			else if (name.equals("MAXPARAMS"))
+				MAXPARAMS = value;
+			else if (name.equals("MAXPATHCOMS"))
+				MAXPATHCOMS = value;
+			else if (name.equals("MAXSERVERCLASSES"))
+				MAXSERVERCLASSES = value;
+			else if (name.equals("MAXSERVERPROCESSES"))
+				MAXSERVERPROCESSES = value;
+			else if (name.equals("MAXSPI"))
+				MAXSPI = value;
+			else if (name.equals("MAXSTARTUPS"))
+				MAXSTARTUPS = value;
+			else if (name.equals("MAXTERMS"))
+				MAXTERMS = value;
+			else if (name.equals("MAXTCPS"))
+				MAXTCPS = value;
+			else
+				throw new IllegalArgumentException("Unknown PATHWAY limit " + name);
 		}
 	}
 
@@ -164,6 +461,21 @@ public class TSMPBuilderFactory {
 		public File PROGRAM = null;
 		public File STDOUT = null;
 		public File STDERR = null;
+		// Alter an existing serverclass to match instead of leaving it as is
+		public boolean RECONCILE = false;
+		// Restart an existing serverclass a few static processes at a time,
+		// at most MAX_UNAVAILABLE down at once, see rollingRestart
+		public boolean ROLLING = false;
+		public int MAX_UNAVAILABLE = 1;
+		public long READY_TIMEOUT = 60000;
+		public long READY_INTERVAL = 500;
+		// CPUS was computed by CpuPlacement from the current load
+		public boolean AUTO_CPUS = false;
+		// PROCESS was generated from PROCESS_PREFIX, skipping running names
+		public boolean AUTO_NAMES = false;
+		// When START SERVER was sent for it by configureAndStartInPathmon,
+		// or it was reconciled
+		public long STARTED_AT = 0;
 
 		
 		// The list of DEFINEs to be set on the server.
@@ -191,28 +503,289 @@ public class TSMPBuilderFactory {
 
 		private String SVCNAME = null;
 
+		// Commands from a LaunchPlan, returned by getConfiguration as is
+		private List<String> configuration = null;
+
 		public Serverclass(String svcName) {
 			SVCNAME = svcName;
 		}
 
+		public String getName() {
+			return SVCNAME;
+		}
+
 		public void configureAndStartInPathmon(Pathmon pmon) throws Exception {
+			configureAndStartInPathmon(pmon, Arrays.asList(this));
+		}
+
+		// Adds all the serverclasses and starts them with a single START
+		// command, all over one PATHCOM session. Serverclasses with RECONCILE
+		// set that already exist are altered in place instead, see reconcile.
+		// Other serverclasses that already exist are left as they are and
+		// started with the rest
+		public static void configureAndStartInPathmon(Pathmon pmon, List<Serverclass> svcs) throws Exception {
+			if (PathcomBatch.isEnabled() && !needsReconcile(svcs)) {
+				configureAndStartInBatch(pmon, svcs);
+				return;
+			}
+			PathcomSession session = PathcomSession.acquire(pmon.PNAME);
+			try {
+				List<String> config = new ArrayList<String>();
+				List<String> names = new ArrayList<String>();
+				List<Serverclass> added = new ArrayList<Serverclass>();
+				for (Serverclass svc : svcs) {
+					LaunchTrace.Span span = LaunchTrace.start("serverclass.reconcile", svc.SVCNAME);
+					svc.STARTED_AT = System.currentTimeMillis();
+					boolean reconciled = (svc.RECONCILE || svc.ROLLING) && svc.reconcile(session);
+					span.end();
+					if (reconciled)
+						continue;
+					span = LaunchTrace.start("serverclass.add", svc.SVCNAME);
+					config.clear();
+					// The session may have been used before, clear any SET
+					// SERVER values left over from an earlier serverclass
+					config.add("RESET SERVER");
+					config.addAll(svc.getConfiguration());
+					config.add("ADD SERVER " + svc.SVCNAME);
+					List<PathcomSession.Result> results = session.execute(config);
+					PathcomSession.Result last = results.get(results.size() - 1);
+					span.end();
+					if (last.error && !last.output.contains("ENTRY ALREADY EXISTS"))
+						throw new RuntimeException(last.toString());
+					names.add(svc.SVCNAME);
+					added.add(svc);
+				}
+
+				if (names.isEmpty())
+					return;
+				config.clear();
+				config.add(getStartCommand(names));
+				LaunchTrace.Span span = LaunchTrace.start("serverclass.start", names.toString());
+				long sent = System.currentTimeMillis();
+				for (Serverclass svc : added)
+					svc.STARTED_AT = sent;
+				try {
+					session.executeOrThrow(config);
+				} finally {
+					span.end();
+				}
+			} finally {
+				PathcomSession.release(session);
+			}
+		}
+
+		// Adds the serverclasses with one PATHCOM batch and starts them with a
+		// second. PATHCOM goes on after a failing command, so START is sent
+		// only if every command of the first batch succeeded or was the ADD
+		// of a serverclass that exists already. A serverclass added after
+		// part of its configuration failed is deleted again
+		private static void configureAndStartInBatch(Pathmon pmon, List<Serverclass> svcs) throws Exception {
 			List<String> config = new ArrayList<String>();
-			config.add("OPEN $" + pmon.PNAME);
-			config.addAll(getConfiguration());
-			config.add("ADD SERVER " + SVCNAME);
-			config.add("EXIT");
+			List<String> names = new ArrayList<String>();
+			for (Serverclass svc : svcs) {
+				config.add("RESET SERVER");
+				config.addAll(svc.getConfiguration());
+				config.add("ADD SERVER " + svc.SVCNAME);
+				names.add(svc.SVCNAME);
+			}
+			if (names.isEmpty())
+				return;
+			LaunchTrace.Span span = LaunchTrace.start("serverclass.batch", names.toString());
+			try {
+				List<PathcomSession.Result> results = PathcomBatch.execute(pmon.PNAME, config);
+				PathcomSession.Result failed = null;
+				List<String> partial = new ArrayList<String>();
+				// Whether the commands since the last RESET SERVER succeeded
+				boolean clean = true;
+				for (PathcomSession.Result r : results) {
+					if (r.command.equals("RESET SERVER")) {
+						clean = !r.error;
+					} else if (r.command.startsWith("ADD SERVER ")) {
+						if (!r.error && !clean)
+							partial.add(r.command.substring("ADD SERVER ".length()));
+						if (!r.error || r.output.contains("ENTRY ALREADY EXISTS"))
+							continue;
+					} else if (r.error) {
+						clean = false;
+					}
+					if (r.error && failed == null)
+						failed = r;
+				}
+				// Run over a session, when PATHCOM could not be started in
+				// batch, the commands stop at the first error
+				if (failed == null && results.size() < config.size())
+					throw new RuntimeException("Stopped before START SERVER\n" + results.get(results.size() - 1));
+				if (failed != null) {
+					deleteServerclasses(pmon, partial);
+					throw new RuntimeException(failed.toString());
+				}
+
+				long sent = System.currentTimeMillis();
+				for (Serverclass svc : svcs)
+					svc.STARTED_AT = sent;
+				PathcomBatch.executeOrThrow(pmon.PNAME, Arrays.asList(getStartCommand(names)));
+			} catch (Exception ex) {
+				span.fail();
+				throw ex;
+			} finally {
+				span.end();
+			}
+		}
+
+		// Best effort, the failure that left them half configured is what
+		// gets reported
+		private static void deleteServerclasses(Pathmon pmon, List<String> names) {
+			if (names.isEmpty())
+				return;
+			List<String> commands = new ArrayList<String>();
+			for (String name : names)
+				commands.add("DELETE SERVER " + name);
 			try {
-				Pathmon.executePathcomCommands(config);
+				PathcomBatch.executeOrThrow(pmon.PNAME, commands);
 			} catch (Exception ex) {
-				if (!ex.getMessage().contains("ENTRY ALREADY EXISTS"))
-					throw ex;
+				TSMPLog.warn("Could not delete %s: %s\n", names, ex);
+			}
+		}
+
+		private static String getStartCommand(List<String> names) {
+			StringBuffer list = new StringBuffer();
+			for (String name : names)
+				list.append(list.length() == 0 ? "" : ", ").append(name);
+			return names.size() == 1 ? "START SERVER " + list : "START SERVER (" + list + ")";
+		}
+
+		private static boolean needsReconcile(List<Serverclass> svcs) {
+			for (Serverclass svc : svcs) {
+				if (svc.RECONCILE || svc.ROLLING)
+					return true;
+			}
+			return false;
+		}
+
+		// Brings an existing serverclass in line with this configuration by
+		// sending only the ALTER commands for attributes that differ. The
+		// serverclass is stopped and restarted only if one of the changed
+		// attributes can not be altered while running. Returns false if the
+		// serverclass does not exist yet
+		boolean reconcile(PathcomSession session) throws Exception {
+			PathcomSession.Result info = session.execute(Arrays.asList("INFO SERVER " + SVCNAME)).get(0);
+			if (info.error)
+				return false;
+			applyDelta(session, getDelta(parseInfo(info.output)));
+			return true;
+		}
+
+		// Sends the commands of a getDelta result, stopping the serverclass
+		// around them if they need it
+		void applyDelta(PathcomSession session, List<String> delta) throws Exception {
+			if (delta.isEmpty())
+				return;
+
+			boolean restart = delta.remove(0).equals("RESTART");
+			if (restart && ROLLING) {
+				rollingRestart(session, delta);
+				return;
+			}
+			List<String> commands = new ArrayList<String>();
+			if (restart) {
+				commands.add("FREEZE SERVER " + SVCNAME);
+				commands.add("STOP SERVER " + SVCNAME);
+			}
+			commands.addAll(delta);
+			if (restart) {
+				commands.add("THAW SERVER " + SVCNAME);
+				commands.add("START SERVER " + SVCNAME);
+			}
+			session.executeOrThrow(commands);
+		}
+
+		// Applies the ALTER commands and cycles the static processes in
+		// batches of at most MAX_UNAVAILABLE so the serverclass keeps serving
+		// throughout. The serverclass is frozen only while it is ALTERed;
+		// each batch is then stopped, started with the new definition and
+		// waited on until running before the next batch is taken down
+		void rollingRestart(PathcomSession session, List<String> alters) throws Exception {
+			session.executeOrThrow(Arrays.asList("FREEZE SERVER " + SVCNAME));
+			try {
+				session.executeOrThrow(alters);
+			} finally {
+				session.execute(Arrays.asList("THAW SERVER " + SVCNAME));
+			}
+
+			int statics = Math.min(PROCESS.length, NUMSTATIC);
+			List<String> commands = new ArrayList<String>();
+			for (List<String> batch : getRollingBatches(getStatus(session))) {
+				commands.clear();
+				for (String process : batch)
+					commands.add("STOP SERVER " + SVCNAME + ", PROCESS " + process);
+				for (String process : batch)
+					commands.add("START SERVER " + SVCNAME + ", PROCESS " + process);
+				TSMPLog.info("%s: cycling %s, capacity %d/%d\n", SVCNAME, batch, statics - batch.size(),
+						statics);
+				session.executeOrThrow(commands);
+
+				waitForRunning(session, batch);
+				TSMPLog.info("%s: %s ready, capacity %d/%d\n", SVCNAME, batch, statics, statics);
+			}
+		}
+
+		// Static processes in restart order, grouped by the CPU STATUS SERVER
+		// reports each running on, or the primary CPU of its configured pair
+		// if it does not run or the PATHCOM does not report process IDs. The
+		// order takes one process from each CPU in turn so a batch never
+		// empties a CPU while others are untouched
+		List<List<String>> getRollingBatches(ServerStatus status) {
+			Map<Integer, List<String>> byCpu = new LinkedHashMap<Integer, List<String>>();
+			int statics = Math.min(PROCESS.length, NUMSTATIC);
+			for (int i = 0; i < statics; i++) {
+				ServerStatus.Process p = status.get(PROCESS[i]);
+				int cpu = p != null && p.hasPid() ? p.CPU : CPUS[i % CPUS.length][0];
+				List<String> onCpu = byCpu.get(cpu);
+				if (onCpu == null) {
+					onCpu = new ArrayList<String>();
+					byCpu.put(cpu, onCpu);
+				}
+				onCpu.add(PROCESS[i]);
+			}
+
+			List<String> order = new ArrayList<String>();
+			for (int round = 0; order.size() < statics; round++) {
+				for (List<String> onCpu : byCpu.values()) {
+					if (round < onCpu.size())
+						order.add(onCpu.get(round));
+				}
 			}
 
-			config.clear();
-			config.add("OPEN $" + pmon.PNAME);
-			config.add("START SERVER " + SVCNAME);
-			config.add("EXIT");
-			Pathmon.executePathcomCommands(config);
+			List<List<String>> batches = new ArrayList<List<String>>();
+			int size = Math.max(1, MAX_UNAVAILABLE);
+			for (int i = 0; i < order.size(); i += size)
+				batches.add(new ArrayList<String>(order.subList(i, Math.min(order.size(), i + size))));
+			return batches;
+		}
+
+		private ServerStatus getStatus(PathcomSession session) throws Exception {
+			return ServerStatus
+					.parse(session.executeOrThrow(Arrays.asList("STATUS SERVER " + SVCNAME + ", DETAIL")).get(0).output);
+		}
+
+		// Polls STATUS SERVER every READY_INTERVAL milliseconds until all of
+		// the processes run
+		private void waitForRunning(PathcomSession session, List<String> processes) throws Exception {
+			long deadline = System.currentTimeMillis() + READY_TIMEOUT;
+			while (true) {
+				ServerStatus status = getStatus(session);
+				List<String> down = new ArrayList<String>();
+				for (String process : processes) {
+					ServerStatus.Process p = status.get(process);
+					if (p == null || !p.isRunning())
+						down.add(process);
+				}
+				if (down.isEmpty())
+					return;
+				if (System.currentTimeMillis() > deadline)
+					throw new RuntimeException(SVCNAME + ": " + down + " not running after restart");
+				Thread.sleep(READY_INTERVAL);
+			}
 		}
 
 		public void addDefines(String defines) {
@@ -256,38 +829,50 @@ public class TSMPBuilderFactory {
 			return;
 		}
 
+		private static final Pattern CPU_PAIR = Pattern.compile("\\{\\s*(\\d+)\\s*(?:[,:]\\s*(\\d+)\\s*)?\\}");
+
+		// Parses the CPUS property. Pairs may be separated by commas or
+		// semicolons: {{0,1},{2,3}}, {{0,1};{2,3}} or {{0},{2,3}}
+		public static int[][] parseCpus(String cpus) {
+			List<int[]> pairs = new ArrayList<int[]>();
+			String inner = cpus.trim();
+			if (inner.startsWith("{") && inner.endsWith("}"))
+				inner = inner.substring(1, inner.length() - 1);
+			Matcher m = CPU_PAIR.matcher(inner);
+			while (m.find()) {
+				pairs.add(new int[] { Integer.parseInt(m.group(1)),
+						m.group(2) == null ? -1 : Integer.parseInt(m.group(2)) });
+			}
+			if (pairs.isEmpty())
+				throw new IllegalArgumentException("Invalid CPUS " + cpus);
+			return pairs.toArray(new int[pairs.size()][]);
+		}
+
+		Map<String, String> getDefines() {
+			return DEFINES;
+		}
+
+		void setConfiguration(List<String> config) {
+			configuration = config;
+		}
+
+		// Builds and keeps the pathcom commands ahead of configuring, e.g.
+		// while the PATHMON is starting
+		public void buildConfiguration() {
+			configuration = getConfiguration();
+		}
+
 		// Returns pathcom commands to configure the serverclass
-		private List<String> getConfiguration() {
-			final int MAX_PER_LINE = 120; // max chars per line of command
+		List<String> getConfiguration() {
+			if (configuration != null)
+				return configuration;
 			List<String> config = new ArrayList<String>();
 			config.add("SET SERVER PROCESSTYPE " + PROCESSTYPE);
-			if ("SET SERVER ARGLIST ".length() + ARGLIST.length() > MAX_PER_LINE) {
-				config.add("SET SERVER ARGLIST &");
-				String command = ARGLIST;
-				String partcommand = "";
-				do {
-					partcommand = command.substring(0, Math.min(command.length(), MAX_PER_LINE));
-					config.add("" + partcommand + "&");
-					command = command.substring(partcommand.length());
-				} while (command.length() > 0);
-				config.add("");
-			} else {
-				config.add("SET SERVER ARGLIST " + ARGLIST);
-			}
+			addArglist(config, "SET SERVER ARGLIST ");
 
 			config.add("SET SERVER AUTORESTART " + AUTORESTART);
 
-			{
-				StringBuffer cpus = new StringBuffer();
-				cpus.append("(");
-				for (int i = 0; i < CPUS.length; i++) {
-					cpus.append(CPUS[i][0]);
-					Object dummy = CPUS[i][1] != -1 ? cpus.append(":").append(CPUS[i][1]).append(",") : null;
-				}
-				cpus.setCharAt(cpus.length() - 1, ')');
-
-				config.add("SET SERVER CPUS " + cpus.toString());
-			}
+			config.add("SET SERVER CPUS " + getCpus());
 			config.add("SET SERVER CWD " + (CWD == null ? "null" : CWD.getAbsolutePath()));
 			{
 				for (int i = 0; i < ENV.length; i++) {
@@ -300,9 +885,9 @@ public class TSMPBuilderFactory {
 			config.add("SET SERVER MAXSERVERS " + MAXSERVERS);
 			config.add("SET SERVER NUMSTATIC " + NUMSTATIC);
 			{
-				System.out.printf("length[%d], NUMSTATIC[%d], Names[%s]\n", PROCESS.length, NUMSTATIC,
+				TSMPLog.debug("length[%d], NUMSTATIC[%d], Names[%s]\n", PROCESS.length, NUMSTATIC,
 						Arrays.toString(PROCESS));
-				System.out.println("Math.min = " + Math.min(PROCESS.length, NUMSTATIC));
+				TSMPLog.debug("Math.min = %d\n", Math.min(PROCESS.length, NUMSTATIC));
 				for (int i = 0; i < Math.min(PROCESS.length, NUMSTATIC); i++) {
 					config.add("SET SERVER PROCESS " + PROCESS[i]);
 				}
@@ -321,26 +906,202 @@ public class TSMPBuilderFactory {
 			return config;
 		}
 
+		// Adds the ARGLIST with the given command prefix, continued over
+		// several lines when it is too long for one
+		private void addArglist(List<String> config, String prefix) {
+			final int MAX_PER_LINE = 120; // max chars per line of command
+			if (prefix.length() + ARGLIST.length() > MAX_PER_LINE) {
+				config.add(prefix + "&");
+				String command = ARGLIST;
+				String partcommand = "";
+				do {
+					partcommand = command.substring(0, Math.min(command.length(), MAX_PER_LINE));
+					config.add("" + partcommand + "&");
+					command = command.substring(partcommand.length());
+				} while (command.length() > 0);
+				config.add("");
+			} else {
+				config.add(prefix + ARGLIST);
+			}
+		}
+
+		private String getCpus() {
+			StringBuffer cpus = new StringBuffer();
+			cpus.append("(");
+			for (int i = 0; i < CPUS.length; i++) {
+				cpus.append(CPUS[i][0]);
+				if (CPUS[i][1] != -1)
+					cpus.append(":").append(CPUS[i][1]);
+				cpus.append(",");
+			}
+			cpus.setCharAt(cpus.length() - 1, ')');
+			return cpus.toString();
+		}
+
+		// Attributes that PATHMON lets us ALTER while the serverclass is
+		// running. Any other change needs the serverclass to be stopped
+		private static final List<String> RUNNING_ALTERABLE = Arrays.asList("AUTORESTART", "LINKDEPTH", "MAXLINKS",
+				"MAXSERVERS", "NUMSTATIC");
+
+		// Returns the configuration as attribute -> value, in the form INFO
+		// SERVER reports it. Attributes that can occur more than once (ENV,
+		// PROCESS and DEFINE) are keyed by attribute and name, e.g. "ENV NAME"
+		Map<String, String> getAttributes() {
+			Map<String, String> attrs = new LinkedHashMap<String, String>();
+			attrs.put("PROCESSTYPE", PROCESSTYPE);
+			attrs.put("ARGLIST", ARGLIST);
+			attrs.put("AUTORESTART", String.valueOf(AUTORESTART));
+			attrs.put("CPUS", getCpus());
+			attrs.put("CWD", CWD == null ? "null" : CWD.getAbsolutePath());
+			for (int i = 0; i < ENV.length; i++)
+				attrs.put("ENV " + ENV[i][0], ENV[i][1]);
+			attrs.put("HOMETERM", HOMETERM);
+			attrs.put("LINKDEPTH", String.valueOf(LINKDEPTH));
+			attrs.put("MAXLINKS", String.valueOf(MAXLINKS));
+			attrs.put("MAXSERVERS", String.valueOf(MAXSERVERS));
+			attrs.put("NUMSTATIC", String.valueOf(NUMSTATIC));
+			for (int i = 0; i < Math.min(PROCESS.length, NUMSTATIC); i++)
+				attrs.put("PROCESS " + PROCESS[i], "");
+			attrs.put("PROGRAM", PROGRAM == null ? "null" : PROGRAM.getAbsolutePath());
+			if (STDOUT != null)
+				attrs.put("STDOUT", STDOUT.getAbsolutePath());
+			if (STDERR != null)
+				attrs.put("STDERR", STDERR.getAbsolutePath());
+			for (String key : DEFINES.keySet())
+				attrs.put("DEFINE " + key, DEFINES.get(key));
+			return attrs;
+		}
+
+		// Parses the output of INFO SERVER into the form of getAttributes.
+		// Lines ending in '&' are continued on the next line
+		static Map<String, String> parseInfo(String output) {
+			Map<String, String> attrs = new LinkedHashMap<String, String>();
+			StringBuffer line = new StringBuffer();
+			for (String part : output.split("\r?\n")) {
+				String trimmed = part.trim();
+				if (trimmed.endsWith("&")) {
+					line.append(trimmed, 0, trimmed.length() - 1);
+					continue;
+				}
+				line.append(trimmed);
+				String entry = line.toString();
+				line.setLength(0);
+				if (entry.length() == 0 || entry.startsWith("SERVER ") || entry.equals("="))
+					continue;
+				String[] kv = entry.split("\\s+", 2);
+				String key = kv[0].toUpperCase();
+				String value = kv.length > 1 ? kv[1] : "";
+				if (key.equals("ENV") && value.indexOf('=') > 0) {
+					attrs.put("ENV " + value.substring(0, value.indexOf('=')), value.substring(value.indexOf('=') + 1));
+				} else if (key.equals("PROCESS")) {
+					attrs.put("PROCESS " + value.split("\\s+")[0], "");
+				} else if (key.equals("DEFINE")) {
+					attrs.put("DEFINE " + value.split(",")[0].trim(), value);
+				} else {
+					attrs.put(key, value);
+				}
+			}
+			return attrs;
+		}
+
+		// Returns the ALTER commands that turn the live definition into this
+		// one. The first element is "RESTART" if the serverclass has to be
+		// stopped for the commands, "RUNNING" otherwise
+		List<String> getDelta(Map<String, String> live) {
+			List<String> alters = new ArrayList<String>();
+			boolean restart = false;
+			String prefix = "ALTER SERVER " + SVCNAME + ", ";
+			Map<String, String> desired = getAttributes();
+			// Live key by the form it compares in
+			Map<String, String> liveKeys = new HashMap<String, String>();
+			for (String key : live.keySet())
+				liveKeys.put(normalizeKey(key), key);
+			Set<String> desiredKeys = new HashSet<String>();
+			for (Map.Entry<String, String> attr : desired.entrySet()) {
+				String key = attr.getKey();
+				desiredKeys.add(normalizeKey(key));
+				String liveKey = liveKeys.get(normalizeKey(key));
+				if (liveKey != null && normalize(key, live.get(liveKey)).equals(normalize(key, attr.getValue())))
+					continue;
+				if (key.equals("ARGLIST")) {
+					addArglist(alters, prefix + "ARGLIST ");
+				} else if (key.startsWith("ENV ")) {
+					alters.add(prefix + "ENV " + key.substring(4) + "=" + attr.getValue());
+				} else if (key.startsWith("PROCESS ")) {
+					alters.add(prefix + key);
+				} else if (key.startsWith("DEFINE ")) {
+					alters.add(prefix + "DEFINE " + attr.getValue());
+				} else {
+					alters.add(prefix + key + " " + attr.getValue());
+				}
+				restart |= !RUNNING_ALTERABLE.contains(key);
+			}
+			for (String key : live.keySet()) {
+				if (desiredKeys.contains(normalizeKey(key)))
+					continue;
+				if (key.startsWith("ENV ") || key.startsWith("PROCESS ") || key.startsWith("DEFINE ")) {
+					alters.add(prefix + "RESET " + key);
+					restart = true;
+				}
+			}
+			if (!alters.isEmpty())
+				alters.add(0, restart ? "RESTART" : "RUNNING");
+			return alters;
+		}
+
+		// Values compare case and whitespace insensitive, without the node
+		// name PATHMON adds to Guardian names. ARGLIST and ENV values are
+		// case sensitive and compare exactly but for whitespace
+		private static String normalize(String key, String value) {
+			String spaced = value.replaceAll("\\s*,\\s*", ",").replaceAll("\\s+", " ").trim();
+			if (key.equals("ARGLIST") || key.startsWith("ENV "))
+				return spaced;
+			return spaced.toUpperCase().replaceAll("\\\\[A-Z0-9]+\\.", "");
+		}
+
+		// PROCESS and DEFINE keys name Guardian objects, they compare like
+		// values. ENV names are case sensitive
+		private static String normalizeKey(String key) {
+			if (key.startsWith("PROCESS ") || key.startsWith("DEFINE "))
+				return normalize(key, key);
+			return key;
+		}
+
 	}
 
 	static class TACLUtilities {
 		public static final Boolean isProcessRunning(String name) throws Exception {
-			Object[] ret = executeCommand("gtacl", "-c", "status $" + name);
-			String outmsg = (String) ret[1];
-			if (outmsg.contains(name.toUpperCase()))
-				return true;
-			return false;
+			return ProcessStatusSnapshot.get(name).isRunning();
 		}
 
 		public static final Boolean isProcessPair(String name) throws Exception {
-			Object[] ret = executeCommand("gtacl", "-c", "status $" + name);
-			String outmsg = (String) ret[1];
-			int index1 = outmsg.indexOf(name.toUpperCase());
-			if (index1 == -1)
-				return false;
-			if (index1 != outmsg.lastIndexOf(name.toUpperCase()))
-				return true;
-			return false;
+			return ProcessStatusSnapshot.get(name).isPair();
+		}
+
+		public static final CompletableFuture<Boolean> isProcessRunningAsync(String name) {
+			return ProcessStatusSnapshot.getAsync(name).thenApply(new Function<ProcessStatusSnapshot, Boolean>() {
+				public Boolean apply(ProcessStatusSnapshot status) {
+					return status.isRunning();
+				}
+			});
+		}
+
+		public static final CompletableFuture<Boolean> isProcessPairAsync(String name) {
+			return ProcessStatusSnapshot.getAsync(name).thenApply(new Function<ProcessStatusSnapshot, Boolean>() {
+				public Boolean apply(ProcessStatusSnapshot status) {
+					return status.isPair();
+				}
+			});
+		}
+
+		// Returns the gtacl command line followed by args. The gtacl command can
+		// be replaced with a stand-in using the system property tsmp.gtacl,
+		// e.g. -Dtsmp.gtacl="/bin/sh src/test/resources/gtacl-standin.sh"
+		public static final List<String> gtacl(String... args) {
+			List<String> clist = new ArrayList<String>();
+			clist.addAll(Arrays.asList(System.getProperty("tsmp.gtacl", "gtacl").trim().split("\\s+")));
+			clist.addAll(Arrays.asList(args));
+			return clist;
 		}
 
 		// return object array of 2 elements. 1>Exit Code 2> Output text
@@ -350,23 +1111,31 @@ public class TSMPBuilderFactory {
 			for (String arg : args) {
 				clist.add(arg);
 			}
-			ProcessBuilder pb = new ProcessBuilder(clist);
-			pb.redirectErrorStream(true);
-			System.out.println(Arrays.toString(clist.toArray()).replace(',', ' '));
-			Process proc = pb.start();
-			proc.waitFor();
-			int exitValue = proc.exitValue();
-			byte[] b = new byte[1024]; // assuming size is sufficient
-			int read = proc.getInputStream().read(b);
-			if (read == -1) // if EOS then just set it to 0 to
-							// facilitate
-							// string conversion
-				read = 0;
-			System.out.println(new String(b, 0, read));
+			return executeCommand(clist);
+		}
+
+		public static final Object[] executeCommand(List<String> clist) throws Exception {
+			CommandExecutor.CommandResult result = executeCommandAsync(clist).get();
+			if (result.timedOut)
+				throw new RuntimeException(result.toString());
 			Object[] ret = new Object[2];
-			ret[0] = new Integer(exitValue);
-			ret[1] = new String(b, 0, read);
+			ret[0] = Integer.valueOf(result.exitCode);
+			ret[1] = result.output;
 			return ret;
 		}
+
+		// Runs the command with the default deadline, the output is logged
+		// once the command completes
+		public static final CompletableFuture<CommandExecutor.CommandResult> executeCommandAsync(List<String> clist) {
+			if (TSMPLog.isEnabled(TSMPLog.INFO))
+				TSMPLog.info("%s\n", Arrays.toString(clist.toArray()).replace(',', ' '));
+			return CommandExecutor.executeAsync(clist).thenApply(
+					new Function<CommandExecutor.CommandResult, CommandExecutor.CommandResult>() {
+						public CommandExecutor.CommandResult apply(CommandExecutor.CommandResult r) {
+							TSMPLog.debug("%s\n", r.output);
+							return r;
+						}
+					});
+		}
 	}
 }
@@ -0,0 +1,234 @@
+package com.hpe.nonstop.util;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Logging for the caplet, the commands it runs and the PATHCOM conversation,
+ * written by a background thread so a slow terminal or file does not slow the
+ * launch.
+ * <p>
+ * Messages below the level given by <code>tsmp.log.level</code> (ERROR, WARN,
+ * INFO, DEBUG; default INFO) are dropped at the call and never formatted.
+ * Others are queued with their arguments in a ring buffer of
+ * <code>tsmp.log.buffer</code> entries (default 8192) and formatted by the
+ * writer. When the buffer is full an INFO or DEBUG message is dropped, and
+ * the number dropped is logged once the writer catches up; a WARN or ERROR
+ * message is never dropped, its caller waits for room instead.
+ * <code>tsmp.log.sink</code> selects where messages go: <code>console</code>
+ * (default; WARN and ERROR to System.err), <code>file</code> (the file named
+ * by <code>tsmp.log.file</code>, default tsmp.log) or <code>off</code>.
+ * </p>
+ * <p>
+ * Messages carry their own line ends. The commands sent to PATHCOM and gtacl
+ * are logged at INFO, their output at DEBUG. This log is separate from
+ * Capsule's own: the <code>capsule.log</code> level does not apply to it, and
+ * <code>tsmp.log.level</code> does not apply to the messages of Capsule.
+ * </p>
+ */
+public class TSMPLog {
+
+	public static final int ERROR = 0;
+	public static final int WARN = 1;
+	public static final int INFO = 2;
+	public static final int DEBUG = 3;
+
+	private static final String[] LEVELS = { "ERROR", "WARN", "INFO", "DEBUG" };
+
+	private static final String SINK = System.getProperty("tsmp.log.sink", "console").toLowerCase();
+	private static final int LEVEL = SINK.equals("off") ? -1
+			: parseLevel(System.getProperty("tsmp.log.level", "INFO"));
+
+	// Ring buffer, guarded by itself
+	private static final Entry[] RING = new Entry[Math.max(16, Integer.getInteger("tsmp.log.buffer", 8192))];
+	private static int head = 0;
+	private static int size = 0;
+	private static long lost = 0;
+	private static long written = 0;
+	private static long queued = 0;
+	private static Thread writer = null;
+	private static PrintStream file = null;
+
+	private static class Entry {
+		final int level;
+		final String format;
+		final Object[] args;
+
+		Entry(int level, String format, Object[] args) {
+			this.level = level;
+			this.format = format;
+			this.args = args;
+		}
+
+		String format() {
+			return args == null || args.length == 0 ? format : String.format(format, args);
+		}
+	}
+
+	public static boolean isEnabled(int level) {
+		return level <= LEVEL;
+	}
+
+	public static void error(String format, Object... args) {
+		log(ERROR, format, args);
+	}
+
+	public static void warn(String format, Object... args) {
+		log(WARN, format, args);
+	}
+
+	public static void info(String format, Object... args) {
+		log(INFO, format, args);
+	}
+
+	public static void debug(String format, Object... args) {
+		log(DEBUG, format, args);
+	}
+
+	// format : a String.format format, used as is if there are no args. The
+	// args are formatted later on the writer thread, do not change them
+	// after the call
+	public static void log(int level, String format, Object... args) {
+		if (level > LEVEL)
+			return;
+		Entry entry = new Entry(level, format, args);
+		synchronized (RING) {
+			while (size == RING.length && level <= WARN) {
+				try {
+					RING.wait();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if (size == RING.length) {
+				lost++;
+				queued++;
+				return;
+			}
+			RING[(head + size) % RING.length] = entry;
+			size++;
+			queued++;
+			if (writer == null)
+				startWriter();
+			RING.notifyAll();
+		}
+	}
+
+	// A stream whose bytes are logged at level, e.g. for the PATHCOM output.
+	// Null if the level is not enabled
+	public static PrintStream stream(final int level) {
+		if (!isEnabled(level))
+			return null;
+		return new PrintStream(new OutputStream() {
+			public void write(int b) {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			public void write(byte[] b, int off, int len) {
+				if (len > 0)
+					log(level, new String(b, off, len));
+			}
+		}, true);
+	}
+
+	// Waits up to timeout milliseconds for the messages queued so far to be
+	// written
+	public static void flush(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (RING) {
+			long target = queued;
+			while (written + lost < target && System.currentTimeMillis() < deadline) {
+				try {
+					RING.wait(Math.max(1, deadline - System.currentTimeMillis()));
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	static int parseLevel(String level) {
+		for (int i = 0; i < LEVELS.length; i++) {
+			if (LEVELS[i].equalsIgnoreCase(level.trim()))
+				return i;
+		}
+		return INFO;
+	}
+
+	// Caller holds the RING lock
+	private static void startWriter() {
+		writer = new Thread(new Runnable() {
+			public void run() {
+				Entry[] batch = new Entry[256];
+				while (true) {
+					int n = 0;
+					long missed;
+					synchronized (RING) {
+						while (size == 0) {
+							try {
+								RING.wait();
+							} catch (InterruptedException ex) {
+								return;
+							}
+						}
+						missed = lost;
+						lost = 0;
+						while (size > 0 && n < batch.length) {
+							batch[n++] = RING[head];
+							RING[head] = null;
+							head = (head + 1) % RING.length;
+							size--;
+						}
+						// Lost messages are accounted for in written
+						written += missed;
+						// Room for callers waiting to log a warning
+						RING.notifyAll();
+					}
+					if (missed > 0)
+						write(new Entry(WARN, "(%d log messages dropped, tsmp.log.buffer is full)\n",
+								new Object[] { missed }));
+					for (int i = 0; i < n; i++) {
+						write(batch[i]);
+						batch[i] = null;
+					}
+					synchronized (RING) {
+						written += n;
+						RING.notifyAll();
+					}
+				}
+			}
+		}, "tsmp-log");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				flush(1000);
+			}
+		}, "tsmp-log-flush"));
+	}
+
+	private static void write(Entry entry) {
+		String text;
+		try {
+			text = entry.format();
+		} catch (RuntimeException ex) {
+			text = entry.format + " " + ex;
+		}
+		if (SINK.equals("file")) {
+			try {
+				if (file == null)
+					file = new PrintStream(new FileOutputStream(System.getProperty("tsmp.log.file", "tsmp.log"), true),
+							true);
+				file.print(text);
+			} catch (IOException ex) {
+				System.err.print(text);
+			}
+		} else {
+			(entry.level <= WARN ? System.err : System.out).print(text);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Feeds STATUS SERVER, DETAIL output to the autoscaler poll by poll and
+ * checks the ALTER commands it decides on.
+ */
+public class AutoscalerTest {
+
+	private static TSMPBuilderFactory.Serverclass newServerclass(int numstatic, int maxservers) {
+		Properties props = new Properties();
+		props.setProperty("NUMSTATIC", String.valueOf(numstatic));
+		props.setProperty("MAXSERVERS", String.valueOf(maxservers));
+		props.setProperty("PROCESS_NAMES", "s1,s2,s3,s4");
+		return TSMPBuilderFactory.newServerclass("SC-1", props, "", new File("/usr/bin/java"), "-cp app.jar Main",
+				new File("/tmp"), null);
+	}
+
+	// rows : name, links, weight for every running process
+	private static ServerStatus status(Object... rows) {
+		StringBuffer out = new StringBuffer(" PROCESS  STATE  ERROR  INFO  #LINKS  WEIGHT\n");
+		for (int i = 0; i < rows.length; i += 3)
+			out.append(String.format(" %s  RUNNING  0  0  %d  %d\n", rows[i], rows[i + 1], rows[i + 2]));
+		return ServerStatus.parse(out.toString());
+	}
+
+	private static ServerStatus busy() {
+		return status("$S1", 2, 0, "$S2", 1, 0);
+	}
+
+	private static ServerStatus idle() {
+		return status("$S1", 0, 0, "$S2", 0, 0);
+	}
+
+	// Polls at t milliseconds after a start well past any cooldown
+	private static List<String> decide(Autoscaler scaler, ServerStatus status, long t) {
+		return scaler.decide(status, 1000000 + t);
+	}
+
+	private static Autoscaler newScaler(TSMPBuilderFactory.Serverclass svc) {
+		Autoscaler scaler = new Autoscaler(new TSMPBuilderFactory.Pathmon("PM"), svc);
+		scaler.MAX_MAXSERVERS = 16;
+		scaler.MIN_MAXSERVERS = 2;
+		scaler.COOLDOWN = 1000;
+		return scaler;
+	}
+
+	@Test
+	public void raisedAfterSamplesInARow() {
+		Autoscaler scaler = newScaler(newServerclass(2, 8));
+		assertTrue(decide(scaler, busy(), 0).isEmpty());
+		assertTrue(decide(scaler, busy(), 10).isEmpty());
+		// An idle poll starts the count over
+		assertTrue(decide(scaler, idle(), 20).isEmpty());
+		assertTrue(decide(scaler, busy(), 30).isEmpty());
+		assertTrue(decide(scaler, busy(), 40).isEmpty());
+		assertEquals(Arrays.asList("ALTER SERVER SC-1, MAXSERVERS 10"), decide(scaler, busy(), 50));
+		assertEquals(10, scaler.getMaxServers());
+	}
+
+	@Test
+	public void queuedRequestsCountAsHigh() {
+		Autoscaler scaler = newScaler(newServerclass(2, 8));
+		ServerStatus queued = status("$S1", 0, 3, "$S2", 0, 0);
+		decide(scaler, queued, 0);
+		decide(scaler, queued, 10);
+		assertEquals(Arrays.asList("ALTER SERVER SC-1, MAXSERVERS 10"), decide(scaler, queued, 20));
+	}
+
+	@Test
+	public void nothingChangesDuringTheCooldown() {
+		Autoscaler scaler = newScaler(newServerclass(2, 8));
+		for (long t = 0; t < 30; t += 10)
+			decide(scaler, busy(), t);
+		assertEquals(10, scaler.getMaxServers());
+		for (long t = 30; t < 1000; t += 10)
+			assertTrue(decide(scaler, busy(), t).isEmpty());
+		// The samples taken during the cooldown count once it is over
+		assertEquals(Arrays.asList("ALTER SERVER SC-1, MAXSERVERS 12"), decide(scaler, busy(), 1020));
+	}
+
+	@Test
+	public void staysWithinTheBounds() {
+		Autoscaler scaler = newScaler(newServerclass(2, 15));
+		scaler.COOLDOWN = 0;
+		for (long t = 0; t < 30; t++)
+			decide(scaler, busy(), t);
+		assertEquals(16, scaler.getMaxServers());
+
+		scaler = newScaler(newServerclass(1, 3));
+		scaler.COOLDOWN = 0;
+		for (long t = 0; t < 30; t++)
+			decide(scaler, idle(), t);
+		assertEquals(2, scaler.getMaxServers());
+		assertEquals(1, scaler.getNumStatic());
+	}
+
+	@Test
+	public void numstaticFollowsChurnUnderLoad() {
+		Autoscaler scaler = newScaler(newServerclass(1, 8));
+		scaler.MAX_NUMSTATIC = 3;
+		scaler.COOLDOWN = 0;
+		// Dynamic processes come and go
+		decide(scaler, status("$S1", 1, 0, "$D1", 1, 0), 0);
+		decide(scaler, status("$S1", 1, 0, "$D2", 1, 0), 10);
+		List<String> alters = decide(scaler, status("$S1", 1, 0, "$D1", 1, 0), 20);
+		assertEquals(Arrays.asList("ALTER SERVER SC-1, MAXSERVERS 10", "ALTER SERVER SC-1, NUMSTATIC 2"), alters);
+		assertEquals(2, scaler.getNumStatic());
+	}
+
+	@Test
+	public void sharedServerclassIsNotChanged() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass(2, 8);
+		Autoscaler scaler = newScaler(svc);
+		for (long t = 0; t < 30; t += 10)
+			decide(scaler, busy(), t);
+		assertEquals(10, scaler.getMaxServers());
+		assertEquals(8, svc.MAXSERVERS);
+		assertEquals(2, svc.NUMSTATIC);
+	}
+
+	@Test
+	public void reloadedValuesAreTakenOver() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass(2, 8);
+		Autoscaler scaler = newScaler(svc);
+		for (long t = 0; t < 30; t += 10)
+			decide(scaler, busy(), t);
+		assertEquals(10, scaler.getMaxServers());
+
+		// A reload of another attribute leaves the scaled MAXSERVERS alone
+		scaler.follow(newServerclass(2, 8));
+		assertEquals(10, scaler.getMaxServers());
+		// One of MAXSERVERS ALTERs it to the new value
+		scaler.follow(newServerclass(3, 6));
+		assertEquals(6, scaler.getMaxServers());
+		assertEquals(3, scaler.getNumStatic());
+	}
+
+	@Test
+	public void emptyStatus() {
+		Autoscaler scaler = newScaler(newServerclass(2, 8));
+		assertEquals(Collections.emptyList(), decide(scaler, ServerStatus.parse(""), 0));
+	}
+}
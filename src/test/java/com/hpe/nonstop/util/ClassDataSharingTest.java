@@ -0,0 +1,155 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Names, dumps and prunes AppCDS archives in a temporary directory.
+ */
+public class ClassDataSharingTest {
+
+	private static final String JAVA = new File(System.getProperty("java.home"), "bin/java").getPath();
+	private static final long DAY = 24 * 60 * 60 * 1000;
+
+	private File dir;
+	private File jar;
+
+	@Before
+	public void files() throws Exception {
+		dir = Files.createTempDirectory("appcds").toFile();
+		jar = new File(dir, "app.jar");
+		// Classes that need nothing but the JDK
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			for (String name : Arrays.asList("ServerStatus", "ServerStatus$Process")) {
+				String entry = "com/hpe/nonstop/util/" + name + ".class";
+				out.putNextEntry(new JarEntry(entry));
+				InputStream in = getClass().getClassLoader().getResourceAsStream(entry);
+				try {
+					byte[] b = new byte[8192];
+					for (int n; (n = in.read(b)) > 0;)
+						out.write(b, 0, n);
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	@After
+	public void cleanUp() {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private List<String> command(String program) {
+		return Arrays.asList(program, "-Xmx64m", "-cp", jar.getPath(), "Main");
+	}
+
+	private static File touch(File dir, String name, long age) throws Exception {
+		File f = new File(dir, name);
+		f.createNewFile();
+		f.setLastModified(System.currentTimeMillis() - age);
+		return f;
+	}
+
+	@Test
+	public void classpath() {
+		assertEquals(Arrays.asList("a.jar", "b.jar"),
+				ClassDataSharing.getClasspath(Arrays.asList("java", "-cp", "a.jar" + File.pathSeparator + "b.jar", "M")));
+		assertEquals(Arrays.asList("app.jar"), ClassDataSharing.getClasspath(Arrays.asList("java", "-jar", "app.jar")));
+		assertTrue(ClassDataSharing.getClasspath(Arrays.asList("java", "Main")).isEmpty());
+		assertNull(new ClassDataSharing(dir, Arrays.asList(JAVA, "Main")).getArchive());
+	}
+
+	@Test
+	public void newVersionNewArchive() throws Exception {
+		File archive = new ClassDataSharing(dir, command(JAVA)).getArchive();
+		assertEquals(dir, archive.getParentFile());
+		assertEquals(archive, new ClassDataSharing(dir, command(JAVA)).getArchive());
+
+		assertTrue(jar.setLastModified(jar.lastModified() - 60000));
+		File rebuilt = new ClassDataSharing(dir, command(JAVA)).getArchive();
+		assertNotEquals(archive, rebuilt);
+		// The same application
+		String name = archive.getName();
+		assertTrue(rebuilt.getName().startsWith(name.substring(0, name.lastIndexOf('-') + 1)));
+	}
+
+	@Test
+	public void optionsOnlyOnceDumped() throws Exception {
+		ClassDataSharing cds = new ClassDataSharing(dir, command(JAVA));
+		assertEquals(command(JAVA), cds.getCommand());
+
+		touch(dir, cds.getArchive().getName(), 10 * DAY);
+		List<String> command = cds.getCommand();
+		assertEquals("-XX:SharedArchiveFile=" + cds.getArchive().getAbsolutePath(), command.get(1));
+		assertEquals("-Xshare:auto", command.get(2));
+		assertEquals(cds.getArchive(), ClassDataSharing.getArchive(command.toString()));
+		// Used, so not pruned
+		assertTrue(System.currentTimeMillis() - cds.getArchive().lastModified() < DAY);
+	}
+
+	@Test
+	public void dumpedInTheBackground() throws Exception {
+		ClassDataSharing cds = new ClassDataSharing(dir, command(JAVA));
+		cds.dumpInBackground();
+		cds.awaitDump();
+		assertTrue(cds.isDumped());
+		assertFalse(cds.hasFailed());
+		// Leaves nothing else behind
+		assertEquals(2, dir.listFiles().length);
+	}
+
+	@Test
+	public void failedDumpIsNotRetried() throws Exception {
+		ClassDataSharing cds = new ClassDataSharing(dir, command("/bin/false"));
+		assertFalse(cds.dump());
+		assertFalse(cds.isDumped());
+		assertTrue(cds.hasFailed());
+		assertEquals(cds.getCommand(), command("/bin/false"));
+
+		cds = new ClassDataSharing(dir, command("/bin/false"));
+		cds.dumpInBackground();
+		cds.awaitDump();
+		assertFalse(cds.isDumped());
+	}
+
+	@Test
+	public void prune() throws Exception {
+		File current = touch(dir, "tsmp-aaaa-0002.jsa", 0);
+		File older = touch(dir, "tsmp-aaaa-0001.jsa", DAY);
+		File failed = touch(dir, "tsmp-aaaa-0000.jsa.failed", DAY);
+		File other = touch(dir, "tsmp-bbbb-0001.jsa", DAY);
+		File unused = touch(dir, "tsmp-cccc-0001.jsa", 40 * DAY);
+		File unusedFailed = touch(dir, "tsmp-dddd-0001.jsa.failed", 40 * DAY);
+		File foreign = touch(dir, "classes.jsa", 40 * DAY);
+		ClassDataSharing.prune(dir, current, 30 * DAY);
+		assertTrue(current.exists());
+		assertFalse(older.exists());
+		assertFalse(failed.exists());
+		assertTrue(other.exists());
+		assertFalse(unused.exists());
+		assertFalse(unusedFailed.exists());
+		assertTrue(foreign.exists());
+	}
+}
@@ -0,0 +1,172 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Finds the keys an edit changed, writes placed CPUs back as a CPUS property
+ * and reloads edits over the gtacl stand-in.
+ */
+public class ConfigWatcherTest {
+
+	private File log;
+	private File config;
+
+	@Before
+	public void standIn() throws Exception {
+		log = File.createTempFile("gtacl-standin", ".log");
+		config = File.createTempFile("tsmp.config", ".prop");
+		System.setProperty("tsmp.gtacl",
+				"/usr/bin/env GTACL_STANDIN_LOG=" + log.getAbsolutePath() + " /bin/sh src/test/resources/gtacl-standin.sh");
+	}
+
+	@After
+	public void cleanUp() {
+		PathcomSession.closeAll();
+		System.clearProperty("tsmp.gtacl");
+		log.delete();
+		config.delete();
+	}
+
+	private static Properties props(String... pairs) {
+		Properties props = new Properties();
+		for (int i = 0; i < pairs.length; i += 2)
+			props.setProperty(pairs[i], pairs[i + 1]);
+		return props;
+	}
+
+	@Test
+	public void changedKeys() {
+		Properties before = props("NUMSTATIC", "2", "MAXSERVERS", "4", "SERVERCLASS.A.CPUS", "{{0,1}}");
+		Properties after = props("NUMSTATIC", "2", "MAXSERVERS", "6", "SERVERCLASS.A.DEFINE", "=X, FILE $Y");
+		assertEquals(
+				new LinkedHashSet<String>(Arrays.asList("MAXSERVERS", "SERVERCLASS.A.CPUS", "SERVERCLASS.A.DEFINE")),
+				ConfigWatcher.getChangedKeys(before, after));
+	}
+
+	@Test
+	public void unchangedFile() {
+		assertTrue(ConfigWatcher.getChangedKeys(props("NUMSTATIC", "2"), props("NUMSTATIC", "2")).isEmpty());
+		assertTrue(ConfigWatcher.getChangedKeys(new Properties(), new Properties()).isEmpty());
+	}
+
+	@Test
+	public void formatCpus() {
+		assertEquals("{{0,1},{2,3}}", ConfigWatcher.formatCpus(new int[][] { { 0, 1 }, { 2, 3 } }));
+		// A CPU without a backup
+		assertEquals("{{0,1},{2}}", ConfigWatcher.formatCpus(new int[][] { { 0, 1 }, { 2, -1 } }));
+		assertEquals("{{5}}", ConfigWatcher.formatCpus(new int[][] { { 5 } }));
+	}
+
+	@Test
+	public void formattedCpusParseBack() {
+		int[][] cpus = new int[][] { { 3, 0 }, { 1, -1 } };
+		Properties props = props("NUMSTATIC", "2", "MAXSERVERS", "2", "PROCESS_NAMES", "a,b", "CPUS",
+				ConfigWatcher.formatCpus(cpus));
+		TSMPBuilderFactory.Serverclass svc = TSMPBuilderFactory.newServerclass("SC-1", props, "",
+				new File("/usr/bin/java"), "-cp app.jar Main", new File("/tmp"), null);
+		assertEquals(ConfigWatcher.formatCpus(cpus), ConfigWatcher.formatCpus(svc.CPUS));
+	}
+
+	private Properties write(Properties props) throws Exception {
+		Writer w = new FileWriter(config);
+		try {
+			props.store(w, null);
+		} finally {
+			w.close();
+		}
+		return props;
+	}
+
+	private static Properties launched() {
+		return props("PATHMON_NAME", "CWPM", "MAXASSIGNS", "10", "SERVERCLASS.SC-A.PROCESS_NAMES", "a1,a2",
+				"SERVERCLASS.SC-A.NUMSTATIC", "2", "SERVERCLASS.SC-A.MAXSERVERS", "2", "SERVERCLASS.SC-A.CPUS",
+				"{{0,1}}", "SERVERCLASS.SC-B.PROCESS_NAMES", "b1", "SERVERCLASS.SC-B.MAXSERVERS", "2",
+				"SERVERCLASS.SC-B.CPUS", "{{0,1}}");
+	}
+
+	// Starts a watcher on the launched configuration, with the serverclasses
+	// built from it in svcs
+	private ConfigWatcher newWatcher(AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs) throws Exception {
+		Properties props = write(launched());
+		List<TSMPBuilderFactory.Serverclass> list = new ArrayList<TSMPBuilderFactory.Serverclass>();
+		for (String name : Arrays.asList("SC-A", "SC-B"))
+			list.add(TSMPBuilderFactory.newServerclass(name, props, "SERVERCLASS." + name + ".",
+					new File("/usr/bin/java"), "-cp app.jar Main", new File("/tmp"), null));
+		svcs.set(list);
+		return new ConfigWatcher(config, new TSMPBuilderFactory.Pathmon("CWPM"), svcs, props);
+	}
+
+	@Test
+	public void onlyTheEditedServerclassIsAltered() throws Exception {
+		AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs =
+				new AtomicReference<List<TSMPBuilderFactory.Serverclass>>();
+		ConfigWatcher watcher = newWatcher(svcs);
+		List<TSMPBuilderFactory.Serverclass> before = svcs.get();
+
+		Properties edited = launched();
+		edited.setProperty("SERVERCLASS.SC-B.MAXSERVERS", "4");
+		write(edited);
+		watcher.reload();
+
+		List<String> commands = ServerclassStartTest.commands(log);
+		assertEquals(Arrays.asList("OPEN $CWPM", "ALTER SERVER SC-B, MAXSERVERS 4"), commands);
+		assertSame(before.get(0), svcs.get().get(0));
+		assertEquals(4, svcs.get().get(1).MAXSERVERS);
+
+		// Nothing changed since
+		watcher.reload();
+		assertEquals(commands, ServerclassStartTest.commands(log));
+	}
+
+	@Test
+	public void restartOnlyWhereNeeded() throws Exception {
+		AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs =
+				new AtomicReference<List<TSMPBuilderFactory.Serverclass>>();
+		ConfigWatcher watcher = newWatcher(svcs);
+
+		Properties edited = launched();
+		edited.setProperty("SERVERCLASS.SC-A.CPUS", "{{2,3}}");
+		write(edited);
+		watcher.reload();
+
+		List<String> commands = ServerclassStartTest.commands(log);
+		assertEquals("FREEZE SERVER SC-A", commands.get(1));
+		assertEquals("START SERVER SC-A", commands.get(commands.size() - 1));
+		for (String command : commands)
+			assertFalse(command, command.contains("SC-B"));
+		assertEquals(2, svcs.get().get(0).CPUS[0][0]);
+	}
+
+	@Test
+	public void pathmonKeysWaitForTheNextLaunch() throws Exception {
+		AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs =
+				new AtomicReference<List<TSMPBuilderFactory.Serverclass>>();
+		ConfigWatcher watcher = newWatcher(svcs);
+		List<TSMPBuilderFactory.Serverclass> before = svcs.get();
+
+		Properties edited = launched();
+		edited.setProperty("MAXASSIGNS", "20");
+		write(edited);
+		watcher.reload();
+
+		assertTrue(ServerclassStartTest.commands(log).isEmpty());
+		assertSame(before, svcs.get());
+	}
+}
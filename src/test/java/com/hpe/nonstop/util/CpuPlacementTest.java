@@ -0,0 +1,93 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Places primary/backup pairs on CPUs of a given load.
+ */
+public class CpuPlacementTest {
+
+	// cpuLoad : cpu, load, cpu, load...
+	private static CpuPlacement newPlacement(final double... cpuLoad) {
+		final Map<Integer, Double> load = new HashMap<Integer, Double>();
+		Integer[] cpus = new Integer[cpuLoad.length / 2];
+		for (int i = 0; i < cpuLoad.length; i += 2) {
+			cpus[i / 2] = (int) cpuLoad[i];
+			load.put((int) cpuLoad[i], cpuLoad[i + 1]);
+		}
+		return new CpuPlacement(Arrays.asList(cpus), new CpuPlacement.LoadSource() {
+			public Map<Integer, Double> getLoad(List<Integer> cpus) {
+				return load;
+			}
+		});
+	}
+
+	@Test
+	public void idleCpusGetOnePairEach() throws Exception {
+		int[][] pairs = newPlacement(0, 0, 1, 0, 2, 0, 3, 0).place(2);
+		assertArrayEquals(new int[] { 0, 1 }, pairs[0]);
+		assertArrayEquals(new int[] { 2, 3 }, pairs[1]);
+	}
+
+	@Test
+	public void leastLoadedCpuIsPrimary() throws Exception {
+		int[][] pairs = newPlacement(0, 3, 1, 2, 2, 1, 3, 2.5).place(1);
+		assertArrayEquals(new int[] { 2, 1 }, pairs[0]);
+	}
+
+	@Test
+	public void hotCpuIsOnlyABackupOfLastResort() throws Exception {
+		// CPU 0 is above 1.5 times the average
+		int[][] pairs = newPlacement(0, 10, 1, 2, 2, 2.5).place(3);
+		for (int[] pair : pairs) {
+			assertNotEquals(0, pair[0]);
+			assertNotEquals(0, pair[1]);
+		}
+		// With two CPUs the hot one is the only backup left
+		assertArrayEquals(new int[] { 1, 0 }, newPlacement(0, 10, 1, 0).place(1)[0]);
+	}
+
+	@Test
+	public void placementsOfOneInstanceSpread() throws Exception {
+		CpuPlacement placement = newPlacement(0, 0, 1, 0, 2, 0, 3, 0);
+		int first = placement.place(1)[0][0];
+		int second = placement.place(1)[0][0];
+		assertNotEquals(first, second);
+	}
+
+	@Test
+	public void singleCpuHasNoBackup() throws Exception {
+		int[][] pairs = newPlacement(4, 0).place(0);
+		assertEquals(1, pairs.length);
+		assertArrayEquals(new int[] { 4, -1 }, pairs[0]);
+	}
+
+	@Test
+	public void statusLoad() {
+		String status = "Process       Pri PFR %WT Userid   Program file            Hometerm\n"
+				+ "$A      0,269   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n"
+				+ "        1,300   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n"
+				+ "$B      0,12    150     001 255,255  $SYSTEM.SYSTEM.TACL     $ZHOME\n"
+				+ "$C      5,12    150     001 255,255  $SYSTEM.SYSTEM.TACL     $ZHOME\n";
+		Map<Integer, Double> load = CpuPlacement.StatusLoadSource.parse(status, Arrays.asList(0, 1, 2));
+		assertEquals(2 * CpuPlacement.PRIMARY_LOAD, load.get(0), 0);
+		assertEquals(CpuPlacement.BACKUP_LOAD, load.get(1), 0);
+		assertEquals(0, load.get(2), 0);
+		assertEquals(3, load.size());
+	}
+
+	@Test
+	public void cpuList() {
+		assertEquals(Arrays.asList(0, 1, 2, 3), CpuPlacement.parseCpuList("0, 1;2 3"));
+		assertEquals(Arrays.asList(7), CpuPlacement.parseCpuList("7"));
+	}
+}
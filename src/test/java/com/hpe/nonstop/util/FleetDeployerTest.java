@@ -0,0 +1,162 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Reads inventories and deploys to targets with a deployment that only
+ * records what it was asked to do.
+ */
+public class FleetDeployerTest {
+
+	private static List<FleetDeployer.Target> readInventory(String inventory, Properties base) throws Exception {
+		File file = File.createTempFile("inventory", ".prop");
+		try {
+			Files.write(file.toPath(), inventory.getBytes("UTF-8"));
+			return FleetDeployer.readInventory(file, base);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static List<FleetDeployer.Target> targets(String... names) throws Exception {
+		StringBuffer inventory = new StringBuffer("TARGETS=");
+		for (String name : names)
+			inventory.append(name).append(',');
+		return readInventory(inventory.toString(), new Properties());
+	}
+
+	private static List<String> names(List<FleetDeployer.Target> targets) {
+		List<String> names = new ArrayList<String>();
+		for (FleetDeployer.Target target : targets)
+			names.add(target.NAME);
+		return names;
+	}
+
+	private static List<String> statuses(List<FleetDeployer.Target> targets) {
+		List<String> statuses = new ArrayList<String>();
+		for (FleetDeployer.Target target : targets)
+			statuses.add(target.status);
+		return statuses;
+	}
+
+	@Test
+	public void inventory() throws Exception {
+		Properties base = new Properties();
+		base.setProperty("PRIMARY_CPU", "0");
+		base.setProperty("SERVERCLASS.ORDERS.NUMSTATIC", "2");
+		base.setProperty("MAXLINKS", "16");
+		List<FleetDeployer.Target> targets = readInventory("TARGETS=B, A ,B\n"
+				+ "MAXLINKS=8\n"
+				+ "TARGET.D.PATHMON_NAME=A\n"
+				+ "TARGET.C.PRIMARY_CPU=2\n"
+				+ "TARGET.C.SERVERCLASS.ORDERS.NUMSTATIC=4\n", base);
+		// TARGETS in order, then the sections by name
+		assertEquals(Arrays.asList("B", "A", "C", "D"), names(targets));
+
+		FleetDeployer.Target b = targets.get(0);
+		assertEquals("B", b.getPathmonName());
+		assertEquals("0", b.props.getProperty("PRIMARY_CPU"));
+		assertEquals("8", b.props.getProperty("MAXLINKS"));
+
+		FleetDeployer.Target c = targets.get(2);
+		assertEquals("2", c.props.getProperty("PRIMARY_CPU"));
+		assertEquals("4", c.props.getProperty("SERVERCLASS.ORDERS.NUMSTATIC"));
+		assertEquals("8", c.props.getProperty("MAXLINKS"));
+		assertFalse(c.props.containsKey("TARGETS"));
+		assertFalse(c.props.containsKey("TARGET.C.PRIMARY_CPU"));
+		// The base is left alone
+		assertEquals("0", base.getProperty("PRIMARY_CPU"));
+
+		assertEquals("A", targets.get(3).getPathmonName());
+	}
+
+	@Test
+	public void atMostParallelismAtOnce() throws Exception {
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		FleetDeployer fleet = new FleetDeployer();
+		fleet.PARALLELISM = 3;
+		List<FleetDeployer.Target> targets = targets("P1", "P2", "P3", "P4", "P5", "P6", "P7", "P8");
+		assertTrue(fleet.run(targets, new FleetDeployer.Deployment() {
+			public void deploy(FleetDeployer.Target target) throws Exception {
+				int now = active.incrementAndGet();
+				for (int m = max.get(); now > m && !max.compareAndSet(m, now); m = max.get())
+					;
+				Thread.sleep(50);
+				active.decrementAndGet();
+			}
+		}));
+		assertEquals(3, max.get());
+		assertEquals(Collections.nCopies(8, "DEPLOYED"), statuses(targets));
+	}
+
+	@Test
+	public void onePathmonAtATime() throws Exception {
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final AtomicInteger onA = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		FleetDeployer fleet = new FleetDeployer();
+		fleet.PARALLELISM = 4;
+		List<FleetDeployer.Target> targets = readInventory("TARGETS=A\nTARGET.X.PATHMON_NAME=a\nTARGET.Y.PATHMON_NAME=A\n",
+				new Properties());
+		fleet.run(targets, new FleetDeployer.Deployment() {
+			public void deploy(FleetDeployer.Target target) throws Exception {
+				if (onA.incrementAndGet() > 1)
+					overlaps.incrementAndGet();
+				order.add(target.NAME);
+				Thread.sleep(20);
+				onA.decrementAndGet();
+			}
+		});
+		assertEquals(0, overlaps.get());
+		assertEquals(Arrays.asList("A", "X", "Y"), order);
+	}
+
+	@Test
+	public void stopsOnTheErrorRate() throws Exception {
+		FleetDeployer fleet = new FleetDeployer();
+		fleet.PARALLELISM = 1;
+		fleet.MIN_SAMPLES = 4;
+		fleet.MAX_ERROR_RATE = 0.25;
+		List<FleetDeployer.Target> targets = targets("P1", "P2", "P3", "P4", "P5", "P6");
+		assertFalse(fleet.run(targets, failing("P1", "P2")));
+		// Two failures stop nothing before MIN_SAMPLES targets are done
+		assertEquals(Arrays.asList("FAILED", "FAILED", "DEPLOYED", "DEPLOYED", "SKIPPED", "SKIPPED"),
+				statuses(targets));
+		assertEquals("P1 failed", targets.get(0).error.getMessage());
+	}
+
+	@Test
+	public void carriesOnBelowTheErrorRate() throws Exception {
+		FleetDeployer fleet = new FleetDeployer();
+		fleet.PARALLELISM = 1;
+		fleet.MIN_SAMPLES = 4;
+		fleet.MAX_ERROR_RATE = 0.25;
+		List<FleetDeployer.Target> targets = targets("P1", "P2", "P3", "P4", "P5", "P6");
+		assertFalse(fleet.run(targets, failing("P1")));
+		assertEquals(Arrays.asList("FAILED", "DEPLOYED", "DEPLOYED", "DEPLOYED", "DEPLOYED", "DEPLOYED"),
+				statuses(targets));
+	}
+
+	private static FleetDeployer.Deployment failing(final String... names) {
+		return new FleetDeployer.Deployment() {
+			public void deploy(FleetDeployer.Target target) throws Exception {
+				if (Arrays.asList(names).contains(target.NAME))
+					throw new RuntimeException(target.NAME + " failed");
+			}
+		};
+	}
+}
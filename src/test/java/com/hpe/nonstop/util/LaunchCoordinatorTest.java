@@ -0,0 +1,83 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Hands the bring-up lease of a PATHMON from one launcher to the next. Every
+ * test uses its own PATHMON name.
+ */
+public class LaunchCoordinatorTest {
+
+	private static File dir;
+
+	@BeforeClass
+	public static void lockDir() throws Exception {
+		dir = Files.createTempDirectory("tsmp-lock").toFile();
+		System.setProperty("tsmp.lock.dir", dir.getAbsolutePath());
+	}
+
+	@AfterClass
+	public static void cleanUp() {
+		System.clearProperty("tsmp.lock.dir");
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private static LaunchCoordinator.Lease get(CompletableFuture<LaunchCoordinator.Lease> lease) throws Exception {
+		return lease.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void followerFindsThePathmonUp() throws Exception {
+		long since = System.currentTimeMillis();
+		LaunchCoordinator.Lease leader = get(LaunchCoordinator.lead("PMUP", since));
+		assertNotNull(leader);
+		CompletableFuture<LaunchCoordinator.Lease> follower = LaunchCoordinator.lead("PMUP", since);
+		Thread.sleep(100);
+		assertFalse(follower.isDone());
+
+		leader.release(null);
+		assertNull(get(follower));
+		assertTrue(new File(dir, "PMUP.ready").isFile());
+	}
+
+	@Test
+	public void followerTakesOverFromAFailedLeader() throws Exception {
+		long since = System.currentTimeMillis();
+		LaunchCoordinator.Lease leader = get(LaunchCoordinator.lead("PMFAIL", since));
+		CompletableFuture<LaunchCoordinator.Lease> follower = LaunchCoordinator.lead("PMFAIL", since);
+
+		leader.release(new IllegalStateException("configure failed"));
+		LaunchCoordinator.Lease next = get(follower);
+		assertNotNull(next);
+		// No ready time was written, the PATHMON is not known to be up
+		assertFalse(new File(dir, "PMFAIL.ready").isFile());
+		next.release(null);
+	}
+
+	@Test
+	public void readyTimeAfterTheCheckSkipsTheBringUp() throws Exception {
+		long before = System.currentTimeMillis() - 1000;
+		get(LaunchCoordinator.lead("PMLATE", before)).release(null);
+
+		// A launcher that checked the PATHMON before it was up need not
+		// bring it up, one that checked after it went down again must
+		assertNull(get(LaunchCoordinator.lead("PMLATE", before)));
+		LaunchCoordinator.Lease again = get(LaunchCoordinator.lead("PMLATE", System.currentTimeMillis() + 1000));
+		assertNotNull(again);
+		again.release(null);
+	}
+}
@@ -0,0 +1,149 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Saves launch plans, reads them back through the mapped file and checks
+ * which inputs select a new plan.
+ */
+public class LaunchPlanTest {
+
+	private static final List<String> COMMAND = Arrays.asList("-Xmx64m", "-cp", "app.jar", "Main");
+
+	private File dir;
+	private File jar;
+	private File config;
+
+	@Before
+	public void files() throws Exception {
+		dir = Files.createTempDirectory("plans").toFile();
+		jar = new File(dir, "app.jar");
+		Files.write(jar.toPath(), "jar".getBytes("UTF-8"));
+		config = new File(dir, "tsmp.config.prop");
+		Files.write(config.toPath(), "SERVERCLASSES=SC-1\n".getBytes("UTF-8"));
+	}
+
+	@After
+	public void cleanUp() {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private static LaunchPlan newPlan() {
+		TSMPBuilderFactory.Pathmon pmon = new TSMPBuilderFactory.Pathmon("PM");
+		pmon.MAXSERVERCLASSES = 3;
+		pmon.PRIMARY_CPU = 2;
+		pmon.BACKUP_CPU = 3;
+		pmon.START_TIMEOUT = 5000;
+		Properties props = new Properties();
+		props.setProperty("NUMSTATIC", "2");
+		props.setProperty("MAXSERVERS", "4");
+		props.setProperty("PROCESS_NAMES", "p1,p2");
+		props.setProperty("CPUS", "{{0,1},{2,3}}");
+		props.setProperty("STDOUT", "/tmp/out");
+		props.setProperty("UPGRADE", "ROLLING");
+		props.setProperty("READY_INTERVAL", "250");
+		props.setProperty("DEFINE", "(=tcpip^process^name, FILE $ZTC0)");
+		TSMPBuilderFactory.Serverclass svc = TSMPBuilderFactory.newServerclass("SC-1", props, "",
+				new File("/usr/bin/java"), "-Xmx64m -cp app.jar Main", new File("/tmp"), null);
+		svc.ENV = new String[][] { { "Mode", "fast" } };
+		return new LaunchPlan(pmon, Arrays.asList(svc));
+	}
+
+	private String key(File cwd) throws Exception {
+		return LaunchPlan.key(jar, config, COMMAND, config.getPath(), null, cwd.getAbsolutePath());
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		LaunchPlan plan = newPlan();
+		plan.archive = new File("/tmp/tsmp-aaaa-0001.jsa");
+		String key = key(new File("/tmp"));
+		plan.save(dir, key);
+		assertTrue(new File(dir, key + ".plan").isFile());
+
+		LaunchPlan loaded = LaunchPlan.load(dir, key);
+		assertEquals("PM", loaded.pmon.getName());
+		assertEquals(3, loaded.pmon.MAXSERVERCLASSES);
+		assertEquals(2, loaded.pmon.PRIMARY_CPU);
+		assertEquals(3, loaded.pmon.BACKUP_CPU);
+		assertEquals(5000, loaded.pmon.START_TIMEOUT);
+		assertEquals(plan.archive, loaded.archive);
+
+		TSMPBuilderFactory.Serverclass svc = plan.svcs.get(0);
+		TSMPBuilderFactory.Serverclass read = loaded.svcs.get(0);
+		assertEquals(svc.getName(), read.getName());
+		assertArrayEquals(svc.PROCESS, read.PROCESS);
+		assertArrayEquals(svc.CPUS, read.CPUS);
+		assertArrayEquals(svc.ENV, read.ENV);
+		assertEquals(svc.STDOUT, read.STDOUT);
+		assertEquals(svc.getDefines(), read.getDefines());
+		assertTrue(read.ROLLING);
+		assertEquals(250, read.READY_INTERVAL);
+		assertEquals(svc.getConfiguration(), read.getConfiguration());
+	}
+
+	@Test
+	public void keyFollowsTheInputs() throws Exception {
+		String key = key(new File("/tmp"));
+		assertEquals(key, key(new File("/tmp")));
+
+		// Another working directory
+		assertNotEquals(key, key(new File("/var/tmp")));
+
+		// Same length, other content
+		Files.write(config.toPath(), "SERVERCLASSES=SC-2\n".getBytes("UTF-8"));
+		String edited = key(new File("/tmp"));
+		assertNotEquals(key, edited);
+
+		// A rebuilt jar of the same size
+		assertTrue(jar.setLastModified(jar.lastModified() - 60000));
+		assertNotEquals(edited, key(new File("/tmp")));
+	}
+
+	@Test
+	public void changedInputsFindNoPlan() throws Exception {
+		newPlan().save(dir, key(new File("/tmp")));
+		assertTrue(jar.setLastModified(jar.lastModified() - 60000));
+		assertNull(LaunchPlan.load(dir, key(new File("/tmp"))));
+	}
+
+	@Test
+	public void placedAtLaunchIsNotSaved() throws Exception {
+		LaunchPlan plan = newPlan();
+		plan.svcs.get(0).AUTO_CPUS = true;
+		String key = key(new File("/tmp"));
+		plan.save(dir, key);
+		assertFalse(new File(dir, key + ".plan").exists());
+	}
+
+	@Test
+	public void unreadablePlanIsIgnored() throws Exception {
+		String key = key(new File("/tmp"));
+		Files.write(new File(dir, key + ".plan").toPath(), new byte[] { 1, 2, 3, 4, 5, 6 });
+		assertNull(LaunchPlan.load(dir, key));
+
+		// Cut short
+		newPlan().save(dir, key);
+		File file = new File(dir, key + ".plan");
+		byte[] b = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(b, b.length / 2));
+		assertNull(LaunchPlan.load(dir, key));
+	}
+}
@@ -0,0 +1,177 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Renders the metrics text of polls of the gtacl stand-in, which reports
+ * $XA and $XB for every serverclass and $XA stopped in SC-DOWN.
+ */
+public class MetricsExporterTest {
+
+	@BeforeClass
+	public static void standIn() {
+		System.setProperty("tsmp.gtacl", "/bin/sh src/test/resources/gtacl-standin.sh");
+	}
+
+	@After
+	public void closeAll() {
+		PathcomSession.closeAll();
+	}
+
+	private static TSMPBuilderFactory.Serverclass newServerclass(String name) {
+		Properties props = new Properties();
+		props.setProperty("NUMSTATIC", "2");
+		props.setProperty("MAXSERVERS", "4");
+		props.setProperty("PROCESS_NAMES", "xa,xb");
+		props.setProperty("CPUS", "{{0,1},{2,3}}");
+		return TSMPBuilderFactory.newServerclass(name, props, "", new File("/usr/bin/java"), "-cp app.jar Main",
+				new File("/tmp"), null);
+	}
+
+	// Polls once and renders
+	private static String poll(MetricsExporter exporter) throws Exception {
+		PathcomSession session = PathcomSession.acquire("PMMETRICS");
+		try {
+			StringBuffer metrics = new StringBuffer();
+			exporter.poll(session, metrics);
+			return exporter.render(metrics, true, 0.25);
+		} finally {
+			PathcomSession.release(session);
+		}
+	}
+
+	private static void assertLine(String text, String line) {
+		assertTrue(text, Arrays.asList(text.split("\n")).contains(line));
+	}
+
+	@Test
+	public void serverclassMetrics() throws Exception {
+		MetricsExporter exporter = new MetricsExporter(new TSMPBuilderFactory.Pathmon("PMMETRICS"),
+				Arrays.asList(newServerclass("SC-1")));
+		String text = poll(exporter);
+		assertLine(text, "tsmp_pathmon_up{pathmon=\"PMMETRICS\"} 1");
+		assertLine(text, "# TYPE tsmp_server_processes gauge");
+		assertLine(text, "tsmp_server_processes{serverclass=\"SC-1\",state=\"running\"} 2");
+		assertLine(text, "tsmp_server_processes{serverclass=\"SC-1\",state=\"other\"} 0");
+		assertLine(text, "tsmp_server_busy{serverclass=\"SC-1\"} 1");
+		assertLine(text, "tsmp_server_free{serverclass=\"SC-1\"} 1");
+		assertLine(text, "tsmp_server_links{serverclass=\"SC-1\"} 2");
+		assertLine(text, "tsmp_server_queued{serverclass=\"SC-1\"} 3");
+		assertLine(text, "# TYPE tsmp_server_requests_total counter");
+		assertLine(text, "tsmp_server_requests_total{serverclass=\"SC-1\"} 42");
+		assertLine(text, "tsmp_server_link_waits_total{serverclass=\"SC-1\"} 5");
+		assertLine(text, "tsmp_process_restarts_total{process=\"$XB\",configured_cpu=\"2\"} 0");
+		assertLine(text, "tsmp_poll_duration_seconds{pathmon=\"PMMETRICS\"} 0.250000");
+	}
+
+	@Test
+	public void everySampleFollowsItsHelpAndType() throws Exception {
+		MetricsExporter exporter = new MetricsExporter(new TSMPBuilderFactory.Pathmon("PMMETRICS"),
+				Arrays.asList(newServerclass("SC-1"), newServerclass("SC-2")));
+		String name = null;
+		String[] lines = poll(exporter).split("\n");
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i].startsWith("# HELP ")) {
+				name = lines[i].split(" ")[2];
+				assertTrue(lines[i + 1], lines[i + 1].startsWith("# TYPE " + name + " "));
+				i++;
+			} else {
+				assertTrue(lines[i], lines[i].startsWith(name + "{"));
+			}
+		}
+	}
+
+	@Test
+	public void downPathmonHasNoServerclassMetrics() {
+		MetricsExporter exporter = new MetricsExporter(new TSMPBuilderFactory.Pathmon("PMMETRICS"),
+				Arrays.asList(newServerclass("SC-1")));
+		String text = exporter.render(new StringBuffer("tsmp_server_busy{serverclass=\"SC-1\"} 1\n"), false, 0);
+		assertLine(text, "tsmp_pathmon_up{pathmon=\"PMMETRICS\"} 0");
+		assertFalse(text, text.contains("tsmp_server_busy"));
+	}
+
+	@Test
+	public void restartsOfTheServerclassesSet() throws Exception {
+		AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs =
+				new AtomicReference<List<TSMPBuilderFactory.Serverclass>>(Arrays.asList(newServerclass("SC-1")));
+		MetricsExporter exporter = new MetricsExporter(new TSMPBuilderFactory.Pathmon("PMMETRICS"), svcs);
+		poll(exporter);
+		// A rebuilt serverclass with the same processes, $XA is stopped
+		svcs.set(Arrays.asList(newServerclass("SC-DOWN")));
+		String text = poll(exporter);
+		assertLine(text, "tsmp_server_processes{serverclass=\"SC-DOWN\",state=\"other\"} 1");
+		assertLine(text, "tsmp_process_restarts_total{process=\"$XA\",configured_cpu=\"0\"} 1");
+		assertLine(text, "tsmp_process_restarts_total{process=\"$XB\",configured_cpu=\"2\"} 0");
+		assertFalse(text, text.contains("serverclass=\"SC-1\""));
+	}
+
+	@Test
+	public void restartBetweenPolls() throws Exception {
+		AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs =
+				new AtomicReference<List<TSMPBuilderFactory.Serverclass>>(Arrays.asList(newServerclass("SC-1")));
+		MetricsExporter exporter = new MetricsExporter(new TSMPBuilderFactory.Pathmon("PMMETRICS"), svcs);
+		poll(exporter);
+		// $XA runs in both polls, with another PIN in the second
+		svcs.set(Arrays.asList(newServerclass("SC-NEWPIN")));
+		String text = poll(exporter);
+		assertLine(text, "tsmp_server_processes{serverclass=\"SC-NEWPIN\",state=\"running\"} 2");
+		assertLine(text, "tsmp_process_restarts_total{process=\"$XA\",configured_cpu=\"0\"} 1");
+		assertLine(text, "tsmp_process_restarts_total{process=\"$XB\",configured_cpu=\"2\"} 0");
+		// Same PIN again
+		text = poll(exporter);
+		assertLine(text, "tsmp_process_restarts_total{process=\"$XA\",configured_cpu=\"0\"} 1");
+	}
+
+	@Test
+	public void processThatGoesAwayIsCountedOnce() throws Exception {
+		AtomicReference<List<TSMPBuilderFactory.Serverclass>> svcs =
+				new AtomicReference<List<TSMPBuilderFactory.Serverclass>>(Arrays.asList(newServerclass("SC-1")));
+		MetricsExporter exporter = new MetricsExporter(new TSMPBuilderFactory.Pathmon("PMMETRICS"), svcs);
+		poll(exporter);
+		svcs.set(Arrays.asList(newServerclass("SC-GONE")));
+		poll(exporter);
+		String text = poll(exporter);
+		assertLine(text, "tsmp_process_restarts_total{process=\"$XA\",configured_cpu=\"0\"} 1");
+		// Back with the PIN it had, after not being reported
+		svcs.set(Arrays.asList(newServerclass("SC-1")));
+		text = poll(exporter);
+		assertLine(text, "tsmp_process_restarts_total{process=\"$XA\",configured_cpu=\"0\"} 1");
+	}
+
+	@Test
+	public void endpointAnswersGetOnly() throws Exception {
+		MetricsExporter exporter = new MetricsExporter(new TSMPBuilderFactory.Pathmon("PMMETRICS"),
+				Arrays.asList(newServerclass("SC-1")));
+		exporter.PORT = 0;
+		exporter.start();
+		try {
+			URL url = new URL("http://127.0.0.1:" + exporter.getPort() + "/metrics");
+			HttpURLConnection get = (HttpURLConnection) url.openConnection();
+			assertEquals(200, get.getResponseCode());
+			get.disconnect();
+			for (String method : new String[] { "POST", "HEAD", "DELETE" }) {
+				HttpURLConnection other = (HttpURLConnection) url.openConnection();
+				other.setRequestMethod(method);
+				assertEquals(method, 405, other.getResponseCode());
+				assertEquals("GET", other.getHeaderField("Allow"));
+				other.disconnect();
+			}
+		} finally {
+			exporter.stop();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Maps the output of a PATHCOM batch back to its commands, and adds and
+ * starts serverclasses in batch mode over the gtacl stand-in.
+ */
+public class PathcomBatchTest {
+
+	private static final String BANNER = "$Y123: PATHCOM - T0844L01 - (01JUN18)\n=";
+	private static final String ERROR = "*ERROR* PATHCOM - 1040 ENTRY ALREADY EXISTS\n=";
+
+	private File log;
+
+	@Before
+	public void standIn() throws Exception {
+		log = File.createTempFile("gtacl-standin", ".log");
+		System.setProperty("tsmp.gtacl",
+				"/usr/bin/env GTACL_STANDIN_LOG=" + log.getAbsolutePath() + " /bin/sh src/test/resources/gtacl-standin.sh");
+		System.setProperty("tsmp.pathcom.mode", "batch");
+	}
+
+	@After
+	public void cleanUp() {
+		PathcomSession.closeAll();
+		System.clearProperty("tsmp.gtacl");
+		System.clearProperty("tsmp.pathcom.mode");
+		log.delete();
+	}
+
+	private static List<PathcomSession.Result> read(String output, String... commands) throws Exception {
+		return PathcomBatch.read(new ByteArrayInputStream(output.getBytes()), Arrays.asList(commands));
+	}
+
+	@Test
+	public void bannerComesBeforeTheFirstCommand() throws Exception {
+		List<PathcomSession.Result> results = read(BANNER + "\n=INFO\n=", "OPEN $PM", "INFO PATHMON", "EXIT");
+		assertEquals(3, results.size());
+		assertEquals("OPEN $PM", results.get(0).command);
+		assertFalse(results.get(0).output.contains("PATHCOM"));
+		assertEquals("INFO PATHMON", results.get(1).command);
+		assertEquals("INFO\n", results.get(1).output);
+	}
+
+	@Test
+	public void echoedCommandsAreDropped() throws Exception {
+		List<PathcomSession.Result> results = read(BANNER + "OPEN $PM\n=SET SERVER NUMSTATIC 2\n=EXIT\n", "OPEN $PM",
+				"SET SERVER NUMSTATIC 2", "EXIT");
+		assertEquals("", results.get(0).output);
+		assertEquals("", results.get(1).output);
+		assertEquals("", results.get(2).output);
+	}
+
+	@Test
+	public void silentExitIsPadded() throws Exception {
+		// PATHCOM ends at EXIT without a prompt after it
+		List<PathcomSession.Result> results = read(BANNER + "\n=", "OPEN $PM", "EXIT");
+		assertEquals(2, results.size());
+		assertEquals("EXIT", results.get(1).command);
+		assertFalse(results.get(1).error);
+	}
+
+	@Test
+	public void errorInTheMiddle() throws Exception {
+		List<PathcomSession.Result> results = read(BANNER + "\n=\n=" + ERROR + "\n=", "OPEN $PM", "RESET SERVER",
+				"ADD SERVER A", "START SERVER A", "EXIT");
+		assertEquals(5, results.size());
+		assertFalse(results.get(1).error);
+		assertEquals("ADD SERVER A", results.get(2).command);
+		assertEquals(1040, results.get(2).errorCode);
+		// PATHCOM went on after the error
+		assertEquals("START SERVER A", results.get(3).command);
+		assertFalse(results.get(3).error);
+	}
+
+	@Test
+	public void outputEndingEarlyThrows() throws Exception {
+		try {
+			read(BANNER + "\n=", "OPEN $PM", "INFO PATHMON", "START SERVER A", "EXIT");
+			fail("short output accepted");
+		} catch (RuntimeException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().startsWith("PATHCOM batch ended after 2 of 4"));
+		}
+	}
+
+	@Test
+	public void executeOverTheStandIn() throws Exception {
+		List<PathcomSession.Result> results = PathcomBatch.execute("PBEXEC",
+				Arrays.asList("SET SERVER MAXSERVERS 2", "ADD SERVER FAIL", "STATS SERVER X"));
+		assertEquals(3, results.size());
+		assertTrue(results.get(1).error);
+		assertEquals("REQUESTS 42\nLINK WAITS 5\n", results.get(2).output);
+		assertEquals(Arrays.asList("OPEN $PBEXEC", "SET SERVER MAXSERVERS 2", "ADD SERVER FAIL", "STATS SERVER X",
+				"EXIT"), ServerclassStartTest.commands(log));
+	}
+
+	private void configureAndStart(String pathmon, TSMPBuilderFactory.Serverclass... svcs) throws Exception {
+		TSMPBuilderFactory.Serverclass.configureAndStartInPathmon(new TSMPBuilderFactory.Pathmon(pathmon),
+				Arrays.asList(svcs));
+	}
+
+	@Test
+	public void startIsABatchOfItsOwn() throws Exception {
+		configureAndStart("PBSTART", ServerclassStartTest.newServerclass("SC-A"),
+				ServerclassStartTest.newServerclass("OLD-B"));
+		List<String> commands = ServerclassStartTest.commands(log);
+		int start = commands.indexOf("START SERVER (SC-A, OLD-B)");
+		assertEquals("OPEN $PBSTART", commands.get(start - 1));
+		assertEquals("EXIT", commands.get(start - 2));
+		assertTrue(commands.indexOf("ADD SERVER OLD-B") < start);
+	}
+
+	@Test
+	public void noStartAfterAFailedConfiguration() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("PROCESS_NAMES", "f1");
+		TSMPBuilderFactory.Serverclass failing = TSMPBuilderFactory.newServerclass("SC-F", props, "",
+				new File("/usr/bin/FAIL"), "-cp app.jar Main", new File("/tmp"), null);
+		try {
+			configureAndStart("PBHALF", ServerclassStartTest.newServerclass("SC-A"), failing);
+			fail("failed configuration not reported");
+		} catch (RuntimeException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().contains("FAIL"));
+		}
+		List<String> commands = ServerclassStartTest.commands(log);
+		assertEquals(0, ServerclassStartTest.count(commands, "START"));
+		// SC-F was added without its program and is deleted again
+		assertEquals(Arrays.asList("DELETE SERVER SC-F"), filter(commands, "DELETE"));
+	}
+
+	private static List<String> filter(List<String> commands, String prefix) {
+		List<String> matching = new ArrayList<String>();
+		for (String command : commands) {
+			if (command.startsWith(prefix))
+				matching.add(command);
+		}
+		return matching;
+	}
+}
@@ -0,0 +1,154 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Feeds PATHCOM replies to the parser split at every byte boundary and checks
+ * that the result is the same as for the reply read in one piece.
+ */
+public class PathcomOutputParserTest {
+
+	private static final String[] REPLIES = { "\n=", "=",
+			"*ERROR* PATHCOM - 1040 ENTRY ALREADY EXISTS\n=",
+			"SERVER SC-1\n  DEFINE =TCPIP^PROCESS^NAME, FILE \\NODE.$ZTC0\n  PROCESS $CR000\n=",
+			"SERVER  RUNNING  ERROR  INFO\nSC-1        2\n=",
+			"line one\r\n** *ERROR* PATHCOM - 1070 SERVER CLASS NOT FOUND\r\n=" };
+
+	// Feeds the reply in the pieces given by the split points, returns the
+	// result at the prompt
+	private static PathcomSession.Result feed(PathcomOutputParser parser, String reply, int... splits) {
+		byte[] bytes = reply.getBytes();
+		int from = 0;
+		boolean prompt = false;
+		for (int i = 0; i <= splits.length; i++) {
+			int to = i < splits.length ? splits[i] : bytes.length;
+			if (to > from)
+				prompt = parser.feed(bytes, from, to - from);
+			from = to;
+		}
+		assertTrue("no prompt after " + reply, prompt);
+		return parser.finish("cmd");
+	}
+
+	private static void assertSame(PathcomSession.Result expected, PathcomSession.Result actual) {
+		assertEquals(expected.output, actual.output);
+		assertEquals(expected.errorCode, actual.errorCode);
+		assertEquals(expected.error, actual.error);
+	}
+
+	@Test
+	public void wholeReplies() {
+		PathcomOutputParser parser = new PathcomOutputParser(false, null);
+		assertEquals("", feed(parser, REPLIES[0]).output.trim());
+		assertEquals(0, feed(parser, REPLIES[1]).errorCode);
+		assertEquals(1040, feed(parser, REPLIES[2]).errorCode);
+		PathcomSession.Result info = feed(parser, REPLIES[3]);
+		assertFalse(info.error);
+		assertTrue(info.output.contains("DEFINE =TCPIP^PROCESS^NAME"));
+		assertEquals(0, feed(parser, REPLIES[4]).errorCode);
+		assertEquals(1070, feed(parser, REPLIES[5]).errorCode);
+	}
+
+	@Test
+	public void everySplit() {
+		for (String reply : REPLIES) {
+			PathcomSession.Result whole = feed(new PathcomOutputParser(false, null), reply);
+			int n = reply.getBytes().length;
+			for (int i = 0; i <= n; i++) {
+				for (int j = i; j <= n; j++) {
+					// After a first reply, so the state finish leaves is used
+					PathcomOutputParser parser = new PathcomOutputParser(false, null);
+					feed(parser, "\n=");
+					assertSame(whole, feed(parser, reply, i, j));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void byteAtATime() {
+		PathcomOutputParser parser = new PathcomOutputParser(false, null);
+		for (String reply : REPLIES) {
+			PathcomSession.Result whole = feed(new PathcomOutputParser(false, null), reply);
+			int n = reply.getBytes().length;
+			int[] splits = new int[n];
+			for (int i = 0; i < n; i++)
+				splits[i] = i;
+			assertSame(whole, feed(parser, reply, splits));
+		}
+	}
+
+	@Test
+	public void randomSplits() {
+		Random random = new Random(42);
+		PathcomOutputParser parser = new PathcomOutputParser(false, null);
+		for (int round = 0; round < 2000; round++) {
+			String reply = REPLIES[random.nextInt(REPLIES.length)];
+			PathcomSession.Result whole = feed(new PathcomOutputParser(false, null), reply);
+			int n = reply.getBytes().length;
+			List<Integer> points = new ArrayList<Integer>();
+			for (int i = 1; i < n; i++)
+				if (random.nextInt(3) == 0)
+					points.add(i);
+			int[] splits = new int[points.size()];
+			for (int i = 0; i < splits.length; i++)
+				splits[i] = points.get(i);
+			assertSame(whole, feed(parser, reply, splits));
+		}
+	}
+
+	@Test
+	public void equalsInsideALineIsNotAPrompt() {
+		PathcomOutputParser parser = new PathcomOutputParser(false, null);
+		byte[] info = "  DEFINE =TCP, FILE $ZTC0\nA=B\n".getBytes();
+		assertFalse(parser.feed(info, 0, info.length));
+		assertTrue(parser.feed("=".getBytes(), 0, 1));
+		assertEquals("  DEFINE =TCP, FILE $ZTC0\nA=B\n", parser.finish("cmd").output);
+	}
+
+	@Test
+	public void feedStopsAtThePrompt() {
+		// Whatever follows the prompt is left for the caller, it is not
+		// taken as output of the command
+		PathcomOutputParser parser = new PathcomOutputParser(false, null);
+		ByteBuffer in = ByteBuffer.wrap("SC-1\n=TCP".getBytes());
+		assertTrue(parser.feed(in));
+		assertEquals(3, in.remaining());
+		assertEquals("SC-1\n", parser.finish("cmd").output);
+	}
+
+	@Test
+	public void bareEqualsAfterFinish() {
+		PathcomOutputParser parser = new PathcomOutputParser(false, null);
+		feed(parser, "$Y123: PATHCOM - T0844L01 - (01JUN18)\n=");
+		// A reply of just the prompt, as to a command without output
+		assertTrue(parser.feed("=".getBytes(), 0, 1));
+		assertEquals("", parser.finish("cmd").output);
+	}
+
+	@Test
+	public void repliesOfSeveralCommands() {
+		PathcomOutputParser parser = new PathcomOutputParser(false, null);
+		byte[] bytes = "=\n=*ERROR* PATHCOM - 1040 EXISTS\n=SC-1 RUNNING\n=".getBytes();
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+		List<PathcomSession.Result> results = new ArrayList<PathcomSession.Result>();
+		while (in.hasRemaining()) {
+			if (parser.feed(in))
+				results.add(parser.finish("cmd" + results.size()));
+		}
+		assertEquals(4, results.size());
+		assertEquals("", results.get(0).output);
+		assertEquals(0, results.get(1).errorCode);
+		assertEquals(1040, results.get(2).errorCode);
+		assertEquals("SC-1 RUNNING\n", results.get(3).output);
+	}
+}
@@ -0,0 +1,142 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs commands over PATHCOM sessions of the gtacl stand-in and hands them
+ * back to the pool. Every test uses its own PATHMON name.
+ */
+public class PathcomSessionTest {
+
+	@BeforeClass
+	public static void standIn() {
+		System.setProperty("tsmp.gtacl", "/bin/sh src/test/resources/gtacl-standin.sh");
+	}
+
+	@After
+	public void closeAll() {
+		PathcomSession.closeAll();
+		PathcomSession.setIdleMillis(Long.getLong("tsmp.pathcom.idle", 30000L));
+	}
+
+	@Test
+	public void releasedSessionIsReused() throws Exception {
+		PathcomSession session = PathcomSession.acquire("PSREUSE");
+		session.executeOrThrow(Arrays.asList("INFO PATHMON"));
+		PathcomSession.release(session);
+		PathcomSession again = PathcomSession.acquire("PSREUSE");
+		assertSame(session, again);
+		assertTrue(again.isAlive());
+
+		// A session in use is not handed out twice, nor to another PATHMON
+		PathcomSession second = PathcomSession.acquire("PSREUSE");
+		assertNotSame(again, second);
+		PathcomSession other = PathcomSession.acquire("PSOTHER");
+		PathcomSession.release(other);
+		PathcomSession.release(second);
+		PathcomSession.release(again);
+		assertSame(other, PathcomSession.acquire("PSOTHER"));
+		PathcomSession.release(other);
+	}
+
+	@Test
+	public void poolKeepsTwoIdleSessions() throws Exception {
+		PathcomSession first = PathcomSession.acquire("PSIDLE");
+		PathcomSession second = PathcomSession.acquire("PSIDLE");
+		PathcomSession third = PathcomSession.acquire("PSIDLE");
+		PathcomSession.release(first);
+		PathcomSession.release(second);
+		PathcomSession.release(third);
+		// The one released first is closed
+		assertFalse(first.isAlive());
+		assertTrue(second.isAlive());
+		assertTrue(third.isAlive());
+		// The one released last is handed out first
+		assertSame(third, PathcomSession.acquire("PSIDLE"));
+		assertSame(second, PathcomSession.acquire("PSIDLE"));
+		PathcomSession.release(second);
+		PathcomSession.release(third);
+	}
+
+	@Test
+	public void batchStopsAtTheFirstError() throws Exception {
+		PathcomSession session = PathcomSession.acquire("PSERROR");
+		List<PathcomSession.Result> results = session
+				.execute(Arrays.asList("SET SERVER MAXSERVERS 2", "ADD SERVER FAIL", "START SERVER FAIL"));
+		assertEquals(2, results.size());
+		assertFalse(results.get(0).error);
+		assertTrue(results.get(1).error);
+		assertEquals(1040, results.get(1).errorCode);
+		try {
+			session.executeOrThrow(Arrays.asList("ADD SERVER FAIL"));
+			fail("error not thrown");
+		} catch (RuntimeException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().contains("1040"));
+		}
+		// An error reply does not break the session
+		assertTrue(session.isAlive());
+		PathcomSession.release(session);
+		assertSame(session, PathcomSession.acquire("PSERROR"));
+		PathcomSession.release(session);
+	}
+
+	@Test
+	public void closedSessionIsNotPooled() throws Exception {
+		PathcomSession session = PathcomSession.acquire("PSCLOSED");
+		session.close();
+		assertFalse(session.isAlive());
+		PathcomSession.release(session);
+		PathcomSession next = PathcomSession.acquire("PSCLOSED");
+		assertNotSame(session, next);
+		PathcomSession.release(next);
+
+		PathcomSession.closeAll();
+		assertFalse(next.isAlive());
+		PathcomSession fresh = PathcomSession.acquire("PSCLOSED");
+		assertNotSame(next, fresh);
+		PathcomSession.release(fresh);
+	}
+
+	@Test
+	public void idleSessionsAreEvicted() throws Exception {
+		PathcomSession.setIdleMillis(200);
+		PathcomSession old = PathcomSession.acquire("PSEVICT");
+		PathcomSession.release(old);
+		Thread.sleep(300);
+		PathcomSession recent = PathcomSession.acquire("PSEVICT2");
+		PathcomSession.release(recent);
+
+		PathcomSession.evictIdle();
+		assertFalse(old.isAlive());
+		assertTrue(recent.isAlive());
+		PathcomSession next = PathcomSession.acquire("PSEVICT");
+		assertNotSame(old, next);
+		PathcomSession.release(next);
+		assertSame(recent, PathcomSession.acquire("PSEVICT2"));
+		PathcomSession.release(recent);
+	}
+
+	@Test
+	public void evictorClosesIdleSessions() throws Exception {
+		// The evictor checks every half idle time, at least every 100 ms
+		PathcomSession.setIdleMillis(100);
+		PathcomSession session = PathcomSession.acquire("PSEVICTOR");
+		PathcomSession.release(session);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (session.isAlive() && System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+		assertFalse(session.isAlive());
+	}
+}
@@ -0,0 +1,109 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Sizes the PATHWAY limits of a PATHMON from its serverclasses and the
+ * PATHWAY. keys.
+ */
+public class PathwaySizingTest {
+
+	private static Properties props(String... pairs) {
+		Properties props = new Properties();
+		for (int i = 0; i < pairs.length; i += 2)
+			props.setProperty(pairs[i], pairs[i + 1]);
+		return props;
+	}
+
+	// Two serverclasses of 8 processes each, with 3 DEFINEs between them,
+	// on CPUs 0 to 3
+	private static List<TSMPBuilderFactory.Serverclass> serverclasses() {
+		Properties a = props("NUMSTATIC", "2", "MAXSERVERS", "8", "PROCESS_NAMES", "a1,a2", "CPUS", "{{0,1},{2,3}}",
+				"DEFINE", "(=A, CLASS MAP, FILE $V.S.A),(=B, CLASS MAP, FILE $V.S.B)");
+		Properties b = props("NUMSTATIC", "1", "MAXSERVERS", "8", "PROCESS_NAMES", "b1", "CPUS", "{{1,2}}",
+				"DEFINE", "=C, CLASS MAP, FILE $V.S.C");
+		return Arrays.asList(
+				TSMPBuilderFactory.newServerclass("SC-A", a, "", new File("/usr/bin/java"), "-cp app.jar Main",
+						new File("/tmp"), null),
+				TSMPBuilderFactory.newServerclass("SC-B", b, "", new File("/usr/bin/java"), "-cp app.jar Main",
+						new File("/tmp"), null));
+	}
+
+	@Test
+	public void fromProperties() {
+		PathwaySizing sizing = PathwaySizing.fromProperties(props("PATHWAY_HEADROOM", "50", "PATHWAY_LINKMONS", "6"));
+		assertEquals(50, sizing.HEADROOM);
+		assertEquals(6, sizing.LINKMONS);
+		sizing = PathwaySizing.fromProperties(new Properties());
+		assertEquals(25, sizing.HEADROOM);
+		assertEquals(-1, sizing.LINKMONS);
+	}
+
+	@Test
+	public void minimums() {
+		Map<String, Integer> minimums = new PathwaySizing().getMinimums(serverclasses());
+		assertEquals(2, minimums.get("MAXSERVERCLASSES").intValue());
+		assertEquals(16, minimums.get("MAXSERVERPROCESSES").intValue());
+		assertEquals(3, minimums.get("MAXDEFINES").intValue());
+		assertEquals(4, minimums.get("MAXLINKMONS").intValue());
+
+		PathwaySizing sizing = new PathwaySizing();
+		sizing.LINKMONS = 10;
+		assertEquals(10, sizing.getMinimums(serverclasses()).get("MAXLINKMONS").intValue());
+	}
+
+	@Test
+	public void limitsAreSizedBelowTheDefaultsToo() {
+		TSMPBuilderFactory.Pathmon pmon = new TSMPBuilderFactory.Pathmon("PMSIZE");
+		int assigns = pmon.getLimits().get("MAXASSIGNS");
+		new PathwaySizing().apply(pmon, serverclasses(), new Properties());
+		Map<String, Integer> limits = pmon.getLimits();
+		assertEquals(3, limits.get("MAXSERVERCLASSES").intValue());
+		assertEquals(20, limits.get("MAXSERVERPROCESSES").intValue());
+		assertEquals(4, limits.get("MAXDEFINES").intValue());
+		assertEquals(5, limits.get("MAXLINKMONS").intValue());
+		// Limits the serverclasses do not need keep their default
+		assertEquals(assigns, limits.get("MAXASSIGNS").intValue());
+	}
+
+	@Test
+	public void keysAreUsedAsIs() {
+		TSMPBuilderFactory.Pathmon pmon = new TSMPBuilderFactory.Pathmon("PMSIZE");
+		new PathwaySizing().apply(pmon, serverclasses(),
+				props("PATHWAY.MAXSERVERPROCESSES", "16", "pathway.maxdefines", "100", "PATHWAY.MAXTCPS", "0"));
+		Map<String, Integer> limits = pmon.getLimits();
+		assertEquals(16, limits.get("MAXSERVERPROCESSES").intValue());
+		assertEquals(100, limits.get("MAXDEFINES").intValue());
+		assertEquals(0, limits.get("MAXTCPS").intValue());
+		assertEquals(3, limits.get("MAXSERVERCLASSES").intValue());
+	}
+
+	@Test
+	public void keyBelowTheMinimumIsRejected() {
+		for (String key : new String[] { "PATHWAY.MAXSERVERPROCESSES", "pathway.MaxServerProcesses" }) {
+			try {
+				new PathwaySizing().apply(new TSMPBuilderFactory.Pathmon("PMSIZE"), serverclasses(),
+						props(key, "15"));
+				fail(key + " below the minimum accepted");
+			} catch (IllegalArgumentException ex) {
+				assertTrue(ex.getMessage(), ex.getMessage().contains("16"));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownLimit() {
+		new PathwaySizing().apply(new TSMPBuilderFactory.Pathmon("PMSIZE"), serverclasses(),
+				props("PATHWAY.MAXFOO", "1"));
+	}
+}
@@ -0,0 +1,185 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Formats, reserves and runs out of process names. The running processes come
+ * from the gtacl stand-in. Every test uses its own prefix, the names taken
+ * are shared by the whole JVM. The names another JVM holds are taken by a
+ * child JVM running {@link #main(String[])}.
+ */
+public class ProcessNameAllocatorTest {
+
+	@BeforeClass
+	public static void standIn() {
+		System.setProperty("tsmp.gtacl", "/bin/sh src/test/resources/gtacl-standin.sh");
+	}
+
+	@Test
+	public void format() {
+		assertEquals("000", ProcessNameAllocator.format(0, 3));
+		assertEquals("00Z", ProcessNameAllocator.format(35, 3));
+		assertEquals("010", ProcessNameAllocator.format(36, 3));
+		assertEquals("ZZ", ProcessNameAllocator.format(36 * 36 - 1, 2));
+	}
+
+	@Test
+	public void namesFillTheLength() throws Exception {
+		assertEquals(Arrays.asList("$CR000", "$CR001", "$CR002"), new ProcessNameAllocator().allocate("cr", 3));
+		assertEquals(Arrays.asList("$Q0000", "$Q0001"), new ProcessNameAllocator().allocate("$Q", 2));
+	}
+
+	@Test
+	public void exhaustion() throws Exception {
+		ProcessNameAllocator allocator = new ProcessNameAllocator();
+		try {
+			allocator.allocate("XQZW", 37);
+			fail("37 names from a prefix of 4");
+		} catch (IllegalArgumentException ex) {
+			assertEquals("Only 36 of 37 process names left for prefix XQZW", ex.getMessage());
+		}
+		// None were taken by the failed allocation
+		List<String> names = allocator.allocate("XQZW", 36);
+		assertEquals("$XQZW0", names.get(0));
+		assertEquals("$XQZWZ", names.get(35));
+		try {
+			allocator.allocate("XQZW", 1);
+			fail("all names taken");
+		} catch (IllegalArgumentException ex) {
+			assertEquals("Only 0 of 1 process names left for prefix XQZW", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void invalidPrefix() throws Exception {
+		for (String prefix : new String[] { "ABCDE", "1A", "A-B", "" }) {
+			try {
+				new ProcessNameAllocator().allocate(prefix, 1);
+				fail(prefix);
+			} catch (IllegalArgumentException ex) {
+				assertTrue(ex.getMessage(), ex.getMessage().startsWith("Invalid process name prefix"));
+			}
+		}
+	}
+
+	@Test
+	public void reservedNamesAreSkipped() throws Exception {
+		ProcessNameAllocator allocator = new ProcessNameAllocator();
+		allocator.reserve(Arrays.asList("$RS000", "$RS002"));
+		assertEquals(Arrays.asList("$RS001", "$RS003"), allocator.allocate("RS", 2));
+		try {
+			allocator.reserve(Arrays.asList("$rs001"));
+			fail("reserved twice");
+		} catch (IllegalArgumentException ex) {
+			assertEquals("Process name $rs001 is used twice", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void launchesInOneJvmDoNotShareNames() throws Exception {
+		// Two fleet targets see the same running processes
+		List<String> first = new ProcessNameAllocator().allocate("FL", 3);
+		List<String> second = new ProcessNameAllocator().allocate("FL", 3);
+		assertEquals(Arrays.asList("$FL000", "$FL001", "$FL002"), first);
+		assertEquals(Arrays.asList("$FL003", "$FL004", "$FL005"), second);
+
+		// Names listed in PROCESS_NAMES of one target are skipped by the next
+		new ProcessNameAllocator().reserve(Arrays.asList("$FL006"));
+		assertEquals(Arrays.asList("$FL007"), new ProcessNameAllocator().allocate("FL", 1));
+	}
+
+	@Test
+	public void assignedNamesAreKept() throws Exception {
+		ProcessNameAllocator first = new ProcessNameAllocator();
+		assertEquals(6, first.allocate("KP", 6).size());
+
+		// A relaunch keeps the names the serverclass has, even though an
+		// earlier launch took them, and only generates the rest. Names of
+		// another prefix are dropped
+		List<String> assigned = new ArrayList<String>(Arrays.asList("$KP005", "$ZZ001", "$KP02", "$KP003"));
+		assertEquals(Arrays.asList("$KP005", "$KP003", "$KP006"),
+				new ProcessNameAllocator().allocate("KP", 3, assigned));
+		assertEquals(Arrays.asList("$KP005"), new ProcessNameAllocator().allocate("KP", 1, assigned));
+		assertEquals(Arrays.asList("$KP007"),
+				new ProcessNameAllocator().allocate("KP", 1, Collections.<String> emptyList()));
+	}
+
+	@Test
+	public void releasedNamesAreGeneratedAgain() throws Exception {
+		assertEquals(Arrays.asList("$RL000", "$RL001"), new ProcessNameAllocator().allocate("RL", 2));
+		ProcessNameAllocator.release(Arrays.asList("$RL000", "RL9ZZ"));
+		assertEquals(Arrays.asList("$RL000", "$RL002"), new ProcessNameAllocator().allocate("RL", 2));
+	}
+
+	@Test
+	public void defaultNamesAreShared() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("SERVERCLASS.A.NUMSTATIC", "1");
+		props.setProperty("SERVERCLASS.B.NUMSTATIC", "1");
+		List<TSMPBuilderFactory.Serverclass> svcs = TSMPBuilderFactory.newServerclasses(props,
+				new File("/usr/bin/java"), "-cp app.jar Main", new File("/tmp"));
+		assertEquals(Arrays.asList(svcs.get(0).PROCESS), Arrays.asList(svcs.get(1).PROCESS));
+
+		props.setProperty("SERVERCLASS.A.PROCESS_NAMES", "DN1,DN2");
+		props.setProperty("SERVERCLASS.B.PROCESS_NAMES", "DN2");
+		try {
+			TSMPBuilderFactory.newServerclasses(props, new File("/usr/bin/java"), "-cp app.jar Main",
+					new File("/tmp"));
+			fail("DN2 listed twice");
+		} catch (IllegalArgumentException ex) {
+			assertEquals("Process name $DN2 is used twice", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void namesHeldByAnotherJvmAreSkipped() throws Exception {
+		File dir = Files.createTempDirectory("tsmp-lock").toFile();
+		System.setProperty("tsmp.lock.dir", dir.getPath());
+		Process child = null;
+		try {
+			String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+			child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					"-Dtsmp.lock.dir=" + dir.getPath(), "-Dtsmp.log.sink=off",
+					"-Dtsmp.gtacl=" + System.getProperty("tsmp.gtacl"), ProcessNameAllocatorTest.class.getName(),
+					"XJ", "3").redirectErrorStream(true).start();
+			BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream()));
+			assertEquals("[$XJ000, $XJ001, $XJ002]", out.readLine());
+
+			assertEquals(Arrays.asList("$XJ003", "$XJ004"), new ProcessNameAllocator().allocate("XJ", 2));
+			// The locks go with the child JVM
+			child.getOutputStream().close();
+			child.waitFor();
+			assertEquals(Arrays.asList("$XJ000"), new ProcessNameAllocator().allocate("XJ", 1));
+			assertTrue(new File(dir, "names/XJ000.lock").exists());
+		} finally {
+			if (child != null)
+				child.destroy();
+			ProcessNameAllocator.releaseAll();
+			System.clearProperty("tsmp.lock.dir");
+		}
+	}
+
+	// Allocates args[1] names of prefix args[0], prints them and holds them
+	// until the standard input is closed
+	public static void main(String[] args) throws Exception {
+		System.out.println(new ProcessNameAllocator().allocate(args[0], Integer.parseInt(args[1])));
+		System.out.flush();
+		while (System.in.read() != -1)
+			;
+	}
+}
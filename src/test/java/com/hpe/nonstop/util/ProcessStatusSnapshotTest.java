@@ -0,0 +1,100 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.junit.Test;
+
+/**
+ * Parses TACL STATUS output for one process and for all of them.
+ */
+public class ProcessStatusSnapshotTest {
+
+	private static final String HEADER = "Process           Pri PFR %WT Userid   Program file                 Hometerm\n";
+
+	private static ProcessStatusSnapshot parse(String output) {
+		return ProcessStatusSnapshot.parse("pm", output, 0);
+	}
+
+	@Test
+	public void pairOnNamedLines() {
+		ProcessStatusSnapshot pm = parse(HEADER + "$PM       0,269   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n"
+				+ "$PM       1,300   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n");
+		assertTrue(pm.isRunning());
+		assertTrue(pm.isPair());
+		assertEquals(0, pm.PRIMARY_CPU);
+		assertEquals(269, pm.PRIMARY_PIN);
+		assertEquals(1, pm.BACKUP_CPU);
+		assertEquals(300, pm.BACKUP_PIN);
+		assertEquals("PM", pm.NAME);
+	}
+
+	@Test
+	public void backupOnTheLineBelow() {
+		ProcessStatusSnapshot pm = parse(HEADER + "$PM       2 , 45  148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n"
+				+ "          3,46    148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\r\n");
+		assertEquals(2, pm.PRIMARY_CPU);
+		assertEquals(45, pm.PRIMARY_PIN);
+		assertEquals(3, pm.BACKUP_CPU);
+		assertEquals(46, pm.BACKUP_PIN);
+	}
+
+	@Test
+	public void noBackup() {
+		ProcessStatusSnapshot pm = parse(HEADER + "$PM       0,269   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n");
+		assertTrue(pm.isRunning());
+		assertFalse(pm.isPair());
+		assertEquals(-1, pm.BACKUP_CPU);
+		assertEquals("$PM primary 0,269", pm.toString());
+
+		// The next process is not the backup, nor is a later indented line
+		pm = parse(HEADER + "$PM       0,269   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n"
+				+ "$PMX      1,300   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n"
+				+ "          2,301   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n");
+		assertFalse(pm.isPair());
+	}
+
+	@Test
+	public void notRunning() {
+		ProcessStatusSnapshot pm = parse("Process $PM does not exist\n");
+		assertFalse(pm.isRunning());
+		assertFalse(pm.isPair());
+		assertEquals("$PM not running", pm.toString());
+		assertFalse(parse("").isRunning());
+	}
+
+	@Test
+	public void namesOfAllProcesses() {
+		String output = HEADER + "$PM       0,269   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n"
+				+ "          1,300   148     001 255,255  $SYSTEM.SYSTEM.PATHMON  $ZHOME\n"
+				+ "$x01      2,12    148     001 255,255  $SYSTEM.SYSTEM.JAVA     $ZHOME\n"
+				+ "$Z0:      3,4     148     001 255,255  $SYSTEM.SYSTEM.OSIMAGE  $ZHOME\n";
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("PM", "X01", "Z0")),
+				ProcessStatusSnapshot.parseNames(output));
+	}
+
+	@Test
+	public void queriedOverGtacl() throws Exception {
+		File log = File.createTempFile("gtacl-standin", ".log");
+		System.setProperty("tsmp.gtacl",
+				"/usr/bin/env GTACL_STANDIN_LOG=" + log.getAbsolutePath() + " /bin/sh src/test/resources/gtacl-standin.sh");
+		try {
+			ProcessStatusSnapshot pm = ProcessStatusSnapshot.get("psq");
+			assertTrue(pm.isPair());
+			assertEquals(1, pm.BACKUP_CPU);
+			// Cached
+			assertTrue(pm == ProcessStatusSnapshot.get("PSQ"));
+			ProcessStatusSnapshot.invalidate("psq");
+			assertFalse(pm == ProcessStatusSnapshot.get("psq"));
+		} finally {
+			ProcessStatusSnapshot.invalidate("psq");
+			System.clearProperty("tsmp.gtacl");
+			log.delete();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Feeds STATUS SERVER, DETAIL output to the gate poll by poll.
+ */
+public class ReadinessGateTest {
+
+	private static TSMPBuilderFactory.Serverclass newServerclass(String names, int numstatic) {
+		Properties props = new Properties();
+		props.setProperty("NUMSTATIC", String.valueOf(numstatic));
+		props.setProperty("MAXSERVERS", String.valueOf(numstatic));
+		props.setProperty("PROCESS_NAMES", names);
+		props.setProperty("CPUS", "{{0,1},{2,3}}");
+		return TSMPBuilderFactory.newServerclass("SC-1", props, "", new File("/usr/bin/java"), "-cp app.jar Main",
+				new File("/tmp"), null);
+	}
+
+	private static String status(String... rows) {
+		StringBuffer out = new StringBuffer("SERVER          #RUNNING  ERROR  INFO\nSC-1  1\n");
+		out.append(" PROCESS  STATE     ERROR  INFO  #LINKS  WEIGHT\n");
+		for (String row : rows)
+			out.append(" ").append(row).append("  0  0\n");
+		return out.toString();
+	}
+
+	private static ReadinessGate newGate(TSMPBuilderFactory.Serverclass svc) {
+		ReadinessGate gate = new ReadinessGate(new TSMPBuilderFactory.Pathmon("PM"), Arrays.asList(svc));
+		gate.STABLE_POLLS = 3;
+		return gate;
+	}
+
+	@Test
+	public void readyAfterStablePolls() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass("A", 1);
+		ReadinessGate gate = newGate(svc);
+		gate.update(svc, ServerStatus.parse(status("$A RUNNING")), 100);
+		gate.update(svc, ServerStatus.parse(status("$A RUNNING")), 350);
+		assertFalse(gate.isReady());
+		gate.update(svc, ServerStatus.parse(status("$A RUNNING")), 600);
+		assertTrue(gate.isReady());
+		// The time to ready is that of the first RUNNING poll
+		assertEquals(100, gate.getProcesses().get(0).readyMillis);
+	}
+
+	@Test
+	public void failingServerStartsOver() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass("A", 1);
+		ReadinessGate gate = newGate(svc);
+		gate.update(svc, ServerStatus.parse(status("$A RUNNING")), 100);
+		gate.update(svc, ServerStatus.parse(status("$A RUNNING")), 350);
+		gate.update(svc, ServerStatus.parse(status("$A STOPPED")), 600);
+		gate.update(svc, ServerStatus.parse(status("$A RUNNING")), 850);
+		gate.update(svc, ServerStatus.parse(status("$A RUNNING")), 1100);
+		assertFalse(gate.isReady());
+		gate.update(svc, ServerStatus.parse(status("$A RUNNING")), 1350);
+		assertTrue(gate.isReady());
+		ReadinessGate.ProcessState a = gate.getProcesses().get(0);
+		assertEquals(850, a.readyMillis);
+		assertEquals(1, a.restarts);
+		assertTrue(gate.getReport(), gate.getReport().contains("restarted 1 times"));
+	}
+
+	@Test
+	public void unnamedStaticsAreCounted() {
+		// Three statics, one named; PATHMON names the other two
+		TSMPBuilderFactory.Serverclass svc = newServerclass("A", 3);
+		ReadinessGate gate = newGate(svc);
+		for (int poll = 0; poll < 3; poll++)
+			gate.update(svc, ServerStatus.parse(status("$A RUNNING")), poll * 250);
+		assertFalse(gate.isReady());
+		assertTrue(gate.getReport(), gate.getReport().contains("2 static processes without a name NOT REPORTED"));
+
+		for (int poll = 3; poll < 6; poll++)
+			gate.update(svc, ServerStatus.parse(status("$A RUNNING", "$X0001 RUNNING", "$X0002 RUNNING")),
+					poll * 250);
+		assertTrue(gate.isReady());
+		List<ReadinessGate.ProcessState> processes = gate.getProcesses();
+		assertEquals(3, processes.size());
+		assertEquals("$X0001", processes.get(1).NAME);
+		// Process 1 is on the second CPU pair
+		assertEquals(2, processes.get(1).CPU);
+	}
+
+	@Test
+	public void cpuFromTheProcessId() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass("A", 1);
+		ReadinessGate gate = newGate(svc);
+		assertEquals(0, gate.getProcesses().get(0).CPU);
+		gate.update(svc, ServerStatus.parse(status("$A RUNNING 3,52")), 100);
+		assertEquals(3, gate.getProcesses().get(0).CPU);
+	}
+}
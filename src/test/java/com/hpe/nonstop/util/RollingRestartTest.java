@@ -0,0 +1,115 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Orders the static processes of a rolling restart by the CPUs STATUS SERVER
+ * reports and cycles them over the gtacl stand-in, which reports $XA running
+ * on CPU 0 and $XB on CPU 2.
+ */
+public class RollingRestartTest {
+
+	private File log;
+
+	@Before
+	public void standIn() throws Exception {
+		log = File.createTempFile("gtacl-standin", ".log");
+		System.setProperty("tsmp.gtacl",
+				"/usr/bin/env GTACL_STANDIN_LOG=" + log.getAbsolutePath() + " /bin/sh src/test/resources/gtacl-standin.sh");
+	}
+
+	@After
+	public void cleanUp() {
+		PathcomSession.closeAll();
+		System.clearProperty("tsmp.gtacl");
+		log.delete();
+	}
+
+	private static TSMPBuilderFactory.Serverclass newServerclass(String names, String cpus, int maxUnavailable) {
+		Properties props = new Properties();
+		props.setProperty("PROCESS_NAMES", names);
+		props.setProperty("NUMSTATIC", String.valueOf(names.split(",").length));
+		props.setProperty("MAXSERVERS", String.valueOf(names.split(",").length));
+		props.setProperty("CPUS", cpus);
+		props.setProperty("UPGRADE", "ROLLING");
+		props.setProperty("MAX_UNAVAILABLE", String.valueOf(maxUnavailable));
+		props.setProperty("READY_INTERVAL", "10");
+		return TSMPBuilderFactory.newServerclass("SC-1", props, "", new File("/usr/bin/java"), "-cp app.jar Main",
+				new File("/tmp"), null);
+	}
+
+	// rows : name and cpu,pin of every running process
+	private static ServerStatus status(String... rows) {
+		StringBuffer out = new StringBuffer(" PROCESS  STATE  ERROR  INFO  #LINKS  WEIGHT  PID\n");
+		for (int i = 0; i < rows.length; i += 2)
+			out.append(String.format(" %s  RUNNING  0  0  0  0  %s\n", rows[i], rows[i + 1]));
+		return ServerStatus.parse(out.toString());
+	}
+
+	private static List<List<String>> batches(String... batches) {
+		List<List<String>> list = new ArrayList<List<String>>();
+		for (String batch : batches)
+			list.add(Arrays.asList(batch.split(",")));
+		return list;
+	}
+
+	@Test
+	public void takesTurnsAcrossTheReportedCpus() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass("a,b,c,d", "{{0,1},{2,3}}", 1);
+		// $B and $C took over on the backup CPUs
+		ServerStatus status = status("$A", "0,10", "$B", "3,11", "$C", "1,12", "$D", "3,13");
+		assertEquals(batches("$a", "$b", "$c", "$d"), svc.getRollingBatches(status));
+		// $A and $C on CPU 0, $B and $D on CPU 2: never both of one CPU at once
+		status = status("$A", "0,10", "$B", "2,11", "$C", "0,12", "$D", "2,13");
+		svc.MAX_UNAVAILABLE = 2;
+		assertEquals(batches("$a,$b", "$c,$d"), svc.getRollingBatches(status));
+	}
+
+	@Test
+	public void configuredCpuWithoutProcessId() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass("a,b,c", "{{0,1},{2,3}}", 2);
+		// $A and $C are configured on pair 0; $B is not reported
+		ServerStatus status = ServerStatus.parse(" $A  RUNNING  0  0\n $C  STOPPED  0  0\n");
+		assertEquals(batches("$a,$b", "$c"), svc.getRollingBatches(status));
+	}
+
+	@Test
+	public void lastBatchMayBeSmaller() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass("a,b,c", "{{0,1}}", 0);
+		assertEquals(batches("$a", "$b", "$c"), svc.getRollingBatches(ServerStatus.parse("")));
+		svc.MAX_UNAVAILABLE = 5;
+		assertEquals(batches("$a,$b,$c"), svc.getRollingBatches(ServerStatus.parse("")));
+	}
+
+	@Test
+	public void altersBeforeAnyProcessIsCycled() throws Exception {
+		TSMPBuilderFactory.Serverclass svc = newServerclass("xa,xb", "{{2,3},{0,1}}", 1);
+		PathcomSession session = PathcomSession.acquire("RRPM");
+		try {
+			svc.rollingRestart(session, Arrays.asList("ALTER SERVER SC-1, MAXLINKS 8"));
+		} finally {
+			PathcomSession.release(session);
+		}
+		List<String> commands = ServerclassStartTest.commands(log);
+		assertEquals(Arrays.asList("FREEZE SERVER SC-1", "ALTER SERVER SC-1, MAXLINKS 8", "THAW SERVER SC-1",
+				"STATUS SERVER SC-1, DETAIL"), commands.subList(1, 5));
+		// FREEZE and THAW apply to the whole serverclass only
+		for (String command : commands)
+			assertTrue(command, !command.startsWith("FREEZE") && !command.startsWith("THAW") || !command.contains(","));
+		// $XA runs on CPU 0 and $XB on CPU 2, each cycled and waited on alone
+		assertEquals(Arrays.asList("STOP SERVER SC-1, PROCESS $xa", "START SERVER SC-1, PROCESS $xa",
+				"STATUS SERVER SC-1, DETAIL", "STOP SERVER SC-1, PROCESS $xb", "START SERVER SC-1, PROCESS $xb",
+				"STATUS SERVER SC-1, DETAIL"), commands.subList(5, 11));
+	}
+}
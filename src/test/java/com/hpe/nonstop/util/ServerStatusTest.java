@@ -0,0 +1,69 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.junit.Test;
+
+/**
+ * Parses the process rows of STATUS SERVER, DETAIL.
+ */
+public class ServerStatusTest {
+
+	private static final String OUTPUT = "SERVER          #RUNNING  ERROR  INFO\n"
+			+ "SC-1            3\n"
+			+ "\n"
+			+ "  PROCESS    STATE      ERROR  INFO  #LINKS  WEIGHT  PID\n"
+			+ "  $a1        RUNNING                 2       1       0,123\n"
+			+ "  $A2        RUNNING    0      0     0       0       1,45\n"
+			+ "  $A3        STOPPED    4002   ERR   0       0\n"
+			+ "  $A4        RUNNING                 3       0\n";
+
+	@Test
+	public void processRows() {
+		ServerStatus status = ServerStatus.parse(OUTPUT);
+		assertEquals(Arrays.asList("$A1", "$A2", "$A3", "$A4"),
+				Arrays.asList(status.getProcesses().keySet().toArray()));
+		ServerStatus.Process a1 = status.get("a1");
+		assertEquals("RUNNING", a1.STATE);
+		assertEquals(2, a1.LINKS);
+		assertEquals(1, a1.WEIGHT);
+		assertEquals(0, a1.CPU);
+		assertEquals(123, a1.PIN);
+		// Empty ERROR and INFO, and no PID
+		ServerStatus.Process a4 = status.get("$A4");
+		assertEquals(3, a4.LINKS);
+		assertEquals(0, a4.WEIGHT);
+		assertFalse(a4.hasPid());
+		assertEquals(-1, a4.CPU);
+		assertFalse(status.get("$A3").isRunning());
+	}
+
+	@Test
+	public void totalsOfTheRunningProcesses() {
+		ServerStatus status = ServerStatus.parse(OUTPUT);
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("$A1", "$A2", "$A4")), status.getRunning());
+		assertEquals(2, status.getBusy());
+		assertEquals(5, status.getLinks());
+		assertEquals(1, status.getQueued());
+	}
+
+	@Test
+	public void restartedProcess() {
+		ServerStatus.Process before = ServerStatus.parse(" $A1 RUNNING 0 0 0,123").get("$A1");
+		assertTrue(before.isSameProcess(ServerStatus.parse(" $A1 RUNNING 1 0 0,123").get("$A1")));
+		assertFalse(before.isSameProcess(ServerStatus.parse(" $A1 RUNNING 0 0 0,124").get("$A1")));
+		assertFalse(before.isSameProcess(ServerStatus.parse(" $A1 RUNNING 0 0 1,123").get("$A1")));
+	}
+
+	@Test
+	public void noProcesses() {
+		ServerStatus status = ServerStatus.parse("*ERROR* PATHCOM - 1014 SERVER DOES NOT EXIST\n");
+		assertTrue(status.getProcesses().isEmpty());
+		assertEquals(0, status.getBusy());
+	}
+}
@@ -0,0 +1,93 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Compares serverclass definitions with live INFO SERVER attributes, see
+ * {@link TSMPBuilderFactory.Serverclass#getDelta(Map)}.
+ */
+public class ServerclassDeltaTest {
+
+	private static TSMPBuilderFactory.Serverclass newServerclass() {
+		Properties props = new Properties();
+		props.setProperty("NUMSTATIC", "2");
+		props.setProperty("MAXSERVERS", "2");
+		props.setProperty("PROCESS_NAMES", "a,b");
+		props.setProperty("CPUS", "{{0,1}}");
+		TSMPBuilderFactory.Serverclass svc = TSMPBuilderFactory.newServerclass("SC-1", props, "",
+				new File("/usr/bin/java"), "-Xmx64m -cp App.jar Main", new File("/tmp"), null);
+		svc.ENV = new String[][] { { "Mode", "fast" } };
+		svc.addDefine("=tcpip^process^name, FILE $ZTC0");
+		return svc;
+	}
+
+	// The attributes as INFO SERVER reports them: Guardian names upper case
+	// and with the node
+	private static Map<String, String> live(TSMPBuilderFactory.Serverclass svc) {
+		Map<String, String> live = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String> attr : svc.getAttributes().entrySet()) {
+			String key = attr.getKey();
+			if (key.startsWith("PROCESS ") || key.startsWith("DEFINE "))
+				key = key.toUpperCase();
+			String value = attr.getValue();
+			if (key.startsWith("DEFINE "))
+				value = value.toUpperCase().replace("$", "\\NODE1.$");
+			live.put(key, value);
+		}
+		return live;
+	}
+
+	@Test
+	public void unchangedGuardianNamesInAnyCase() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass();
+		assertEquals(0, svc.getDelta(live(svc)).size());
+	}
+
+	@Test
+	public void arglistIsCaseSensitive() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass();
+		Map<String, String> live = live(svc);
+		live.put("ARGLIST", "-Xmx64m -cp app.jar Main");
+		List<String> delta = svc.getDelta(live);
+		assertEquals("RESTART", delta.get(0));
+		assertEquals(2, delta.size());
+		assertTrue(delta.get(1), delta.get(1).endsWith("ARGLIST -Xmx64m -cp App.jar Main"));
+	}
+
+	@Test
+	public void envIsCaseSensitive() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass();
+		Map<String, String> live = live(svc);
+		live.put("ENV Mode", "FAST");
+		List<String> delta = svc.getDelta(live);
+		assertEquals(2, delta.size());
+		assertEquals("ALTER SERVER SC-1, ENV Mode=fast", delta.get(1));
+
+		// A different name is a different variable
+		live = live(svc);
+		live.remove("ENV Mode");
+		live.put("ENV MODE", "fast");
+		delta = svc.getDelta(live);
+		assertTrue(delta.toString(), delta.contains("ALTER SERVER SC-1, ENV Mode=fast"));
+		assertTrue(delta.toString(), delta.contains("ALTER SERVER SC-1, RESET ENV MODE"));
+	}
+
+	@Test
+	public void removedProcessIsReset() {
+		TSMPBuilderFactory.Serverclass svc = newServerclass();
+		Map<String, String> live = live(svc);
+		live.put("PROCESS $C", "");
+		List<String> delta = svc.getDelta(live);
+		assertEquals(2, delta.size());
+		assertEquals("ALTER SERVER SC-1, RESET PROCESS $C", delta.get(1));
+	}
+}
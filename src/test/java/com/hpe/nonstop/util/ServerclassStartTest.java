@@ -0,0 +1,100 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Adds and starts serverclasses over the gtacl stand-in and checks the
+ * PATHCOM commands it was sent. Serverclasses named OLD... exist already.
+ */
+public class ServerclassStartTest {
+
+	private File log;
+
+	@Before
+	public void standIn() throws Exception {
+		log = File.createTempFile("gtacl-standin", ".log");
+		System.setProperty("tsmp.gtacl",
+				"/usr/bin/env GTACL_STANDIN_LOG=" + log.getAbsolutePath() + " /bin/sh src/test/resources/gtacl-standin.sh");
+	}
+
+	@After
+	public void cleanUp() {
+		PathcomSession.closeAll();
+		System.clearProperty("tsmp.gtacl");
+		log.delete();
+	}
+
+	static TSMPBuilderFactory.Serverclass newServerclass(String name) {
+		Properties props = new Properties();
+		props.setProperty("PROCESS_NAMES", name.substring(0, 1) + "1");
+		return TSMPBuilderFactory.newServerclass(name, props, "", new File("/usr/bin/java"), "-cp app.jar Main",
+				new File("/tmp"), null);
+	}
+
+	// The PATHCOM commands the stand-in read, in order
+	static List<String> commands(File log) throws Exception {
+		List<String> commands = new ArrayList<String>();
+		for (String line : Files.readAllLines(log.toPath())) {
+			if (line.startsWith("  "))
+				commands.add(line.trim());
+		}
+		return commands;
+	}
+
+	private List<String> start(String pathmon, String... names) throws Exception {
+		List<TSMPBuilderFactory.Serverclass> svcs = new ArrayList<TSMPBuilderFactory.Serverclass>();
+		for (String name : names)
+			svcs.add(newServerclass(name));
+		TSMPBuilderFactory.Serverclass.configureAndStartInPathmon(new TSMPBuilderFactory.Pathmon(pathmon), svcs);
+		List<String> commands = commands(log);
+		assertEquals("OPEN $" + pathmon, commands.get(0));
+		return commands;
+	}
+
+	@Test
+	public void oneStartForAll() throws Exception {
+		List<String> commands = start("SSALL", "SC-A", "SC-B");
+		assertTrue(commands.indexOf("ADD SERVER SC-B") < commands.indexOf("START SERVER (SC-A, SC-B)"));
+		assertEquals(1, count(commands, "START SERVER"));
+	}
+
+	@Test
+	public void singleServerclass() throws Exception {
+		List<String> commands = start("SSONE", "SC-A");
+		assertEquals("START SERVER SC-A", commands.get(commands.size() - 1));
+	}
+
+	@Test
+	public void existingServerclassIsStarted() throws Exception {
+		List<String> commands = start("SSOLD", "SC-A", "OLD-B");
+		assertTrue(commands.contains("ADD SERVER OLD-B"));
+		assertEquals("START SERVER (SC-A, OLD-B)", commands.get(commands.size() - 1));
+	}
+
+	@Test
+	public void setValuesAreResetForEachServerclass() throws Exception {
+		List<String> commands = start("SSRESET", "SC-A", "SC-B");
+		assertEquals(2, count(commands, "RESET SERVER"));
+		assertTrue(commands.indexOf("ADD SERVER SC-A") < commands.lastIndexOf("RESET SERVER"));
+	}
+
+	static int count(List<String> commands, String prefix) {
+		int n = 0;
+		for (String command : commands) {
+			if (command.startsWith(prefix))
+				n++;
+		}
+		return n;
+	}
+}
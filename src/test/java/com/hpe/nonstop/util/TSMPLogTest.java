@@ -0,0 +1,111 @@
+package com.hpe.nonstop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Fills the log buffer while the writer is held up on the console and checks
+ * what comes out once it is let go.
+ */
+public class TSMPLogTest {
+
+	private static final int BUFFER = Math.max(16, Integer.getInteger("tsmp.log.buffer", 8192));
+
+	// Collects what is printed once open is counted down; entered is counted
+	// down by the first write
+	private static class Gate extends OutputStream {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch open = new CountDownLatch(1);
+		final ByteArrayOutputStream text = new ByteArrayOutputStream();
+
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) {
+			entered.countDown();
+			try {
+				open.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (text) {
+				text.write(b, off, len);
+			}
+		}
+	}
+
+	private static int count(String text, String line) {
+		int n = 0;
+		for (String l : text.split("\n")) {
+			if (l.equals(line))
+				n++;
+		}
+		return n;
+	}
+
+	@Test
+	public void warningsAreNeverDropped() throws Exception {
+		Assume.assumeTrue(TSMPLog.isEnabled(TSMPLog.INFO));
+		TSMPLog.flush(5000);
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		Gate gate = new Gate();
+		PrintStream gated = new PrintStream(gate, true);
+		System.setOut(gated);
+		System.setErr(gated);
+		String text;
+		try {
+			TSMPLog.info("first\n");
+			gate.entered.await();
+			// The writer is held up, so these fill the buffer and the rest
+			// is dropped
+			for (int i = 0; i < BUFFER; i++)
+				TSMPLog.info("kept\n");
+			for (int i = 0; i < 10; i++)
+				TSMPLog.debug("dropped\n");
+			for (int i = 0; i < 10; i++)
+				TSMPLog.info("dropped\n");
+
+			Thread warning = new Thread(new Runnable() {
+				public void run() {
+					TSMPLog.warn("warning %d\n", 1);
+				}
+			});
+			warning.start();
+			for (int i = 0; i < 500 && warning.getState() != Thread.State.WAITING; i++)
+				Thread.sleep(10);
+			// Waits for room rather than dropping the warning
+			assertEquals(Thread.State.WAITING, warning.getState());
+
+			gate.open.countDown();
+			warning.join(5000);
+			assertFalse(warning.isAlive());
+			TSMPLog.flush(10000);
+		} finally {
+			gate.open.countDown();
+			System.setOut(out);
+			System.setErr(err);
+		}
+		synchronized (gate.text) {
+			text = gate.text.toString("UTF-8");
+		}
+		assertEquals(1, count(text, "first"));
+		assertEquals(BUFFER, count(text, "kept"));
+		assertEquals(1, count(text, "warning 1"));
+		assertEquals(0, count(text, "dropped"));
+		int dropped = TSMPLog.isEnabled(TSMPLog.DEBUG) ? 20 : 10;
+		assertTrue(text, text.contains("(" + dropped + " log messages dropped, tsmp.log.buffer is full)"));
+		// The warning follows all that was kept
+		assertTrue(text.lastIndexOf("kept") < text.indexOf("warning 1"));
+	}
+}
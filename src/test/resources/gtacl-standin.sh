@@ -0,0 +1,56 @@
+#!/bin/sh
+# Stand-in for gtacl, used to exercise the caplet on a non NonStop system.
+#   mvn package && java -Dcapsule.mode=TSMP \
+#       -Dtsmp.gtacl="/bin/sh src/test/resources/gtacl-standin.sh" ...
+# Every invocation is appended to $GTACL_STANDIN_LOG (default
+# /tmp/gtacl-standin.log), so the number of pathcom processes spawned by a
+# launch can be counted with: grep -c '^pathcom' /tmp/gtacl-standin.log
+LOG=${GTACL_STANDIN_LOG:-/tmp/gtacl-standin.log}
+
+case "$1" in
+-p)
+	echo "pathcom $$" >> "$LOG"
+	printf '$Y123: PATHCOM - T0844L01 - (01JUN18)\n='
+	while IFS= read -r line; do
+		echo "  $line" >> "$LOG"
+		case "$line" in
+		EXIT*|exit*)
+			exit 0
+			;;
+		"ADD SERVER OLD"*|*FAIL*)
+			# Serverclasses named OLD... exist already
+			printf '*ERROR* PATHCOM - 1040 ENTRY ALREADY EXISTS\n='
+			;;
+		"STATUS SERVER "*)
+			# $XA is stopped in the serverclass SC-DOWN, runs with another
+			# PIN in SC-NEWPIN and is gone in SC-GONE
+			printf 'SERVER  #RUNNING  ERROR  INFO\n'
+			printf ' PROCESS  STATE  ERROR  INFO  #LINKS  WEIGHT  PID\n'
+			case "$line" in
+			*SC-DOWN*) printf ' $XA  STOPPED  0  0  0  0\n' ;;
+			*SC-NEWPIN*) printf ' $XA  RUNNING  0  0  2  0  0,301\n' ;;
+			*SC-GONE*) ;;
+			*) printf ' $XA  RUNNING  0  0  2  0  0,300\n' ;;
+			esac
+			printf ' $XB  RUNNING  0  0  0  3  2,310\n='
+			;;
+		"STATS SERVER "*)
+			printf 'REQUESTS 42\nLINK WAITS 5\n='
+			;;
+		*)
+			printf '\n='
+			;;
+		esac
+	done
+	;;
+-c)
+	echo "$2" >> "$LOG"
+	name=$(echo "$2" | sed 's/.*\$//' | tr 'a-z' 'A-Z')
+	echo "Process       Pri PFR %WT Userid   Program file            Hometerm"
+	echo "\$$name  0,269   148     001 255,255  \$SYSTEM.SYSTEM.PATHMON  \$ZHOME"
+	echo "\$$name  1,300   148     001 255,255  \$SYSTEM.SYSTEM.PATHMON  \$ZHOME"
+	;;
+*)
+	echo "$*" >> "$LOG"
+	;;
+esac